@@ -7,20 +7,23 @@ import android.os.Build;
 import android.provider.Settings;
 import android.os.Environment;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import pro.kaleert.XKode.managers.FileSystemManager;
+import pro.kaleert.XKode.managers.TaskScheduler;
 import pro.kaleert.XKode.managers.TerminalManager;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.Callable;
 
 public class XKodeModule extends ReactContextBaseJavaModule {
 
@@ -90,106 +93,389 @@ public class XKodeModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void appendFile(String path, String content, Promise promise) {
-        new Thread(() -> {
-            try {
-                File f = new File(path);
-                if (f.getParentFile() != null) f.getParentFile().mkdirs();
-                try (FileOutputStream fos = new FileOutputStream(f, true)) {
-                    fos.write(content.getBytes());
-                }
-                promise.resolve("Appended");
-            } catch (Exception e) {
-                promise.reject("FS_ERR", e.getMessage());
-            }
-        }).start();
+        // Только кладем в буфер: на диск пачками пишет AppendWriter, без потока на каждый вызов
+        try {
+            FileSystemManager.appendLocal(path, content);
+            promise.resolve("Appended");
+        } catch (Exception e) {
+            promise.reject("FS_ERR", e.getMessage());
+        }
     }
 
     @ReactMethod
-    public void zipFolder(String sourcePath, String destPath, Promise promise) {
-        new Thread(() -> {
-            try {
-                FileOutputStream fos = new FileOutputStream(destPath);
-                ZipOutputStream zipOut = new ZipOutputStream(fos);
-                File fileToZip = new File(sourcePath);
-                zipFile(fileToZip, fileToZip.getName(), zipOut);
-                zipOut.close();
-                fos.close();
-                promise.resolve(destPath);
-            } catch (Exception e) {
-                promise.reject("ZIP_ERR", e.getMessage());
-            }
-        }).start();
+    public void configureAppendFile(String path, ReadableMap options) {
+        FileSystemManager.configureAppend(path, options);
     }
 
-    private void zipFile(File fileToZip, String fileName, ZipOutputStream zipOut) throws IOException {
-        if (fileToZip.isHidden()) return;
-        if (fileToZip.isDirectory()) {
-            if (fileName.endsWith("/")) {
-                zipOut.putNextEntry(new ZipEntry(fileName));
-                zipOut.closeEntry();
-            } else {
-                zipOut.putNextEntry(new ZipEntry(fileName + "/"));
-                zipOut.closeEntry();
-            }
-            File[] children = fileToZip.listFiles();
-            if (children != null) {
-                for (File childFile : children) {
-                    zipFile(childFile, fileName + "/" + childFile.getName(), zipOut);
-                }
+    @ReactMethod
+    public void flushAppendFiles(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise, () -> {
+            FileSystemManager.flushAppends(path);
+            return true;
+        });
+    }
+
+    @ReactMethod
+    public void zipFolder(String sourcePath, String destPath, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_BACKGROUND, opts, "ZIP_ERR", promise,
+            () -> FileSystemManager.zipFolder(sourcePath, destPath, options, progressListener(opts, destPath)));
+    }
+
+    @ReactMethod
+    public void extractArchive(String archivePath, String destPath, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_BACKGROUND, opts, "UNZIP_ERR", promise,
+            () -> FileSystemManager.extractArchive(archivePath, destPath, options, progressListener(opts, archivePath)));
+    }
+
+    @ReactMethod
+    public void createSnapshot(String root, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_BACKGROUND, opts, "SNAPSHOT_ERR", promise,
+            () -> FileSystemManager.createSnapshot(root, snapshotDir(), options, progressListener(opts, root)));
+    }
+
+    @ReactMethod
+    public void listSnapshots(String root, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "SNAPSHOT_ERR", promise,
+            () -> FileSystemManager.listSnapshots(root, snapshotDir()));
+    }
+
+    @ReactMethod
+    public void restoreSnapshot(String root, String id, String destPath, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_BACKGROUND, opts, "SNAPSHOT_ERR", promise,
+            () -> FileSystemManager.restoreSnapshot(root, snapshotDir(), id, destPath, progressListener(opts, destPath)));
+    }
+
+    @ReactMethod
+    public void deleteSnapshot(String root, String id, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_BACKGROUND, opts, "SNAPSHOT_ERR", promise,
+            () -> FileSystemManager.deleteSnapshot(root, snapshotDir(), id));
+    }
+
+    private File snapshotDir() {
+        return new File(reactContext.getFilesDir(), "snapshots");
+    }
+
+    @ReactMethod
+    public void syncSftp(String h, int p, String u, String pw, String localRoot, String remoteRoot,
+                         ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_BACKGROUND, opts, "SYNC_ERR", promise,
+            () -> FileSystemManager.syncSftp(h, p, u, pw, localRoot, remoteRoot, syncDir(), options,
+                progressListener(opts, localRoot)));
+    }
+
+    private File syncDir() {
+        return new File(reactContext.getFilesDir(), "sync");
+    }
+
+    // --- SCHEDULING ---
+
+    /**
+     * Все тяжелые вызовы идут через общий TaskScheduler вместо new Thread.
+     * opts (может быть null): { requestId, priority: 'interactive' | 'normal' | 'background' }
+     */
+    private void schedule(TaskScheduler.Pool pool, int defaultPriority, ReadableMap opts,
+                          String errorCode, Promise promise, Callable<Object> work) {
+        String requestId = null;
+        int priority = defaultPriority;
+        if (opts != null) {
+            if (opts.hasKey("requestId") && !opts.isNull("requestId")) requestId = opts.getString("requestId");
+            if (opts.hasKey("priority") && !opts.isNull("priority")) {
+                String p = opts.getString("priority");
+                if ("interactive".equals(p)) priority = TaskScheduler.PRIORITY_INTERACTIVE;
+                else if ("normal".equals(p)) priority = TaskScheduler.PRIORITY_NORMAL;
+                else if ("background".equals(p)) priority = TaskScheduler.PRIORITY_BACKGROUND;
             }
-            return;
-        }
-        FileInputStream fis = new FileInputStream(fileToZip);
-        ZipEntry zipEntry = new ZipEntry(fileName);
-        zipOut.putNextEntry(zipEntry);
-        byte[] bytes = new byte[1024];
-        int length;
-        while ((length = fis.read(bytes)) >= 0) {
-            zipOut.write(bytes, 0, length);
         }
-        fis.close();
+        TaskScheduler.getInstance().submit(pool, priority, requestId, errorCode, promise, work);
+    }
+
+    private static boolean optBoolean(ReadableMap opts, String key) {
+        return opts != null && opts.hasKey(key) && !opts.isNull(key) && opts.getBoolean(key);
+    }
+
+    // Прогресс длинных передач: событие TRANSFER_PROGRESS с requestId из opts
+    private FileSystemManager.ProgressListener progressListener(ReadableMap opts, String path) {
+        String requestId = opts != null && opts.hasKey("requestId") && !opts.isNull("requestId")
+            ? opts.getString("requestId") : null;
+        return (bytes, total) -> {
+            if (!reactContext.hasActiveCatalystInstance()) return;
+            WritableMap params = Arguments.createMap();
+            params.putString("requestId", requestId);
+            params.putString("path", path);
+            params.putDouble("bytes", bytes);
+            params.putDouble("total", total);
+            reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("TRANSFER_PROGRESS", params);
+        };
+    }
+
+    private FileSystemManager.PageListener pageListener() {
+        return (cursor, entries, done) -> {
+            if (!reactContext.hasActiveCatalystInstance()) return;
+            WritableMap params = Arguments.createMap();
+            params.putString("cursor", cursor);
+            params.putArray("entries", entries);
+            params.putBoolean("done", done);
+            reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("LIST_PAGE", params);
+        };
+    }
+
+    private FileSystemManager.HitListener hitListener(ReadableMap opts) {
+        String requestId = opts != null && opts.hasKey("requestId") && !opts.isNull("requestId")
+            ? opts.getString("requestId") : null;
+        return hits -> {
+            if (!reactContext.hasActiveCatalystInstance()) return;
+            WritableMap params = Arguments.createMap();
+            params.putString("requestId", requestId);
+            params.putArray("hits", hits);
+            reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("SEARCH_HITS", params);
+        };
+    }
+
+    // Пачки изменений от наблюдателей: событие FS_CHANGED
+    private FileSystemManager.ChangeListener changeListener() {
+        return (watchId, changes) -> {
+            if (!reactContext.hasActiveCatalystInstance()) return;
+            WritableMap params = Arguments.createMap();
+            params.putString("watchId", watchId);
+            params.putArray("changes", changes);
+            reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("FS_CHANGED", params);
+        };
+    }
+
+    @Override
+    public void invalidate() {
+        // Перезагрузка JS: наблюдатели и документы старого бандла больше не нужны, буферы логов - на диск
+        FileSystemManager.unwatchAll();
+        FileSystemManager.closeAppends();
+        FileSystemManager.closeDocuments();
+        FileSystemManager.cancelSftpPrefetch();
+        super.invalidate();
+    }
+
+    @ReactMethod
+    public void cancelRequest(String requestId, Promise promise) {
+        promise.resolve(TaskScheduler.getInstance().cancel(requestId));
     }
 
     // --- WRAPPERS ---
 
     @ReactMethod
-    public void listLocalFiles(String path, Promise promise) {
-        new Thread(() -> {
-            try { promise.resolve(FileSystemManager.listLocal(path)); }
-            catch (Exception e) { promise.reject("FS_ERR", e.getMessage()); }
-        }).start();
+    public void listLocalFiles(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise,
+            () -> FileSystemManager.listLocal(path));
+    }
+
+    @ReactMethod
+    public void readLocalFile(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.readLocal(path));
+    }
+
+    @ReactMethod
+    public void readLocalFileRange(String path, double offset, int length, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.readLocalRange(path, offset, length));
+    }
+
+    @ReactMethod
+    public void getLineCount(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise,
+            () -> FileSystemManager.getLineCount(path));
+    }
+
+    @ReactMethod
+    public void readLines(String path, double fromLine, int count, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.readLines(path, fromLine, count));
+    }
+
+    @ReactMethod
+    public void saveLocalFile(String path, String content, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> { FileSystemManager.saveLocal(path, content); return "Saved"; });
+    }
+
+    @ReactMethod
+    public void hashLocalFile(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise,
+            () -> FileSystemManager.hashLocal(path));
+    }
+
+    @ReactMethod
+    public void saveLocalEdits(String path, String baseHash, ReadableArray edits, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.saveLocalEdits(path, baseHash, edits));
+    }
+
+    @ReactMethod
+    public void openDocument(String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.openDocument(path));
+    }
+
+    @ReactMethod
+    public void applyDocumentEdits(String docId, ReadableArray edits, Promise promise) {
+        // Прямо в потоке модуля: правки обязаны применяться в порядке вызовов
+        try {
+            promise.resolve(FileSystemManager.applyDocumentEdits(docId, edits));
+        } catch (Exception e) {
+            promise.reject("FS_ERR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getDocumentText(String docId, double start, double length, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.getDocumentText(docId, start, length));
+    }
+
+    @ReactMethod
+    public void getDocumentLines(String docId, double fromLine, int count, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.getDocumentLines(docId, fromLine, count));
+    }
+
+    @ReactMethod
+    public void snapshotDocument(String docId, Promise promise) {
+        try {
+            promise.resolve(FileSystemManager.snapshotDocument(docId));
+        } catch (Exception e) {
+            promise.reject("FS_ERR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void restoreDocument(String docId, int snapshotId, Promise promise) {
+        try {
+            promise.resolve(FileSystemManager.restoreDocument(docId, snapshotId));
+        } catch (Exception e) {
+            promise.reject("FS_ERR", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void saveDocument(String docId, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FS_ERR", promise,
+            () -> FileSystemManager.saveDocument(docId));
+    }
+
+    @ReactMethod
+    public void closeDocument(String docId) {
+        FileSystemManager.closeDocument(docId);
     }
 
     @ReactMethod
-    public void readLocalFile(String path, Promise promise) {
-        new Thread(() -> {
-            try { promise.resolve(FileSystemManager.readLocal(path)); }
-            catch (Exception e) { promise.reject("FS_ERR", e.getMessage()); }
-        }).start();
+    public void openLocalListing(String path, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise,
+            () -> FileSystemManager.openLocalListing(path, options, pageListener()));
     }
 
     @ReactMethod
-    public void saveLocalFile(String path, String content, Promise promise) {
-        new Thread(() -> {
-            try { FileSystemManager.saveLocal(path, content); promise.resolve("Saved"); }
-            catch (Exception e) { promise.reject("FS_ERR", e.getMessage()); }
-        }).start();
+    public void openSftpListing(String h, int p, String u, String pw, String path, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_NORMAL, opts, "SFTP_ERR", promise,
+            () -> FileSystemManager.openSftpListing(h, p, u, pw, path, options, pageListener()));
     }
 
     @ReactMethod
-    public void listSftpFiles(String h, int p, String u, String pw, String path, Promise promise) {
-        new Thread(() -> {
-            try { promise.resolve(FileSystemManager.listSftp(h, p, u, pw, path)); }
-            catch (Exception e) { promise.reject("SFTP_ERR", e.getMessage()); }
-        }).start();
+    public void listMore(String cursor, ReadableMap opts, Promise promise) {
+        // Страница обычно уже в очереди - ждать придется только медленный источник
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_NORMAL, opts, "FS_ERR", promise,
+            () -> FileSystemManager.listMore(cursor, pageListener()));
     }
 
     @ReactMethod
-    public void listFtpFiles(String h, int p, String u, String pw, String path, Promise promise) {
-        new Thread(() -> {
-            try { promise.resolve(FileSystemManager.listFtp(h, p, u, pw, path)); }
-            catch (Exception e) { promise.reject("FTP_ERR", e.getMessage()); }
-        }).start();
+    public void closeListing(String cursor) {
+        FileSystemManager.closeListing(cursor);
+    }
+
+    @ReactMethod
+    public void watchLocal(String watchId, String path, boolean recursive, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.DISK, TaskScheduler.PRIORITY_NORMAL, opts, "WATCH_ERR", promise, () -> {
+            FileSystemManager.watchLocal(watchId, path, recursive, changeListener());
+            return true;
+        });
+    }
+
+    @ReactMethod
+    public void watchSftp(String watchId, String h, int p, String u, String pw, String path, double intervalMs, Promise promise) {
+        FileSystemManager.watchSftp(watchId, h, p, u, pw, path, intervalMs, changeListener());
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void unwatch(String watchId, Promise promise) {
+        promise.resolve(FileSystemManager.unwatch(watchId));
+    }
+
+    @ReactMethod
+    public void searchFiles(String root, String pattern, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_NORMAL, opts, "SEARCH_ERR", promise,
+            () -> FileSystemManager.searchFiles(root, pattern, options, hitListener(opts)));
+    }
+
+    @ReactMethod
+    public void indexWorkspace(String root, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_BACKGROUND, opts, "INDEX_ERR", promise,
+            () -> FileSystemManager.indexWorkspace(root, indexDir()));
+    }
+
+    @ReactMethod
+    public void findFiles(String root, String query, int limit, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_INTERACTIVE, opts, "INDEX_ERR", promise,
+            () -> FileSystemManager.findFiles(root, indexDir(), query, limit));
+    }
+
+    @ReactMethod
+    public void searchIndexed(String root, String pattern, ReadableMap options, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.CPU, TaskScheduler.PRIORITY_NORMAL, opts, "SEARCH_ERR", promise,
+            () -> FileSystemManager.searchIndexed(root, indexDir(), pattern, options, hitListener(opts)));
+    }
+
+    // Индексы живут в filesDir: cacheDir система может очистить в любой момент
+    private File indexDir() {
+        return new File(reactContext.getFilesDir(), "trigram-index");
+    }
+
+    @ReactMethod
+    public void listSftpFiles(String h, int p, String u, String pw, String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_NORMAL, opts, "SFTP_ERR", promise,
+            () -> FileSystemManager.listSftp(h, p, u, pw, path, optBoolean(opts, "refresh"), true));
+    }
+
+    @ReactMethod
+    public void configureSftpPrefetch(ReadableMap options) {
+        FileSystemManager.configureSftpPrefetch(options);
+    }
+
+    @ReactMethod
+    public void cancelSftpPrefetch() {
+        FileSystemManager.cancelSftpPrefetch();
+    }
+
+    @ReactMethod
+    public void listFtpFiles(String h, int p, String u, String pw, String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_NORMAL, opts, "FTP_ERR", promise,
+            () -> FileSystemManager.listFtp(h, p, u, pw, path, optBoolean(opts, "refresh")));
+    }
+
+    @ReactMethod
+    public void readFtpFile(String h, int p, String u, String pw, String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FTP_READ_ERR", promise,
+            () -> FileSystemManager.readFtp(h, p, u, pw, path));
+    }
+
+    @ReactMethod
+    public void saveFtpFile(String h, int p, String u, String pw, String path, String content, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "FTP_WRITE_ERR", promise,
+            () -> { FileSystemManager.saveFtp(h, p, u, pw, path, content); return "Saved"; });
     }
 
     @ReactMethod
@@ -207,20 +493,65 @@ public class XKodeModule extends ReactContextBaseJavaModule {
         terminalManager.write(id, d);
     }
 
+    @ReactMethod
+    public void getSessionInputQueue(String id, Promise promise) {
+        promise.resolve(terminalManager.getPendingInput(id));
+    }
+
+    @ReactMethod
+    public void setTerminalJsMirror(boolean enabled) {
+        terminalManager.setMirrorOutputToJs(enabled);
+    }
+
+    @ReactMethod
+    public void configureScrollback(int maxBytes, boolean spillToDisk) {
+        terminalManager.configureScrollback(maxBytes, spillToDisk);
+    }
+
+    @ReactMethod
+    public void getScrollback(String id, double offset, int length, Promise promise) {
+        try {
+            WritableMap result = Arguments.createMap();
+            result.putString("data", terminalManager.getScrollback(id, (long) offset, length));
+            result.putDouble("total", terminalManager.getScrollbackLength(id));
+            promise.resolve(result);
+        } catch (Exception e) {
+            promise.reject("SCROLLBACK_ERR", e.getMessage());
+        }
+    }
+
     @ReactMethod
     public void closeSession(String id) {
         terminalManager.close(id);
     }
     
     @ReactMethod
-    public void readSftpFile(String h, int p, String u, String pw, String path, Promise promise) {
-        new Thread(() -> {
-            try { 
-                String content = FileSystemManager.readSftp(h, p, u, pw, path);
-                promise.resolve(content); 
-            } catch (Exception e) { 
-                promise.reject("SFTP_READ_ERR", e.getMessage()); 
-            }
-        }).start();
+    public void readSftpFile(String h, int p, String u, String pw, String path, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "SFTP_READ_ERR", promise,
+            () -> FileSystemManager.readSftp(h, p, u, pw, path));
+    }
+
+    @ReactMethod
+    public void readSftpFileRange(String h, int p, String u, String pw, String path, double offset, int length, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "SFTP_READ_ERR", promise,
+            () -> FileSystemManager.readSftpRange(h, p, u, pw, path, offset, length));
+    }
+
+    @ReactMethod
+    public void downloadSftpFile(String h, int p, String u, String pw, String remotePath, String localPath, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_BACKGROUND, opts, "SFTP_READ_ERR", promise,
+            () -> FileSystemManager.downloadSftp(h, p, u, pw, remotePath, localPath, progressListener(opts, remotePath)));
+    }
+
+    @ReactMethod
+    public void saveSftpFile(String h, int p, String u, String pw, String path, String content, boolean skipUnchanged, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_INTERACTIVE, opts, "SFTP_WRITE_ERR", promise,
+            () -> FileSystemManager.saveSftp(h, p, u, pw, path, content, skipUnchanged));
+    }
+
+    @ReactMethod
+    public void uploadSftpFile(String h, int p, String u, String pw, String localPath, String remotePath, boolean skipUnchanged, ReadableMap opts, Promise promise) {
+        schedule(TaskScheduler.Pool.NETWORK, TaskScheduler.PRIORITY_BACKGROUND, opts, "SFTP_WRITE_ERR", promise,
+            () -> FileSystemManager.uploadFile(h, p, u, pw, localPath, remotePath, skipUnchanged, progressListener(opts, remotePath)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,312 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Дозапись в файлы (логи) с групповым коммитом.
+ * На каждый путь один долгоживущий поток в файл и буфер в памяти: append только
+ * кладет UTF-8 байты в буфер, на диск уходит пачка - по объему или по таймеру.
+ * Тысячи мелких append в секунду превращаются в несколько write.
+ * Монитор канала защищает только буфер: пачка забирается под ним, а write и fsync
+ * идут под отдельным ioLock, так что append не ждет диск.
+ */
+class AppendWriter {
+
+    private static final int DEFAULT_BUFFER = 64 * 1024;
+    private static final long DEFAULT_FLUSH_MS = 200;
+    // Диск не успевает за JS - пишем прямо в вызывающем потоке, память не растет
+    private static final int MAX_BUFFER = 4 * 1024 * 1024;
+    private static final long IDLE_CLOSE_MS = 60 * 1000;
+
+    private static AppendWriter instance;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Map<String, Config> configs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "xkode-append");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private AppendWriter() {
+        flusher.scheduleWithFixedDelay(this::closeIdle, IDLE_CLOSE_MS, IDLE_CLOSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized AppendWriter getInstance() {
+        if (instance == null) {
+            instance = new AppendWriter();
+        }
+        return instance;
+    }
+
+    // --- CONFIG ---
+
+    static class Config {
+        int bufferBytes = DEFAULT_BUFFER;
+        long flushMs = DEFAULT_FLUSH_MS;
+        boolean fsync;          // fsync после каждой пачки
+        long rotateBytes;       // 0 - без ротации
+        int keepFiles = 3;      // сколько старых частей хранить: path.1 ... path.N
+
+        static Config from(ReadableMap map) {
+            Config c = new Config();
+            if (map == null) return c;
+            if (map.hasKey("bufferBytes") && !map.isNull("bufferBytes")) c.bufferBytes = Math.max(0, map.getInt("bufferBytes"));
+            if (map.hasKey("flushMs") && !map.isNull("flushMs")) c.flushMs = Math.max(0, (long) map.getDouble("flushMs"));
+            if (map.hasKey("fsync") && !map.isNull("fsync")) c.fsync = map.getBoolean("fsync");
+            if (map.hasKey("rotateBytes") && !map.isNull("rotateBytes")) c.rotateBytes = Math.max(0, (long) map.getDouble("rotateBytes"));
+            if (map.hasKey("keepFiles") && !map.isNull("keepFiles")) c.keepFiles = Math.max(0, map.getInt("keepFiles"));
+            return c;
+        }
+    }
+
+    /** Настройки для path; действуют с ближайшей пачки. */
+    void configure(String path, ReadableMap options) {
+        String key = new File(path).getAbsolutePath();
+        Config config = Config.from(options);
+        configs.put(key, config);
+        Channel ch = channels.get(key);
+        if (ch != null) {
+            synchronized (ch) {
+                ch.config = config;
+            }
+        }
+    }
+
+    // --- CHANNEL ---
+
+    private class Channel {
+        final File file;
+        Config config;
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BUFFER);
+        ByteBuffer spare;       // второй буфер: пока пишется пачка, append копит в него
+        long lastUsed = System.currentTimeMillis();
+        boolean flushScheduled;
+        boolean closed;         // убран из реестра - append берет новый канал
+        IOException error;      // ошибка фоновой записи отдаем следующему append
+
+        // Порядок пачек в файле. Берется до монитора канала, никогда не наоборот
+        final Object ioLock = new Object();
+        // Дальше - только под ioLock
+        FileOutputStream out;
+        long fileSize;
+
+        Channel(File file, Config config) {
+            this.file = file;
+            this.config = config;
+        }
+
+        /** Под монитором канала. true - буфер переполнен, вызывающий пишет пачку сам, вне монитора. */
+        boolean append(String text) throws IOException {
+            if (error != null) {
+                IOException e = error;
+                error = null;
+                throw e;
+            }
+            lastUsed = System.currentTimeMillis();
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            ensureSpace((int) (text.length() * encoder.maxBytesPerChar()) + 16);
+            encoder.encode(chars, buffer, true);
+            encoder.flush(buffer);
+
+            if (buffer.position() >= MAX_BUFFER) return true;
+            if (buffer.position() >= config.bufferBytes || config.flushMs == 0) {
+                scheduleFlush(0);
+            } else {
+                scheduleFlush(config.flushMs);
+            }
+            return false;
+        }
+
+        private void ensureSpace(int bytes) {
+            if (buffer.remaining() >= bytes) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        private void scheduleFlush(long delayMs) {
+            if (flushScheduled && delayMs > 0) return;
+            flushScheduled = true;
+            flusher.schedule(this::flushQuietly, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        void flushQuietly() {
+            synchronized (this) {
+                flushScheduled = false;
+            }
+            try {
+                writeBatch();
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                }
+            }
+        }
+
+        // Вызывается без монитора канала: он нужен только на обмен буферов
+        void writeBatch() throws IOException {
+            synchronized (ioLock) {
+                ByteBuffer batch;
+                Config cfg;
+                synchronized (this) {
+                    if (buffer.position() == 0) return;
+                    batch = buffer;
+                    buffer = spare != null ? spare : ByteBuffer.allocate(Math.max(DEFAULT_BUFFER, config.bufferBytes));
+                    spare = null;
+                    cfg = config;
+                }
+                try {
+                    if (out == null) open();
+                    if (cfg.rotateBytes > 0 && fileSize > 0 && fileSize + batch.position() > cfg.rotateBytes) rotate(cfg);
+                    out.write(batch.array(), 0, batch.position());
+                    if (cfg.fsync) out.getFD().sync();
+                    fileSize += batch.position();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        // Пачка не ушла на диск: возвращаем ее перед тем, что успели дописать
+                        buffer.flip();
+                        if (batch.remaining() < buffer.remaining()) {
+                            ByteBuffer bigger = ByteBuffer.allocate(batch.position() + buffer.remaining());
+                            batch.flip();
+                            bigger.put(batch);
+                            batch = bigger;
+                        }
+                        batch.put(buffer);
+                        buffer.clear();
+                        spare = buffer;
+                        buffer = batch;
+                    }
+                    throw e;
+                }
+                synchronized (this) {
+                    batch.clear();
+                    // Разовый всплеск не держит мегабайты до конца жизни канала
+                    if (batch.capacity() <= cfg.bufferBytes * 4 || batch.capacity() <= DEFAULT_BUFFER) spare = batch;
+                }
+            }
+        }
+
+        private void open() throws IOException {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory()) parent.mkdirs();
+            out = new FileOutputStream(file, true);
+            fileSize = file.length();
+        }
+
+        // path -> path.1 -> path.2 ...; самая старая часть сверх keepFiles удаляется
+        private void rotate(Config cfg) throws IOException {
+            close();
+            int keep = cfg.keepFiles;
+            if (keep == 0) {
+                file.delete();
+            } else {
+                new File(file.getPath() + "." + keep).delete();
+                for (int i = keep - 1; i >= 1; i--) {
+                    File from = new File(file.getPath() + "." + i);
+                    if (from.exists()) from.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+                file.renameTo(new File(file.getPath() + ".1"));
+            }
+            open();
+        }
+
+        void close() throws IOException {
+            if (out == null) return;
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    // --- API ---
+
+    /** Кладет text в буфер файла; ошибка прошлой фоновой записи всплывает здесь. */
+    void append(String path, String text) throws IOException {
+        String key = new File(path).getAbsolutePath();
+        while (true) {
+            Channel ch = channels.computeIfAbsent(key, k -> new Channel(new File(k), configs.getOrDefault(k, new Config())));
+            boolean full;
+            synchronized (ch) {
+                // Канал закрыли между computeIfAbsent и монитором - писать в него нельзя
+                if (ch.closed) {
+                    channels.remove(key, ch);
+                    continue;
+                }
+                full = ch.append(text);
+            }
+            // Диск не успевает за JS: пачку пишет вызывающий поток, память не растет
+            if (full) ch.writeBatch();
+            return;
+        }
+    }
+
+    /** Сбрасывает буфер на диск (перед чтением/архивацией лога). null - все файлы. */
+    void flush(String path) throws IOException {
+        for (Channel ch : new ArrayList<>(channels.values())) {
+            if (path != null && !ch.file.getPath().equals(new File(path).getAbsolutePath())) continue;
+            ch.writeBatch();
+            synchronized (ch.ioLock) {
+                if (ch.out != null) ch.out.getFD().sync();
+            }
+        }
+    }
+
+    /** Сброс и закрытие всего - при выгрузке модуля. */
+    void closeAll() {
+        for (Map.Entry<String, Channel> e : channels.entrySet()) {
+            Channel ch = e.getValue();
+            synchronized (ch) {
+                ch.closed = true;
+            }
+            channels.remove(e.getKey(), ch);
+            try {
+                ch.writeBatch();
+                synchronized (ch.ioLock) {
+                    ch.close();
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Channel> e : channels.entrySet()) {
+            Channel ch = e.getValue();
+            synchronized (ch) {
+                if (now - ch.lastUsed < IDLE_CLOSE_MS || ch.buffer.position() > 0 || ch.flushScheduled) continue;
+                // После этого append не тронет канал, а уйдет в новый
+                ch.closed = true;
+            }
+            channels.remove(e.getKey(), ch);
+            // Пачка, забранная до закрытия, допишется раньше: close ждет ioLock
+            synchronized (ch.ioLock) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+}
\ No newline at end of file
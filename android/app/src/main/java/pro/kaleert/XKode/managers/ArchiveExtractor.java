@@ -0,0 +1,481 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Распаковка zip, tar и tar.gz. У zip есть центральный каталог: сначала создаем все
+ * папки, потом записи распаковываются параллельно, каждая своим потоком чтения.
+ * tar читается строго подряд, поэтому мелкие файлы читаем в память и пишем на диск
+ * в пуле, а крупные - сразу из потока. Любой путь, выходящий за dest, - ошибка (zip-slip).
+ */
+class ArchiveExtractor {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    // tar: файлы меньше этого пишутся в пуле, суммарно в памяти не больше MAX_IN_FLIGHT
+    private static final int SMALL_FILE = 1024 * 1024;
+    private static final int MAX_IN_FLIGHT = 32 * 1024 * 1024;
+    // Длинное имя или pax-заголовок читаются в память целиком: реальные - сотни байт
+    private static final int MAX_META_RECORD = 1024 * 1024;
+
+    private final File archive;
+    private final File dest;
+    private final String destPrefix;
+    private final FileSystemManager.ProgressListener listener;
+    private final List<Pattern> includes = new ArrayList<>();
+    private final boolean overwrite;
+
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger dirs = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private long total = -1;
+    private CountingInputStream consumed;   // только tar
+
+    ArchiveExtractor(String archivePath, String destPath, ReadableMap options, FileSystemManager.ProgressListener listener) throws IOException {
+        this.archive = new File(archivePath);
+        this.dest = new File(destPath).getCanonicalFile();
+        this.destPrefix = dest.getPath().endsWith(File.separator) ? dest.getPath() : dest.getPath() + File.separator;
+        this.listener = listener;
+
+        ReadableArray globs = options != null && options.hasKey("include") && !options.isNull("include")
+            ? options.getArray("include") : null;
+        if (globs != null) {
+            for (int i = 0; i < globs.size(); i++) includes.add(ContentSearch.globToRegex(globs.getString(i)));
+        }
+        this.overwrite = options == null || !options.hasKey("overwrite") || options.isNull("overwrite")
+            || options.getBoolean("overwrite");
+    }
+
+    WritableMap run() throws Exception {
+        if (!archive.isFile()) throw new Exception("Archive not found: " + archive.getPath());
+        if (!dest.isDirectory() && !dest.mkdirs()) throw new Exception("Cannot create " + dest.getPath());
+        long started = System.currentTimeMillis();
+
+        String format = detectFormat();
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "xkode-unpack");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (format.equals("zip")) {
+                extractZip(pool);
+            } else {
+                extractTar(pool, format.equals("tar.gz"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        report(true);
+
+        WritableMap result = Arguments.createMap();
+        result.putString("format", format);
+        result.putInt("files", files.get());
+        result.putInt("dirs", dirs.get());
+        result.putInt("skipped", skipped.get());
+        result.putDouble("bytes", done.get());
+        result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    private String detectFormat() throws Exception {
+        String name = archive.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip") || name.endsWith(".jar") || name.endsWith(".apk")) return "zip";
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) return "tar.gz";
+        if (name.endsWith(".tar")) return "tar";
+
+        // Расширение незнакомое - смотрим сигнатуру
+        byte[] head = new byte[512];
+        int n = 0;
+        try (FileInputStream in = new FileInputStream(archive)) {
+            int r;
+            while (n < head.length && (r = in.read(head, n, head.length - n)) != -1) n += r;
+        }
+        if (n >= 4 && head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4) return "zip";
+        if (n >= 2 && (head[0] & 0xFF) == 0x1f && (head[1] & 0xFF) == 0x8b) return "tar.gz";
+        if (n >= 262 && new String(head, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) return "tar";
+        throw new Exception("Unsupported archive format: " + archive.getName());
+    }
+
+    // --- ZIP ---
+
+    private void extractZip(ExecutorService pool) throws Exception {
+        try (ZipFile zip = new ZipFile(archive)) {
+            List<ZipEntry> entries = new ArrayList<>();
+            long sum = 0;
+            Enumeration<? extends ZipEntry> en = zip.entries();
+            while (en.hasMoreElements()) {
+                ZipEntry e = en.nextElement();
+                if (!selected(e.getName())) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                // Папки создаем заранее, чтобы воркеры не гонялись за mkdirs
+                File target = resolve(e.getName());
+                if (e.isDirectory()) {
+                    mkdirs(target);
+                } else {
+                    mkdirs(target.getParentFile());
+                    entries.add(e);
+                    if (e.getSize() > 0) sum += e.getSize();
+                }
+            }
+            total = sum;
+
+            List<Future<?>> futures = new ArrayList<>(entries.size());
+            for (ZipEntry e : entries) {
+                File target = resolve(e.getName());
+                futures.add(pool.submit(TaskScheduler.inheritCancel(() -> {
+                    if (!overwrite && target.exists()) {
+                        skipped.incrementAndGet();
+                        return null;
+                    }
+                    try (InputStream in = zip.getInputStream(e)) {
+                        write(in, target, e.getTime());
+                    }
+                    return null;
+                })));
+            }
+            await(futures);
+        }
+    }
+
+    // --- TAR ---
+
+    private void extractTar(ExecutorService pool, boolean gzip) throws Exception {
+        // Объем распаковки tar.gz заранее не узнать - прогресс считаем по прочитанному архиву
+        total = archive.length();
+        consumed = new CountingInputStream(new FileInputStream(archive));
+        List<Future<?>> futures = new ArrayList<>();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        try (InputStream raw = new BufferedInputStream(consumed, BUFFER_SIZE);
+             InputStream in = gzip ? new GZIPInputStream(raw, BUFFER_SIZE) : raw) {
+            byte[] header = new byte[512];
+            String longName = null;
+            while (true) {
+                TaskScheduler.checkCancelled();
+                if (!readBlock(in, header)) break;
+                if (isZeroBlock(header)) break;
+
+                char type = (char) header[156];
+                long size = parseOctal(header, 124, 12);
+                String name = longName != null ? longName : headerName(header);
+                longName = null;
+
+                if (type == 'L' || type == 'x') {
+                    // GNU длинное имя или pax-заголовок: путь следующей записи.
+                    // Битый или враждебный архив с гигабайтным размером не должен уронить процесс по OOM
+                    if (size > MAX_META_RECORD) {
+                        throw new Exception("Corrupt tar: '" + type + "' header record of " + size + " bytes");
+                    }
+                    byte[] data = readData(in, size);
+                    longName = type == 'L' ? cString(data, 0, data.length) : paxPath(data);
+                    continue;
+                }
+                if (type == 'g' || !selected(name)) {
+                    skip(in, size);
+                    if (type != 'g') skipped.incrementAndGet();
+                    continue;
+                }
+
+                File target = resolve(name);
+                long mtime = parseOctal(header, 136, 12) * 1000L;
+                int mode = (int) parseOctal(header, 100, 8);
+                if (type == '5') {
+                    mkdirs(target);
+                    skip(in, size);
+                } else if (type == '0' || type == '\0' || type == '7') {
+                    mkdirs(target.getParentFile());
+                    if (!overwrite && target.exists()) {
+                        skipped.incrementAndGet();
+                        skip(in, size);
+                    } else if (size < SMALL_FILE) {
+                        byte[] data = readData(in, size);
+                        inFlight.acquire(data.length);
+                        futures.add(pool.submit(() -> {
+                            try {
+                                writeBytes(data, target, mtime, mode);
+                            } finally {
+                                inFlight.release(data.length);
+                            }
+                            return null;
+                        }));
+                    } else {
+                        write(new BoundedInputStream(in, size), target, mtime);
+                        if ((mode & 0100) != 0) target.setExecutable(true);
+                        skipPadding(in, size);
+                    }
+                } else {
+                    // Ссылки и спецфайлы не создаем: ссылка наружу - тот же zip-slip
+                    skipped.incrementAndGet();
+                    skip(in, size);
+                }
+            }
+        }
+        await(futures);
+    }
+
+    private static String headerName(byte[] h) {
+        String name = cString(h, 0, 100);
+        // ustar: длинные пути делятся на prefix и name
+        if (new String(h, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            String prefix = cString(h, 345, 155);
+            if (!prefix.isEmpty()) name = prefix + "/" + name;
+        }
+        return name;
+    }
+
+    private static String paxPath(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        int pos = 0;
+        while (pos < text.length()) {
+            int space = text.indexOf(' ', pos);
+            if (space < 0) break;
+            int len;
+            try {
+                len = Integer.parseInt(text.substring(pos, space));
+            } catch (NumberFormatException e) {
+                break;
+            }
+            // Длина записи включает само число: меньше - мусор, и цикл встал бы на месте
+            if (len <= space - pos) break;
+            String record = text.substring(space + 1, Math.min(text.length(), pos + len - 1));
+            if (record.startsWith("path=")) return record.substring(5);
+            pos += len;
+        }
+        return null;
+    }
+
+    private static String cString(byte[] b, int off, int len) {
+        int end = off;
+        while (end < off + len && b[end] != 0) end++;
+        return new String(b, off, end - off, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] b, int off, int len) {
+        // GNU base-256 для размеров больше 8 ГБ
+        if ((b[off] & 0x80) != 0) {
+            long v = b[off] & 0x7F;
+            for (int i = 1; i < len; i++) v = (v << 8) | (b[off + i] & 0xFF);
+            return v;
+        }
+        long v = 0;
+        for (int i = off; i < off + len; i++) {
+            byte c = b[i];
+            if (c == 0 || c == ' ') {
+                if (v > 0) break;
+                continue;
+            }
+            v = (v << 3) + (c - '0');
+        }
+        return v;
+    }
+
+    private static boolean isZeroBlock(byte[] b) {
+        for (byte x : b) {
+            if (x != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int n = 0, r;
+        while (n < block.length && (r = in.read(block, n, block.length - n)) != -1) n += r;
+        if (n == 0) return false;
+        if (n < block.length) throw new EOFException("Truncated tar archive");
+        return true;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        byte[] data = new byte[(int) size];
+        int n = 0, r;
+        while (n < data.length && (r = in.read(data, n, data.length - n)) != -1) n += r;
+        if (n < data.length) throw new EOFException("Truncated tar archive");
+        skipPadding(in, size);
+        return data;
+    }
+
+    private static void skip(InputStream in, long size) throws IOException {
+        skipFully(in, size);
+        skipPadding(in, size);
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        long pad = (512 - size % 512) % 512;
+        skipFully(in, pad);
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long s = in.skip(n);
+            if (s <= 0) {
+                if (in.read() == -1) throw new EOFException("Truncated tar archive");
+                s = 1;
+            }
+            n -= s;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = super.skip(n);
+            if (s > 0) count += s;
+            return s;
+        }
+    }
+
+    // Окно в поток tar: ровно size байт текущей записи
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long left;
+
+        BoundedInputStream(InputStream in, long size) {
+            this.in = in;
+            this.left = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, left));
+            if (n < 0) throw new EOFException("Truncated tar archive");
+            left -= n;
+            return n;
+        }
+    }
+
+    // --- WRITE ---
+
+    private boolean selected(String name) {
+        if (includes.isEmpty()) return true;
+        String clean = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        for (Pattern p : includes) {
+            if (p.matcher(clean).matches()) return true;
+            // Выбрана папка - берем все, что внутри
+            for (int slash = clean.indexOf('/'); slash > 0; slash = clean.indexOf('/', slash + 1)) {
+                if (p.matcher(clean.substring(0, slash)).matches()) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Путь записи внутри dest; "../", абсолютные пути и т.п. - ошибка. */
+    private File resolve(String name) throws Exception {
+        File target = new File(dest, name).getCanonicalFile();
+        if (!target.getPath().startsWith(destPrefix) && !target.equals(dest)) {
+            throw new Exception("Archive entry outside target directory: " + name);
+        }
+        return target;
+    }
+
+    private void mkdirs(File dir) {
+        if (dir == null || dir.isDirectory()) return;
+        if (dir.mkdirs()) dirs.incrementAndGet();
+    }
+
+    private void write(InputStream in, File target, long mtime) throws IOException, InterruptedException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(target)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                TaskScheduler.checkCancelled();
+                out.write(buf, 0, n);
+                done.addAndGet(n);
+                report(false);
+            }
+        }
+        if (mtime > 0) target.setLastModified(mtime);
+        files.incrementAndGet();
+    }
+
+    private void writeBytes(byte[] data, File target, long mtime, int mode) throws IOException {
+        try (OutputStream out = new FileOutputStream(target)) {
+            out.write(data);
+        }
+        if (mtime > 0) target.setLastModified(mtime);
+        if ((mode & 0100) != 0) target.setExecutable(true);
+        done.addAndGet(data.length);
+        files.incrementAndGet();
+        report(false);
+    }
+
+    private void await(List<Future<?>> futures) throws Exception {
+        try {
+            for (Future<?> f : futures) TaskScheduler.await(f);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private void report(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (force || (now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now))) {
+            listener.onProgress(consumed != null ? consumed.count : done.get(), total);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,402 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Поиск по содержимому дерева файлов. Обход папок - fork-join (каждая папка - задача),
+ * файлы читаются через mmap (мелкие - обычным чтением), литерал ищем прямо по байтам
+ * UTF-8 без декодирования. Найденное уходит в JS пачками, не дожидаясь конца обхода.
+ * Пул один на все поиски: поиск на каждое нажатие клавиши не плодит потоки.
+ */
+class ContentSearch {
+
+    private static final int SMALL_FILE = 64 * 1024;
+    private static final int FILES_PER_TASK = 16;
+    private static final long DEFAULT_MAX_FILE = 32 * 1024 * 1024;
+    // Для regex файл декодируется целиком в char[] - держим лимит ниже
+    private static final long REGEX_MAX_FILE = 8 * 1024 * 1024;
+    private static final int DEFAULT_MAX_RESULTS = 5000;
+    private static final int BATCH_SIZE = 50;
+    private static final long BATCH_INTERVAL_MS = 100;
+    private static final int PREVIEW_CHARS = 240;
+    static final String[] DEFAULT_IGNORES = { ".git", "node_modules", "build", ".gradle", ".idea" };
+
+    // Простаивающие потоки fork-join пул гасит сам
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+        pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("xkode-search-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        },
+        null, false);
+
+    private final File root;
+    private final FileSystemManager.HitListener listener;
+    private final List<Pattern> ignores = new ArrayList<>();
+    private final int maxResults;
+    private final long maxFileSize;
+
+    // Литерал по байтам или regex по символам
+    private final byte[] literal;
+    private final boolean foldCase;
+    private final Pattern regex;
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger filesScanned = new AtomicInteger();
+    private final ConcurrentLinkedQueue<WritableMap> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+
+    ContentSearch(String rootPath, String pattern, ReadableMap options, FileSystemManager.HitListener listener) {
+        this.root = new File(rootPath);
+        this.listener = listener;
+
+        boolean isRegex = flag(options, "regex", false);
+        boolean caseSensitive = flag(options, "caseSensitive", false);
+        maxResults = options != null && options.hasKey("maxResults") && !options.isNull("maxResults")
+            ? options.getInt("maxResults") : DEFAULT_MAX_RESULTS;
+        maxFileSize = options != null && options.hasKey("maxFileSize") && !options.isNull("maxFileSize")
+            ? (long) options.getDouble("maxFileSize") : DEFAULT_MAX_FILE;
+
+        ReadableArray globs = options != null && options.hasKey("ignore") && !options.isNull("ignore")
+            ? options.getArray("ignore") : null;
+        if (globs != null) {
+            for (int i = 0; i < globs.size(); i++) ignores.add(globToRegex(globs.getString(i)));
+        } else {
+            for (String g : DEFAULT_IGNORES) ignores.add(globToRegex(g));
+        }
+
+        boolean ascii = pattern.chars().allMatch(c -> c < 0x80);
+        if (!isRegex && (caseSensitive || ascii)) {
+            // Регистр для ASCII сравниваем по байтам; кириллица без учета регистра - через regex
+            literal = (caseSensitive ? pattern : pattern.toLowerCase(Locale.ROOT)).getBytes(StandardCharsets.UTF_8);
+            foldCase = !caseSensitive;
+            regex = null;
+        } else {
+            literal = null;
+            foldCase = false;
+            int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            regex = Pattern.compile(isRegex ? pattern : Pattern.quote(pattern), flags | Pattern.MULTILINE);
+        }
+    }
+
+    /** Блокирует до конца поиска; отмена запроса останавливает воркеров. */
+    WritableMap run() throws Exception {
+        return run(null);
+    }
+
+    /** candidates != null - проверяем только эти файлы (кандидаты из индекса), без обхода. */
+    WritableMap run(List<File> candidates) throws Exception {
+        if (!root.isDirectory()) throw new Exception("Search root is not a directory: " + root);
+        if (literal != null && literal.length == 0) throw new Exception("Empty search pattern");
+
+        long started = System.currentTimeMillis();
+        RecursiveAction work = candidates == null ? new DirTask(root, "") : new CandidatesTask(candidates);
+        ForkJoinTask<Void> task = POOL.submit(work);
+        try {
+            TaskScheduler.await(task);
+        } finally {
+            // Пул общий, гасить его нельзя: оставшиеся задачи этого поиска видят флаг и выходят
+            stopped.set(true);
+            task.cancel(false);
+        }
+        flush(true);
+
+        WritableMap result = Arguments.createMap();
+        result.putInt("hits", Math.min(hitCount.get(), maxResults));
+        result.putInt("files", filesScanned.get());
+        result.putBoolean("truncated", hitCount.get() >= maxResults);
+        result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    // --- WALK ---
+
+    private class CandidatesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final List<File> candidates;
+
+        CandidatesTask(List<File> candidates) {
+            this.candidates = candidates;
+        }
+
+        @Override
+        protected void compute() {
+            List<FilesTask> tasks = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i += FILES_PER_TASK) {
+                tasks.add(new FilesTask(candidates.subList(i, Math.min(candidates.size(), i + FILES_PER_TASK))));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final File dir;
+        final String rel;
+
+        DirTask(File dir, String rel) {
+            this.dir = dir;
+            this.rel = rel;
+        }
+
+        @Override
+        protected void compute() {
+            if (stopped.get()) return;
+            File[] children = dir.listFiles();
+            if (children == null) return;
+
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<File> batch = new ArrayList<>();
+            for (File f : children) {
+                String childRel = rel.isEmpty() ? f.getName() : rel + "/" + f.getName();
+                if (isIgnored(f.getName(), childRel)) continue;
+                if (f.isDirectory()) {
+                    // Ссылки на папки не обходим: ссылка на предка зациклила бы поиск
+                    if (FileSystemManager.isSymlink(f)) continue;
+                    tasks.add(new DirTask(f, childRel));
+                } else {
+                    batch.add(f);
+                    // Папка с тысячами файлов тоже должна искаться параллельно
+                    if (batch.size() == FILES_PER_TASK) {
+                        tasks.add(new FilesTask(batch));
+                        batch = new ArrayList<>();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) tasks.add(new FilesTask(batch));
+            invokeAll(tasks);
+        }
+    }
+
+    private class FilesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final List<File> files;
+
+        FilesTask(List<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            for (File f : files) {
+                if (stopped.get()) return;
+                searchFile(f);
+            }
+        }
+    }
+
+    private boolean isIgnored(String name, String rel) {
+        for (Pattern p : ignores) {
+            if (p.matcher(name).matches() || p.matcher(rel).matches()) return true;
+        }
+        return false;
+    }
+
+    // --- FILE ---
+
+    private void searchFile(File f) {
+        long size = f.length();
+        if (size == 0 || size > maxFileSize || (regex != null && size > REGEX_MAX_FILE)) return;
+        try {
+            ByteBuffer buf;
+            if (size <= SMALL_FILE) {
+                byte[] data = new byte[(int) size];
+                try (FileInputStream in = new FileInputStream(f)) {
+                    int off = 0, n;
+                    while (off < data.length && (n = in.read(data, off, data.length - off)) != -1) off += n;
+                }
+                buf = ByteBuffer.wrap(data);
+            } else {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                    buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+
+            // Та же эвристика, что в readLocal: нулевой байт в первых 512 - бинарник
+            int checkLimit = Math.min(buf.limit(), 512);
+            for (int i = 0; i < checkLimit; i++) {
+                if (buf.get(i) == 0) return;
+            }
+            filesScanned.incrementAndGet();
+
+            if (literal != null) {
+                searchBytes(f, buf);
+            } else {
+                searchRegex(f, buf);
+            }
+        } catch (IOException ignored) {
+            // Нет прав или файл удален во время обхода
+        }
+    }
+
+    private void searchBytes(File f, ByteBuffer buf) {
+        int limit = buf.limit() - literal.length;
+        byte first = literal[0];
+        int line = 1;
+        int lineStart = 0;
+        int counted = 0;
+
+        for (int i = 0; i <= limit; i++) {
+            byte b = buf.get(i);
+            if (foldCase && b >= 'A' && b <= 'Z') b += 32;
+            if (b != first || !matchesAt(buf, i)) continue;
+
+            // Номер строки досчитываем только от прошлого совпадения
+            for (; counted < i; counted++) {
+                if (buf.get(counted) == '\n') {
+                    line++;
+                    lineStart = counted + 1;
+                }
+            }
+            int lineEnd = i;
+            while (lineEnd < buf.limit() && buf.get(lineEnd) != '\n') lineEnd++;
+            String before = decode(buf, lineStart, i);
+            String text = decode(buf, lineStart, lineEnd);
+            if (!addHit(f, line, before.length() + 1, text)) return;
+            // Следующее совпадение ищем уже на новой строке: одна строка - один результат
+            i = lineEnd;
+        }
+    }
+
+    private boolean matchesAt(ByteBuffer buf, int pos) {
+        for (int j = 1; j < literal.length; j++) {
+            byte b = buf.get(pos + j);
+            if (foldCase && b >= 'A' && b <= 'Z') b += 32;
+            if (b != literal[j]) return false;
+        }
+        return true;
+    }
+
+    private void searchRegex(File f, ByteBuffer buf) throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = decoder.decode(buf);
+        Matcher m = regex.matcher(chars);
+
+        int line = 1;
+        int lineStart = 0;
+        int counted = 0;
+        int from = 0;
+        while (!stopped.get() && from <= chars.length() && m.find(from)) {
+            int at = m.start();
+            for (; counted < at; counted++) {
+                if (chars.charAt(counted) == '\n') {
+                    line++;
+                    lineStart = counted + 1;
+                }
+            }
+            int lineEnd = at;
+            while (lineEnd < chars.length() && chars.charAt(lineEnd) != '\n') lineEnd++;
+            if (!addHit(f, line, at - lineStart + 1, chars.subSequence(lineStart, lineEnd).toString())) return;
+            from = Math.max(lineEnd + 1, m.end());
+        }
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // --- HITS ---
+
+    private boolean addHit(File f, int line, int column, String text) {
+        if (stopped.get()) return false;
+        if (hitCount.incrementAndGet() > maxResults) {
+            stopped.set(true);
+            return false;
+        }
+        if (text.endsWith("\r")) text = text.substring(0, text.length() - 1);
+        WritableMap hit = Arguments.createMap();
+        hit.putString("path", f.getAbsolutePath());
+        hit.putInt("line", line);
+        hit.putInt("column", column);
+        hit.putString("preview", text.length() > PREVIEW_CHARS ? text.substring(0, PREVIEW_CHARS) : text);
+        pending.add(hit);
+        pendingCount.incrementAndGet();
+        flush(false);
+        return true;
+    }
+
+    private void flush(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = lastFlush.get();
+        if (!force && pendingCount.get() < BATCH_SIZE && now - last < BATCH_INTERVAL_MS) return;
+        if (!force && !lastFlush.compareAndSet(last, now)) return;
+
+        WritableArray batch = Arguments.createArray();
+        int n = 0;
+        WritableMap hit;
+        while ((hit = pending.poll()) != null) {
+            batch.pushMap(hit);
+            n++;
+        }
+        pendingCount.addAndGet(-n);
+        if (n > 0) listener.onHits(batch);
+    }
+
+    // --- HELPERS ---
+
+    private static boolean flag(ReadableMap options, String key, boolean def) {
+        return options != null && options.hasKey(key) && !options.isNull(key) ? options.getBoolean(key) : def;
+    }
+
+    // ** - любая глубина, * - в пределах имени, ? - один символ
+    static Pattern globToRegex(String glob) {
+        StringBuilder re = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    i++;
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                        re.append("(?:.*/)?");
+                        i++;
+                    } else {
+                        re.append(".*");
+                    }
+                } else {
+                    re.append("[^/]*");
+                }
+            } else if (c == '?') {
+                re.append("[^/]");
+            } else {
+                re.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(re.toString());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Постраничный листинг огромных папок. Источник (локальный DirectoryStream или
+ * SFTP ls с селектором) крутится в своем потоке и кладет записи в ограниченную
+ * очередь: пока JS не попросил следующую страницу, чтение стоит, память не растет.
+ * С сортировкой без полного списка не обойтись - тогда копим компактные Entry.
+ * SFTP-источник читает на своем канале вне пула, поэтому может ждать JS сколько угодно.
+ * Поток источника не прерывается: interrupt посреди JSch ломает канал пула,
+ * закрытие курсора видно источнику через isClosed/emit.
+ */
+class DirectoryLister {
+
+    private static final int DEFAULT_PAGE = 200;
+    private static final int MAX_CURSORS = 8;
+    private static final long CURSOR_IDLE_MS = 2 * 60 * 1000;
+
+    private static final RemoteListingCache.Entry END = new RemoteListingCache.Entry();
+
+    private static final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    /** Источник записей; emit возвращает false, когда курсор закрыт и чтение пора прервать. */
+    interface Source {
+        void read(Sink sink) throws Exception;
+    }
+
+    interface Sink {
+        // Фильтр по имени до stat: отброшенные записи не стоят лишнего запроса
+        boolean accepts(String name);
+        boolean emit(RemoteListingCache.Entry entry) throws InterruptedException;
+        boolean isClosed();
+    }
+
+    // --- OPTIONS ---
+
+    static class Options {
+        int pageSize = DEFAULT_PAGE;
+        String sort;            // name | size | mtime | null (порядок источника)
+        boolean descending;
+        boolean dirsFirst = true;
+        boolean showHidden = true;
+        Pattern filter;
+
+        static Options from(ReadableMap map) {
+            Options o = new Options();
+            if (map == null) return o;
+            if (map.hasKey("pageSize") && !map.isNull("pageSize")) o.pageSize = Math.max(1, map.getInt("pageSize"));
+            if (map.hasKey("sort") && !map.isNull("sort")) o.sort = map.getString("sort");
+            if (map.hasKey("descending") && !map.isNull("descending")) o.descending = map.getBoolean("descending");
+            if (map.hasKey("dirsFirst") && !map.isNull("dirsFirst")) o.dirsFirst = map.getBoolean("dirsFirst");
+            if (map.hasKey("showHidden") && !map.isNull("showHidden")) o.showHidden = map.getBoolean("showHidden");
+            if (map.hasKey("filter") && !map.isNull("filter") && !map.getString("filter").isEmpty()) {
+                o.filter = compileFilter(map.getString("filter"));
+            }
+            return o;
+        }
+
+        boolean accepts(String name) {
+            if (!showHidden && name.startsWith(".")) return false;
+            return filter == null || filter.matcher(name).matches();
+        }
+
+        Comparator<RemoteListingCache.Entry> comparator() {
+            Comparator<RemoteListingCache.Entry> c;
+            if ("size".equals(sort)) {
+                c = Comparator.comparingLong(e -> e.size);
+            } else if ("mtime".equals(sort)) {
+                c = Comparator.comparingLong(e -> e.mtime);
+            } else {
+                c = (a, b) -> a.name.compareToIgnoreCase(b.name);
+            }
+            if (descending) c = c.reversed();
+            if (dirsFirst) c = Comparator.<RemoteListingCache.Entry, Boolean>comparing(e -> !e.isDir).thenComparing(c);
+            return c;
+        }
+    }
+
+    // Маска с * и ? - glob по имени, иначе подстрока без учета регистра
+    private static Pattern compileFilter(String filter) {
+        if (filter.indexOf('*') < 0 && filter.indexOf('?') < 0) {
+            return Pattern.compile(".*" + Pattern.quote(filter) + ".*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+        StringBuilder re = new StringBuilder();
+        for (String part : filter.split("(?=[*?])|(?<=[*?])")) {
+            if (part.equals("*")) re.append(".*");
+            else if (part.equals("?")) re.append('.');
+            else re.append(Pattern.quote(part));
+        }
+        return Pattern.compile(re.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+
+    // --- CURSOR ---
+
+    private static class Cursor implements Sink {
+        final String id = UUID.randomUUID().toString();
+        final Options options;
+        final BlockingQueue<RemoteListingCache.Entry> queue;
+        volatile boolean closed;
+        volatile boolean done;
+        volatile Exception error;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Cursor(Options options) {
+            this.options = options;
+            // Очередь на две страницы: следующая готовится, пока JS рисует текущую
+            this.queue = new ArrayBlockingQueue<>(options.pageSize * 2 + 1);
+        }
+
+        @Override
+        public boolean accepts(String name) {
+            return options.accepts(name);
+        }
+
+        @Override
+        public boolean emit(RemoteListingCache.Entry entry) throws InterruptedException {
+            if (closed) return false;
+            queue.put(entry);
+            return !closed;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /** Запускает чтение и отдает первую страницу; cursor нужен для listMore. */
+    static String open(Source source, ReadableMap optionsMap, FileSystemManager.PageListener listener) throws Exception {
+        evictIdle();
+        Options options = Options.from(optionsMap);
+        Cursor cursor = new Cursor(options);
+        cursors.put(cursor.id, cursor);
+
+        Thread producer = new Thread(() -> {
+            try {
+                if (options.sort == null) {
+                    source.read(cursor);
+                } else {
+                    // Сортировка требует всех записей; храним их компактно, не как WritableMap
+                    List<RemoteListingCache.Entry> all = new ArrayList<>();
+                    source.read(new Sink() {
+                        @Override
+                        public boolean accepts(String name) {
+                            return options.accepts(name);
+                        }
+
+                        @Override
+                        public boolean emit(RemoteListingCache.Entry e) {
+                            all.add(e);
+                            return !cursor.closed;
+                        }
+
+                        @Override
+                        public boolean isClosed() {
+                            return cursor.closed;
+                        }
+                    });
+                    all.sort(options.comparator());
+                    for (RemoteListingCache.Entry e : all) {
+                        if (cursor.closed) break;
+                        cursor.queue.put(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                cursor.error = e;
+            }
+            // Закрытый курсор никто не дочитает - не блокируемся на полной очереди
+            if (cursor.closed) return;
+            try {
+                cursor.queue.put(END);
+            } catch (InterruptedException ignored) {}
+        }, "xkode-list-" + cursor.id.substring(0, 8));
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            nextPage(cursor, listener);
+        } catch (Exception e) {
+            close(cursor.id);
+            throw e;
+        }
+        return cursor.id;
+    }
+
+    /** Следующая страница через listener; true - листинг закончен. */
+    static boolean more(String id, FileSystemManager.PageListener listener) throws Exception {
+        Cursor cursor = cursors.get(id);
+        if (cursor == null) throw new Exception("Listing cursor expired: " + id);
+        return nextPage(cursor, listener);
+    }
+
+    static void close(String id) {
+        Cursor cursor = cursors.remove(id);
+        if (cursor != null) {
+            cursor.closed = true;
+            // Будим источник, если он ждет места в очереди: put пройдет, emit вернет false
+            cursor.queue.clear();
+        }
+    }
+
+    private static boolean nextPage(Cursor cursor, FileSystemManager.PageListener listener) throws Exception {
+        cursor.lastUsed = System.currentTimeMillis();
+        if (cursor.done) return true;
+
+        List<RemoteListingCache.Entry> page = new ArrayList<>(cursor.options.pageSize);
+        while (page.size() < cursor.options.pageSize) {
+            RemoteListingCache.Entry e = cursor.queue.poll(500, TimeUnit.MILLISECONDS);
+            if (e == null) {
+                // Курсор закрыли из другого запроса - END уже не придет
+                if (cursor.closed) throw new Exception("Listing cursor closed");
+                continue;
+            }
+            if (e == END) {
+                cursor.done = true;
+                break;
+            }
+            page.add(e);
+        }
+        if (cursor.done) cursors.remove(cursor.id);
+        listener.onPage(cursor.id, FileSystemManager.toWritable(page), cursor.done);
+        // Уже прочитанное отдали; об обрыве листинга сообщаем отказом промиса
+        if (cursor.done && cursor.error != null) throw cursor.error;
+        return cursor.done;
+    }
+
+    private static void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Cursor c : cursors.values()) {
+            if (now - c.lastUsed > CURSOR_IDLE_MS) close(c.id);
+        }
+        // Слишком много открытых - закрываем самый старый
+        while (cursors.size() >= MAX_CURSORS) {
+            Cursor oldest = null;
+            for (Cursor c : cursors.values()) {
+                if (oldest == null || c.lastUsed < oldest.lastUsed) oldest = c;
+            }
+            if (oldest == null) break;
+            close(oldest.id);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,619 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Открытые в редакторе документы на стороне натива, piece table.
+ *
+ * Исходный файл читается позиционными чтениями (Original), вставки дописываются в буфер
+ * добавлений (AddBuffer), документ - список неизменяемых кусков поверх этих двух
+ * источников. Смещения в UTF-16, как у редактора; для исходного файла соответствие
+ * символов, байтов и строк берется из контрольных точек, построенных одним проходом.
+ * Снимок для undo - просто копия списка кусков.
+ *
+ * Открываются только файлы в корректном UTF-8: иначе счет символов по байтам разошелся
+ * бы с заменами U+FFFD при декодировании, и смещения поехали бы. Такие файлы редактор
+ * читает обычным readFile.
+ */
+class DocumentStore {
+
+    private static final int MAX_SNAPSHOTS = 200;
+    private static final int MAX_SLICE_CHARS = 8 * 1024 * 1024;
+
+    private static DocumentStore instance;
+
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    private DocumentStore() {}
+
+    static synchronized DocumentStore getInstance() {
+        if (instance == null) {
+            instance = new DocumentStore();
+        }
+        return instance;
+    }
+
+    Document open(File file) throws IOException {
+        Document doc = new Document(file);
+        documents.put(doc.id, doc);
+        return doc;
+    }
+
+    Document get(String id) throws Exception {
+        Document doc = documents.get(id);
+        if (doc == null) throw new Exception("Document is not open: " + id);
+        return doc;
+    }
+
+    void close(String id) {
+        Document doc = documents.remove(id);
+        if (doc != null) doc.close();
+    }
+
+    void closeAll() {
+        for (String id : documents.keySet()) close(id);
+    }
+
+    // --- SOURCES ---
+
+    /** Источник кусков: смещения в его собственных единицах (байты файла или символы). */
+    private interface Source {
+        // Символы [from, to) в единицах источника
+        void appendTo(StringBuilder out, long from, long to) throws IOException;
+        void writeTo(OutputStream out, long from, long to) throws IOException;
+        long chars(long from, long to) throws IOException;
+        long newlines(long from, long to) throws IOException;
+        // Позиция источника, отстоящая на chars символов от from
+        long advance(long from, long chars) throws IOException;
+        // Позиция сразу после k-го (с 1) перевода строки начиная с from
+        long afterNewline(long from, long k) throws IOException;
+    }
+
+    /**
+     * Исходный файл: pread в heap-буферы и контрольные точки каждые STRIDE байт.
+     * Не mmap: если файл обрежут снаружи, чтение за концом отображения - SIGBUS, а pread
+     * просто вернет меньше байт, и это станет обычной IOException.
+     */
+    private static class Original implements Source {
+        // Контрольная точка на каждые 8 КБ: разрез куска сканирует не больше STRIDE байт
+        private static final int STRIDE = 8 * 1024;
+        private static final int SCAN_BUFFER = 256 * 1024;
+
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final long size;
+        // Символы и переводы строк до i * STRIDE байт
+        final long[] cpChars;
+        final long[] cpLines;
+
+        Original(File file) throws IOException {
+            // Свой дескриптор: после атомарного сохранения старые куски читают прежний inode
+            raf = new RandomAccessFile(file, "r");
+            channel = raf.getChannel();
+            size = channel.size();
+            int points = (int) (size / STRIDE) + 1;
+            cpChars = new long[points];
+            cpLines = new long[points];
+
+            ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+            long pos = 0, chars = 0, lines = 0;
+            // Проверка UTF-8 (RFC 3629) тем же проходом: сколько продолжений ждем и их диапазон
+            int need = 0, lo = 0x80, hi = 0xBF;
+            while (pos < size) {
+                buf.clear();
+                while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) > 0) {}
+                buf.flip();
+                if (!buf.hasRemaining()) break;
+                while (buf.hasRemaining()) {
+                    if (pos % STRIDE == 0) {
+                        cpChars[(int) (pos / STRIDE)] = chars;
+                        cpLines[(int) (pos / STRIDE)] = lines;
+                    }
+                    int b = buf.get() & 0xFF;
+                    if (need > 0) {
+                        if (b < lo || b > hi) notUtf8();
+                        need--;
+                        lo = 0x80;
+                        hi = 0xBF;
+                    } else if (b >= 0x80) {
+                        if (b >= 0xC2 && b <= 0xDF) {
+                            need = 1;
+                        } else if (b >= 0xE0 && b <= 0xEF) {
+                            need = 2;
+                            if (b == 0xE0) lo = 0xA0;       // overlong
+                            else if (b == 0xED) hi = 0x9F;  // суррогаты
+                        } else if (b >= 0xF0 && b <= 0xF4) {
+                            need = 3;
+                            if (b == 0xF0) lo = 0x90;
+                            else if (b == 0xF4) hi = 0x8F;  // за U+10FFFF
+                        } else {
+                            notUtf8();
+                        }
+                    }
+                    chars += charWeight(b);
+                    if (b == '\n') lines++;
+                    pos++;
+                }
+            }
+            if (pos < size) {
+                raf.close();
+                throw new IOException("READ_ERR: File was truncated while opening");
+            }
+            if (need > 0) notUtf8();
+            if (size % STRIDE == 0) {
+                cpChars[points - 1] = chars;
+                cpLines[points - 1] = lines;
+            }
+        }
+
+        private void notUtf8() throws IOException {
+            raf.close();
+            throw new IOException("READ_ERR: File is not valid UTF-8 text");
+        }
+
+        // Байт начала символа: 1 UTF-16 символ, 4-байтовый - суррогатная пара, продолжения - 0
+        private static int charWeight(int b) {
+            if ((b & 0xC0) == 0x80) return 0;
+            return b >= 0xF0 ? 2 : 1;
+        }
+
+        private void read(long pos, byte[] dst, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(dst, off, len);
+            while (buf.hasRemaining()) {
+                // Позиционное чтение не двигает общий указатель: потокобезопасно без блокировки
+                if (channel.read(buf, pos + buf.position() - off) < 0) {
+                    throw new IOException("READ_ERR: File was truncated outside the editor");
+                }
+            }
+        }
+
+        // Байты [from, to), не больше STRIDE за раз
+        private byte[] block(long from, long to) throws IOException {
+            byte[] data = new byte[(int) Math.min(STRIDE, to - from)];
+            read(from, data, 0, data.length);
+            return data;
+        }
+
+        private long charsBefore(long pos) throws IOException {
+            int i = (int) (pos / STRIDE);
+            long chars = cpChars[i];
+            for (byte b : block((long) i * STRIDE, pos)) chars += charWeight(b & 0xFF);
+            return chars;
+        }
+
+        private long linesBefore(long pos) throws IOException {
+            int i = (int) (pos / STRIDE);
+            long lines = cpLines[i];
+            for (byte b : block((long) i * STRIDE, pos)) {
+                if (b == '\n') lines++;
+            }
+            return lines;
+        }
+
+        @Override
+        public long chars(long from, long to) throws IOException {
+            return charsBefore(to) - charsBefore(from);
+        }
+
+        @Override
+        public long newlines(long from, long to) throws IOException {
+            return linesBefore(to) - linesBefore(from);
+        }
+
+        @Override
+        public long advance(long from, long chars) throws IOException {
+            long target = charsBefore(from) + chars;
+            int i = Arrays.binarySearch(cpChars, target);
+            if (i < 0) i = -i - 2;
+            // При равных значениях берем самую правую точку не дальше цели
+            while (i + 1 < cpChars.length && cpChars[i + 1] <= target) i++;
+            long p = Math.max((long) i * STRIDE, from);
+            long count = p == from ? charsBefore(from) : cpChars[i];
+            while (p < size) {
+                byte[] data = block(p, size);
+                for (byte b : data) {
+                    int w = charWeight(b & 0xFF);
+                    if (w > 0 && count >= target) return p;
+                    count += w;
+                    p++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public long afterNewline(long from, long k) throws IOException {
+            long target = linesBefore(from) + k;
+            int i = Arrays.binarySearch(cpLines, target);
+            if (i < 0) i = -i - 2;
+            // Точка строго до target-го перевода строки
+            while (i > 0 && cpLines[i] >= target) i--;
+            long p = Math.max((long) i * STRIDE, from);
+            long count = p == from ? linesBefore(from) : cpLines[i];
+            while (p < size) {
+                byte[] data = block(p, size);
+                for (byte b : data) {
+                    p++;
+                    if (b == '\n' && ++count == target) return p;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, long from, long to) throws IOException {
+            byte[] data = new byte[(int) (to - from)];
+            read(from, data, 0, data.length);
+            out.append(new String(data, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeTo(OutputStream out, long from, long to) throws IOException {
+            byte[] buf = new byte[SCAN_BUFFER];
+            while (from < to) {
+                int n = (int) Math.min(buf.length, to - from);
+                read(from, buf, 0, n);
+                out.write(buf, 0, n);
+                from += n;
+            }
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Буфер добавлений: только дописывается, поэтому старые куски и снимки остаются верны.
+     * Читать его без блокировки документа нельзя: StringBuilder при росте меняет массив,
+     * и поток без happens-before может увидеть новый массив раньше его содержимого.
+     */
+    private static class AddBuffer implements Source {
+        final StringBuilder text;
+
+        AddBuffer() {
+            text = new StringBuilder();
+        }
+
+        // Неизменяемая копия для записи вне блокировки (final поле публикует ее безопасно)
+        AddBuffer(CharSequence frozen) {
+            text = new StringBuilder(frozen);
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, long from, long to) {
+            out.append(text, (int) from, (int) to);
+        }
+
+        @Override
+        public void writeTo(OutputStream out, long from, long to) throws IOException {
+            int p = (int) from;
+            while (p < to) {
+                int end = (int) Math.min(to, p + 64 * 1024);
+                // Не режем суррогатную пару между кусками записи
+                if (end < to && Character.isHighSurrogate(text.charAt(end - 1))) end++;
+                out.write(text.substring(p, end).getBytes(StandardCharsets.UTF_8));
+                p = end;
+            }
+        }
+
+        @Override
+        public long chars(long from, long to) {
+            return to - from;
+        }
+
+        @Override
+        public long newlines(long from, long to) {
+            long n = 0;
+            for (int i = (int) from; i < to; i++) {
+                if (text.charAt(i) == '\n') n++;
+            }
+            return n;
+        }
+
+        @Override
+        public long advance(long from, long chars) {
+            return from + chars;
+        }
+
+        @Override
+        public long afterNewline(long from, long k) {
+            for (int i = (int) from; i < text.length(); i++) {
+                if (text.charAt(i) == '\n' && --k == 0) return i + 1;
+            }
+            return text.length();
+        }
+    }
+
+    /** Неизменяемый кусок: [start, end) в единицах источника. */
+    private static class Piece {
+        final Source src;
+        final long start;
+        final long end;
+        final long chars;
+        final long newlines;
+
+        Piece(Source src, long start, long end) throws IOException {
+            this(src, start, end, src.chars(start, end), src.newlines(start, end));
+        }
+
+        Piece(Source src, long start, long end, long chars, long newlines) {
+            this.src = src;
+            this.start = start;
+            this.end = end;
+            this.chars = chars;
+            this.newlines = newlines;
+        }
+    }
+
+    // --- DOCUMENT ---
+
+    /** Состояние, которое пишет save: куски на момент начала сохранения. */
+    static class SaveState {
+        final List<Piece> pieces;
+        final long version;
+
+        SaveState(List<Piece> pieces, long version) {
+            this.pieces = pieces;
+            this.version = version;
+        }
+    }
+
+    class Document {
+        final String id = UUID.randomUUID().toString();
+        final File file;
+        private Original original;
+        private final List<Original> retired = new ArrayList<>();
+        private AddBuffer added = new AddBuffer();
+        private List<Piece> pieces = new ArrayList<>();
+        private long length;
+        private long newlines;
+        private long version;
+        private boolean closed;
+        private int nextSnapshot;
+        private final LinkedHashMap<Integer, List<Piece>> snapshots =
+            new LinkedHashMap<Integer, List<Piece>>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<Piece>> eldest) {
+                    return size() > MAX_SNAPSHOTS;
+                }
+            };
+
+        Document(File file) throws IOException {
+            this.file = file;
+            install(new Original(file));
+        }
+
+        private void install(Original fresh) throws IOException {
+            Original old = original;
+            original = fresh;
+            pieces = new ArrayList<>();
+            if (original.size > 0) {
+                // Весь файл - один кусок
+                pieces.add(new Piece(original, 0, original.size));
+            }
+            recount();
+            // На прежний файл еще могут ссылаться снимки undo - закрываем вместе с документом
+            if (old != null) {
+                if (snapshots.isEmpty()) old.close();
+                else retired.add(old);
+            }
+        }
+
+        private void recount() {
+            length = 0;
+            newlines = 0;
+            for (Piece p : pieces) {
+                length += p.chars;
+                newlines += p.newlines;
+            }
+        }
+
+        synchronized long length() {
+            return length;
+        }
+
+        synchronized long lineCount() {
+            return newlines + 1;
+        }
+
+        synchronized long size() {
+            return original.size;
+        }
+
+        // --- EDITS ---
+
+        /** Правки [start, end) -> text в координатах до пачки; применяются с конца. */
+        synchronized void apply(long[][] ranges, String[] texts) throws Exception {
+            Integer[] order = new Integer[ranges.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(ranges[b][0], ranges[a][0]));
+            // Проверяем всю пачку до первой правки, чтобы не применить ее наполовину
+            long limit = length;
+            for (int idx : order) {
+                long start = ranges[idx][0];
+                long end = ranges[idx][1];
+                if (start < 0 || end < start || end > limit) {
+                    throw new Exception("WRITE_ERR: Overlapping or invalid edit range " + start + ".." + end);
+                }
+                limit = start;
+            }
+            for (int idx : order) replace(ranges[idx][0], ranges[idx][1], texts[idx]);
+            version++;
+        }
+
+        private void replace(long start, long end, String text) throws IOException {
+            int from = split(start);
+            int to = split(end);
+            for (int i = to - 1; i >= from; i--) pieces.remove(i);
+            if (!text.isEmpty()) {
+                // Набор подряд: продлеваем последний кусок вместо нового
+                Piece prev = from > 0 ? pieces.get(from - 1) : null;
+                long addStart = added.text.length();
+                added.text.append(text);
+                long addEnd = added.text.length();
+                long nl = added.newlines(addStart, addEnd);
+                if (prev != null && prev.src == added && prev.end == addStart) {
+                    pieces.set(from - 1, new Piece(added, prev.start, addEnd, prev.chars + text.length(), prev.newlines + nl));
+                } else {
+                    pieces.add(from, new Piece(added, addStart, addEnd, text.length(), nl));
+                }
+            }
+            recount();
+        }
+
+        // Индекс куска, начинающегося ровно в pos (при необходимости режет кусок)
+        private int split(long pos) throws IOException {
+            long at = 0;
+            for (int i = 0; i < pieces.size(); i++) {
+                Piece p = pieces.get(i);
+                if (pos == at) return i;
+                if (pos < at + p.chars) {
+                    long cut = p.src.advance(p.start, pos - at);
+                    Piece left = new Piece(p.src, p.start, cut);
+                    Piece right = new Piece(p.src, cut, p.end, p.chars - left.chars, p.newlines - left.newlines);
+                    pieces.set(i, left);
+                    pieces.add(i + 1, right);
+                    return i + 1;
+                }
+                at += p.chars;
+            }
+            return pieces.size();
+        }
+
+        // --- READ ---
+
+        synchronized String text(long start, long count) throws Exception {
+            long end = Math.min(length, start + Math.max(0, count));
+            start = Math.max(0, Math.min(start, end));
+            if (end - start > MAX_SLICE_CHARS) throw new Exception("READ_ERR: Requested slice is too large");
+            StringBuilder out = new StringBuilder((int) (end - start));
+            long at = 0;
+            for (Piece p : pieces) {
+                long pEnd = at + p.chars;
+                if (pEnd > start && at < end) {
+                    long a = p.src.advance(p.start, Math.max(0, start - at));
+                    long b = pEnd <= end ? p.end : p.src.advance(p.start, end - at);
+                    p.src.appendTo(out, a, b);
+                }
+                if (pEnd >= end) break;
+                at = pEnd;
+            }
+            return out.toString();
+        }
+
+        /** Смещение (в символах) начала строки line. */
+        synchronized long lineStart(long line) throws IOException {
+            if (line <= 0) return 0;
+            if (line > newlines) return length;
+            long at = 0, lines = 0;
+            for (Piece p : pieces) {
+                if (lines + p.newlines >= line) {
+                    long pos = p.src.afterNewline(p.start, line - lines);
+                    return at + p.src.chars(p.start, pos);
+                }
+                lines += p.newlines;
+                at += p.chars;
+            }
+            return length;
+        }
+
+        /** Строки [from, from + count) без переводов строк, как readLines. */
+        synchronized List<String> lines(long from, long count) throws Exception {
+            long total = newlines + 1;
+            from = Math.max(0, Math.min(from, total));
+            long to = Math.min(total, from + Math.max(0, count));
+            List<String> result = new ArrayList<>();
+            if (from == to) return result;
+            long a = lineStart(from);
+            long b = to == total ? length : lineStart(to);
+            String chunk = text(a, b - a);
+            int s = 0;
+            for (int i = 0; i < chunk.length(); i++) {
+                if (chunk.charAt(i) != '\n') continue;
+                int e = (i > s && chunk.charAt(i - 1) == '\r') ? i - 1 : i;
+                result.add(chunk.substring(s, e));
+                s = i + 1;
+            }
+            if (to == total) result.add(chunk.substring(s));
+            return result;
+        }
+
+        // --- UNDO ---
+
+        synchronized int snapshot() {
+            int id = ++nextSnapshot;
+            snapshots.put(id, new ArrayList<>(pieces));
+            return id;
+        }
+
+        synchronized void restore(int snapshotId) throws Exception {
+            List<Piece> saved = snapshots.get(snapshotId);
+            if (saved == null) throw new Exception("Snapshot expired: " + snapshotId);
+            pieces = new ArrayList<>(saved);
+            recount();
+            version++;
+        }
+
+        // --- SAVE ---
+
+        synchronized SaveState beginSave() {
+            // Текущий буфер добавлений дописывается дальше - save пишет из его копии.
+            // Прежние буферы (из снимков undo) больше не меняются, их копировать не нужно
+            AddBuffer frozen = new AddBuffer(added.text);
+            List<Piece> saved = new ArrayList<>(pieces.size());
+            for (Piece p : pieces) {
+                saved.add(p.src == added ? new Piece(frozen, p.start, p.end, p.chars, p.newlines) : p);
+            }
+            return new SaveState(saved, version);
+        }
+
+        /** Пишет куски без блокировки документа: все источники состояния уже не меняются. */
+        void writeTo(SaveState state, OutputStream out) throws IOException {
+            for (Piece p : state.pieces) p.src.writeTo(out, p.start, p.end);
+        }
+
+        /**
+         * После переименования: если правок не было, переходим на новый файл целиком.
+         * Новый файл сканируется без блокировки - правки и чтения на потоке модуля не ждут
+         * прохода по большому файлу; под блокировкой только подмена.
+         */
+        void afterSave(SaveState state) throws IOException {
+            synchronized (this) {
+                if (closed || state.version != version) return;
+            }
+            Original fresh = new Original(file);
+            synchronized (this) {
+                if (closed || state.version != version) {
+                    fresh.close();
+                    return;
+                }
+                install(fresh);
+                added = new AddBuffer();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            original.close();
+            for (Original o : retired) o.close();
+            retired.clear();
+            snapshots.clear();
+        }
+    }
+}
\ No newline at end of file
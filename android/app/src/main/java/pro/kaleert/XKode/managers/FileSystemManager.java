@@ -2,33 +2,63 @@
 
 package pro.kaleert.XKode.managers;
 
+import android.os.Build;
 import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 
-import org.apache.commons.net.ftp.FTP;
-import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPReply;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
-import java.util.Properties;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FileSystemManager {
 
+    // Ссылки в папке разрешаются одной shell-командой; серверы без exec (только sftp) запоминаем
+    private static final int LINK_BATCH = 256;
+    private static final int LINK_EXEC_TIMEOUT_MS = 10000;
+    private static final Set<String> noExecHosts = ConcurrentHashMap.newKeySet();
+
     // --- LOCAL FS ---
     public static WritableArray listLocal(String path) throws Exception {
         File dir = (path == null || path.equals("/") || path.isEmpty()) 
@@ -94,198 +124,1295 @@ public class FileSystemManager {
         }
     }
 
-    public static void saveLocal(String path, String content) throws Exception {
-        try (FileOutputStream fos = new FileOutputStream(path)) {
-            fos.write(content.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Окно файла без загрузки целиком: [offset, offset + length) с выравниванием
+     * по границам символов UTF-8. nextOffset - откуда читать следующую страницу.
+     */
+    public static WritableMap readLocalRange(String path, double offset, int length) throws Exception {
+        File f = checkReadable(path);
+
+        long size = f.length();
+        long from = Math.max(0, Math.min((long) offset, size));
+        int want = Math.max(4, Math.min(length, RangeReader.MAX_WINDOW));
+        // Берем на 3 байта больше, чтобы не разрезать последний символ
+        int span = (int) Math.min(want + 3L, size - from);
+        byte[] buf = RangeReader.buffer(span);
+        int read = RangeReader.read(f, from, buf, span);
+
+        return textWindow(buf, read, want, from, size);
+    }
+
+    /**
+     * Обрезает прочитанные байты buf[0, span) (want + до 3 байт запаса) по границам символов
+     * UTF-8: начало сдвигается к следующему символу, конец - назад, чтобы не резать символ.
+     */
+    private static WritableMap textWindow(byte[] buf, int span, int want, long from, long size) {
+        int start = 0;
+        while (start < span && start < 3 && isUtf8Continuation(buf[start])) start++;
+        int end = Math.min(want, span);
+        if (end < span) {
+            int e = end;
+            while (e > start && isUtf8Continuation(buf[e])) e--;
+            if (e > start) {
+                end = e;
+            } else {
+                // Окно меньше одного символа - дочитываем символ целиком
+                while (end < span && isUtf8Continuation(buf[end])) end++;
+            }
         }
+
+        WritableMap result = Arguments.createMap();
+        result.putString("data", new String(buf, start, end - start, StandardCharsets.UTF_8));
+        result.putDouble("offset", from + start);
+        result.putDouble("nextOffset", from + end);
+        result.putDouble("size", size);
+        return result;
     }
 
-    // --- SFTP ---
-    public static WritableArray listSftp(String host, int port, String user, String pass, String path) throws Exception {
-        JSch jsch = new JSch();
-        Session session = null;
-        ChannelSftp channel = null;
+    // --- APPEND ---
+
+    /** Дозапись UTF-8 текста через буфер с групповым коммитом. */
+    public static void appendLocal(String path, String content) throws Exception {
+        AppendWriter.getInstance().append(path, content);
+    }
+
+    /** options: bufferBytes, flushMs, fsync, rotateBytes, keepFiles. */
+    public static void configureAppend(String path, ReadableMap options) {
+        AppendWriter.getInstance().configure(path, options);
+    }
+
+    /** path == null - сбросить все буферы дозаписи. */
+    public static void flushAppends(String path) throws Exception {
+        AppendWriter.getInstance().flush(path);
+    }
+
+    public static void closeAppends() {
+        AppendWriter.getInstance().closeAll();
+    }
+
+    // --- SEARCH ---
+
+    /** Пачка найденных совпадений {path, line, column, preview}. */
+    public interface HitListener {
+        void onHits(WritableArray hits);
+    }
+
+    /**
+     * Поиск pattern по дереву root. options: regex, caseSensitive, ignore (globs),
+     * maxResults, maxFileSize. Совпадения идут через listener по мере нахождения.
+     */
+    public static WritableMap searchFiles(String root, String pattern, ReadableMap options, HitListener listener) throws Exception {
+        return new ContentSearch(root, pattern, options, listener).run();
+    }
+
+    /**
+     * Строит или догоняет триграммный индекс папки (сверка по размеру и mtime).
+     * Индекс лежит в indexDir и переживает перезапуск приложения.
+     */
+    public static WritableMap indexWorkspace(String root, File indexDir) throws Exception {
+        long start = System.currentTimeMillis();
+        TrigramIndex index = TrigramIndex.forRoot(root, indexDir);
+        index.refresh();
+        WritableMap result = Arguments.createMap();
+        result.putInt("files", index.fileCount());
+        result.putInt("segments", index.segmentCount());
+        result.putDouble("elapsedMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /** Нечеткий поиск файла по пути: [{path, score}], лучшие первыми. */
+    public static WritableArray findFiles(String root, File indexDir, String query, int limit) throws Exception {
+        WritableArray result = Arguments.createArray();
+        for (Object[] hit : TrigramIndex.forRoot(root, indexDir).findFiles(query, Math.max(1, limit))) {
+            WritableMap map = Arguments.createMap();
+            map.putString("path", (String) hit[0]);
+            map.putInt("score", (int) hit[1]);
+            result.pushMap(map);
+        }
+        return result;
+    }
+
+    /**
+     * Как searchFiles, но проверяются только файлы, где есть все триграммы литерала.
+     * Для regex индекс лишь избавляет от обхода дерева. Пока индекс не построен
+     * (indexWorkspace еще не звали), ищем обычным обходом, а не по пустому списку.
+     */
+    public static WritableMap searchIndexed(String root, File indexDir, String pattern, ReadableMap options, HitListener listener) throws Exception {
+        TrigramIndex index = TrigramIndex.forRoot(root, indexDir);
+        if (index.fileCount() == 0) {
+            return new ContentSearch(index.getRoot().getPath(), pattern, options, listener).run();
+        }
+        boolean regex = options != null && options.hasKey("regex") && !options.isNull("regex") && options.getBoolean("regex");
+        List<File> candidates = regex ? index.allFiles() : index.candidates(pattern);
+        return new ContentSearch(index.getRoot().getPath(), pattern, options, listener).run(candidates);
+    }
+
+    // --- WATCHERS ---
+
+    /** Склеенная пачка изменений [{path, type}] для наблюдения watchId. */
+    public interface ChangeListener {
+        void onChanges(String watchId, WritableArray changes);
+    }
+
+    /** Изменения локальной папки через inotify; recursive - вместе с подпапками. */
+    public static void watchLocal(String watchId, String path, boolean recursive, ChangeListener listener) throws Exception {
+        FsWatcher.getInstance().watchLocal(watchId, path, recursive, listener);
+    }
+
+    /** Опрос SFTP-папки раз в intervalMs (0 - по умолчанию): stat папки, ls только при изменениях. */
+    public static void watchSftp(String watchId, String host, int port, String user, String pass, String path,
+                                 double intervalMs, ChangeListener listener) {
+        FsWatcher.getInstance().watchSftp(watchId, host, port, user, pass, path, (long) intervalMs, listener);
+    }
+
+    public static boolean unwatch(String watchId) {
+        return FsWatcher.getInstance().unwatch(watchId);
+    }
+
+    public static void unwatchAll() {
+        FsWatcher.getInstance().unwatchAll();
+    }
+
+    // --- ARCHIVES ---
 
+    /**
+     * Архив папки (или файла) sourcePath в destPath. options: level (0-9),
+     * exclude (globs, по умолчанию node_modules и .git), includeHidden.
+     */
+    public static WritableMap zipFolder(String sourcePath, String destPath, ReadableMap options, ProgressListener listener) throws Exception {
+        return new ZipArchiver(sourcePath, destPath, options, listener).run();
+    }
+
+    /**
+     * Распаковка zip / tar / tar.gz (формат по расширению или сигнатуре) в destPath.
+     * options: include (globs по путям внутри архива), overwrite (по умолчанию true).
+     */
+    public static WritableMap extractArchive(String archivePath, String destPath, ReadableMap options, ProgressListener listener) throws Exception {
+        return new ArchiveExtractor(archivePath, destPath, options, listener).run();
+    }
+
+    // --- SNAPSHOTS ---
+
+    /** Инкрементальный снимок root в хранилище storeDir: читаются только изменившиеся файлы. */
+    public static WritableMap createSnapshot(String root, File storeDir, ReadableMap options, ProgressListener listener) throws Exception {
+        return new SnapshotStore(storeDir).create(root, options, listener);
+    }
+
+    public static WritableArray listSnapshots(String root, File storeDir) throws Exception {
+        return new SnapshotStore(storeDir).list(root);
+    }
+
+    public static WritableMap restoreSnapshot(String root, File storeDir, String id, String destPath, ProgressListener listener) throws Exception {
+        return new SnapshotStore(storeDir).restore(root, id, destPath, listener);
+    }
+
+    public static WritableMap deleteSnapshot(String root, File storeDir, String id) throws Exception {
+        return new SnapshotStore(storeDir).delete(root, id);
+    }
+
+    // --- SYNC ---
+
+    /**
+     * Синхронизация localRoot с remoteRoot на SFTP: {mode: push|pull|both, dryRun, delete,
+     * prefer, exclude, delta, maxDelete}. Состояние прошлых проходов хранится в stateDir.
+     */
+    public static WritableMap syncSftp(String host, int port, String user, String pass, String localRoot, String remoteRoot,
+                                       File stateDir, ReadableMap options, ProgressListener listener) throws Exception {
         try {
-            session = jsch.getSession(user, host, port);
-            session.setPassword(pass);
-            
-            Properties config = new Properties();
-            config.put("StrictHostKeyChecking", "no");
-            // Разрешаем все популярные методы, чтобы не было ошибок "Auth fail"
-            config.put("PreferredAuthentications", "password,keyboard-interactive,publickey");
-            session.setConfig(config);
-            
-            // Таймаут подключения 10 секунд
-            session.connect(10000); 
+            return new SftpSync(host, port, user, pass, localRoot, remoteRoot, stateDir, options, listener).run();
+        } catch (com.jcraft.jsch.JSchException e) {
+            throw sshError(e);
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new Exception("SFTP Sync Error: " + e.getMessage());
+        }
+    }
 
-            channel = (ChannelSftp) session.openChannel("sftp");
-            channel.connect();
+    // --- PAGED LISTING ---
 
-            // Корректировка пути (если пришел null или пустой, берем корень или домашнюю папку)
-            String targetPath = (path == null || path.isEmpty()) ? "." : path;
+    /** Страница листинга: entries уже в формате listLocal/listSftp. */
+    public interface PageListener {
+        void onPage(String cursor, WritableArray entries, boolean done);
+    }
 
-            Vector<ChannelSftp.LsEntry> list = channel.ls(targetPath);
-            WritableArray result = Arguments.createArray();
+    /**
+     * Постраничный листинг локальной папки: первая страница уходит через listener сразу,
+     * остальные - по listMore. options: pageSize, sort, descending, dirsFirst, showHidden, filter.
+     */
+    public static String openLocalListing(String path, ReadableMap options, PageListener listener) throws Exception {
+        File dir = (path == null || path.equals("/") || path.isEmpty())
+            ? Environment.getExternalStorageDirectory()
+            : new File(path);
+        if (!dir.isDirectory()) throw new Exception("Path is not a directory: " + path);
 
-            for (ChannelSftp.LsEntry entry : list) {
-                String name = entry.getFilename();
-                // Пропускаем ссылки на текущую и родительскую папки
-                if (name.equals(".") || name.equals("..")) continue;
+        return DirectoryLister.open(sink -> {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                // Итератор не грузит всю папку в память; атрибуты - один stat на запись
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+                    for (Path p : stream) {
+                        if (sink.isClosed()) break;
+                        String name = p.getFileName().toString();
+                        if (!sink.accepts(name)) continue;
+                        if (!sink.emit(localEntry(p, name))) break;
+                    }
+                }
+            } else {
+                // До API 26 потокового API нет: хотя бы только имена, без File[] и лишних stat
+                String[] names = dir.list();
+                if (names == null) return;
+                for (String name : names) {
+                    if (sink.isClosed()) break;
+                    if (!sink.accepts(name)) continue;
+                    File f = new File(dir, name);
+                    RemoteListingCache.Entry e = new RemoteListingCache.Entry();
+                    e.name = name;
+                    e.path = f.getAbsolutePath();
+                    e.isDir = f.isDirectory();
+                    e.size = f.length();
+                    e.mtime = f.lastModified();
+                    if (!sink.emit(e)) break;
+                }
+            }
+        }, options, listener);
+    }
 
-                WritableMap map = Arguments.createMap();
-                map.putString("name", name);
-                
-                // Формируем полный путь для навигации
-                // Если targetPath ".", то путь просто имя файла, иначе путь/имя
-                String fullPath;
-                if (targetPath.equals(".")) {
-                    fullPath = name; 
-                } else if (targetPath.endsWith("/")) {
-                    fullPath = targetPath + name;
-                } else {
-                    fullPath = targetPath + "/" + name;
+    private static RemoteListingCache.Entry localEntry(Path p, String name) {
+        RemoteListingCache.Entry e = new RemoteListingCache.Entry();
+        e.name = name;
+        e.path = p.toAbsolutePath().toString();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            e.isDir = attrs.isDirectory();
+            e.isSymlink = attrs.isSymbolicLink();
+            e.size = attrs.size();
+            e.mtime = attrs.lastModifiedTime().toMillis();
+            if (e.isSymlink) {
+                e.isDir = Files.isDirectory(p);
+                e.linkTarget = Files.readSymbolicLink(p).toString();
+            }
+        } catch (IOException ignored) {
+            // Нет прав на stat - показываем хотя бы имя
+        }
+        return e;
+    }
+
+    /**
+     * То же для SFTP: ls с селектором кладет записи прямо в очередь курсора, первая страница
+     * уходит, пока сервер еще отдает остальное. Канал у курсора свой, не из пула: медленное
+     * листание в JS не держит канал, которого ждут другие операции.
+     */
+    public static String openSftpListing(String host, int port, String user, String pass, String path,
+                                         ReadableMap options, PageListener listener) throws Exception {
+        String targetPath = (path == null || path.isEmpty()) ? "." : path;
+        return DirectoryLister.open(sink -> {
+            ChannelSftp channel;
+            try {
+                channel = SshSessionPool.getInstance().openSftp(host, port, user, pass);
+            } catch (com.jcraft.jsch.JSchException e) {
+                throw sshError(e);
+            }
+            try {
+                channel.ls(targetPath, entry -> {
+                    if (sink.isClosed()) return ChannelSftp.LsEntrySelector.BREAK;
+                    String name = entry.getFilename();
+                    if (name.equals(".") || name.equals("..") || !sink.accepts(name)) {
+                        return ChannelSftp.LsEntrySelector.CONTINUE;
+                    }
+                    SftpATTRS attrs = entry.getAttrs();
+                    RemoteListingCache.Entry e = new RemoteListingCache.Entry();
+                    e.name = name;
+                    e.path = targetPath.equals(".") ? name
+                        : targetPath.endsWith("/") ? targetPath + name : targetPath + "/" + name;
+                    e.isDir = attrs.isDir();
+                    e.isSymlink = attrs.isLink();
+                    e.size = attrs.getSize();
+                    e.mtime = attrs.getMTime() * 1000L;
+                    e.mode = attrs.getPermissions() & 07777;
+                    e.permissions = attrs.getPermissionsString();
+                    try {
+                        // Полная очередь останавливает ls до следующей страницы: память не растет
+                        return sink.emit(e) ? ChannelSftp.LsEntrySelector.CONTINUE
+                            : ChannelSftp.LsEntrySelector.BREAK;
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return ChannelSftp.LsEntrySelector.BREAK;
+                    }
+                });
+            } finally {
+                // Канал не из пула: закрываем всегда, состояние после BREAK никому не достанется
+                SshSessionPool.getInstance().releaseChannel(channel);
+            }
+        }, options, listener);
+    }
+
+    public static boolean listMore(String cursor, PageListener listener) throws Exception {
+        return DirectoryLister.more(cursor, listener);
+    }
+
+    public static void closeListing(String cursor) {
+        DirectoryLister.close(cursor);
+    }
+
+    // --- LINE INDEX ---
+
+    public static double getLineCount(String path) throws Exception {
+        return LineIndex.forFile(checkReadable(path)).lineCount();
+    }
+
+    /** Строки [fromLine, fromLine + count) без переводов строк; индекс строится один раз. */
+    public static WritableArray readLines(String path, double fromLine, int count) throws Exception {
+        File f = checkReadable(path);
+        LineIndex index = LineIndex.forFile(f);
+        long total = index.lineCount();
+        long from = Math.max(0, Math.min((long) fromLine, total));
+        long to = Math.min(total, from + Math.max(0, count));
+
+        WritableArray result = Arguments.createArray();
+        if (from == to) return result;
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long start = index.lineStart(raf, from);
+            long end = to == total ? index.indexedLength() : index.lineStart(raf, to);
+            if (end - start > 16 * 1024 * 1024) {
+                throw new Exception("READ_ERR: Requested lines are too large (" + ((end - start) / 1024) + " KB)");
+            }
+
+            byte[] data = new byte[(int) (end - start)];
+            raf.seek(start);
+            raf.readFully(data);
+
+            int lineStart = 0;
+            long emitted = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != '\n') continue;
+                int lineEnd = (i > lineStart && data[i - 1] == '\r') ? i - 1 : i;
+                result.pushString(new String(data, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+                emitted++;
+            }
+            // Последняя строка файла без завершающего \n
+            if (emitted < to - from) {
+                result.pushString(new String(data, lineStart, data.length - lineStart, StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static File checkReadable(String path) throws Exception {
+        File f = new File(path);
+        if (!f.exists()) {
+            throw new Exception("READ_ERR: File does not exist: " + path);
+        }
+        if (f.isDirectory()) {
+            throw new Exception("READ_ERR: Cannot read directory as file: " + path);
+        }
+        if (!f.canRead()) {
+            throw new Exception("READ_ERR: Access denied (OS permission): " + path);
+        }
+        return f;
+    }
+
+    private static boolean isUtf8Continuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /** Прогресс длинных операций (загрузки, архивы); вызывается из рабочих потоков. */
+    public interface ProgressListener {
+        void onProgress(long bytes, long total);
+    }
+
+    public static void saveLocal(String path, String content) throws Exception {
+        File target = new File(path);
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        String hash = hex(MessageDigest.getInstance(HASH_ALGORITHM).digest(data));
+        // Содержимое не изменилось - файл (и его mtime) не трогаем. Хэш с диска, а не из кэша:
+        // mtime грубый, и перезапись той же длины извне в тот же тик кэш бы не заметил
+        if (target.isFile() && target.canRead() && target.length() == data.length && hash.equals(hashFile(target))) {
+            rememberHash(target, hash);
+            return;
+        }
+
+        File tmp = tempFor(target);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(data);
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        commitTemp(tmp, target, hash);
+    }
+
+    // --- ATOMIC EDIT SAVES ---
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int MAX_HASH_CACHE = 64;
+
+    // Хэши недавно прочитанных/записанных файлов: path -> {size, mtime, hash}
+    private static final Map<String, Object[]> hashCache =
+        new LinkedHashMap<String, Object[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+                return size() > MAX_HASH_CACHE;
+            }
+        };
+
+    /** SHA-256 содержимого файла (hex); базовая версия для saveLocalEdits. */
+    public static String hashLocal(String path) throws Exception {
+        File f = checkReadable(path);
+        synchronized (hashCache) {
+            Object[] cached = hashCache.get(f.getAbsolutePath());
+            if (cached != null && (long) cached[0] == f.length() && (long) cached[1] == f.lastModified()) {
+                return (String) cached[2];
+            }
+        }
+        String hash = hashFile(f);
+        rememberHash(f, hash);
+        return hash;
+    }
+
+    private static String hashFile(File f) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
+        }
+        return hex(md.digest());
+    }
+
+    /**
+     * Применяет правки [{start, end, text}] (смещения UTF-16 в базовой версии) к файлу
+     * с хэшем baseHash. Через мост идут только правки; файл пишется во временный
+     * и атомарно переименовывается. Если результат совпал с диском - запись пропускается.
+     */
+    public static WritableMap saveLocalEdits(String path, String baseHash, ReadableArray edits) throws Exception {
+        File target = checkReadable(path);
+        long[][] ranges = new long[edits.size()][];
+        String[] texts = new String[edits.size()];
+        Integer[] order = new Integer[edits.size()];
+        for (int i = 0; i < edits.size(); i++) {
+            ReadableMap e = edits.getMap(i);
+            ranges[i] = new long[] { (long) e.getDouble("start"), (long) e.getDouble("end") };
+            texts[i] = e.hasKey("text") && !e.isNull("text") ? e.getString("text") : "";
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ranges[a][0], ranges[b][0]));
+
+        MessageDigest baseMd = MessageDigest.getInstance(HASH_ALGORITHM);
+        MessageDigest newMd = MessageDigest.getInstance(HASH_ALGORITHM);
+        File tmp = tempFor(target);
+        boolean keepTmp = false;
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 Reader in = new InputStreamReader(new DigestInputStream(
+                     new FileInputStream(target), baseMd), StandardCharsets.UTF_8);
+                 Writer out = new OutputStreamWriter(new DigestOutputStream(
+                     new BufferedOutputStream(fos, 64 * 1024), newMd), StandardCharsets.UTF_8)) {
+                char[] buf = new char[32 * 1024];
+                long pos = 0;
+                for (int idx : order) {
+                    long start = ranges[idx][0];
+                    long end = ranges[idx][1];
+                    if (start < pos || end < start) {
+                        throw new Exception("WRITE_ERR: Overlapping or invalid edit range " + start + ".." + end);
+                    }
+                    if (copyChars(in, out, buf, start - pos) < start - pos
+                            || copyChars(in, null, buf, end - start) < end - start) {
+                        throw new Exception("WRITE_ERR: Edit range is past end of file: " + end);
+                    }
+                    out.write(texts[idx]);
+                    pos = end;
                 }
-                
-                map.putString("path", fullPath);
-                map.putBoolean("isDirectory", entry.getAttrs().isDir());
-                
-                // Можно добавить размер и права, если нужно
-                // map.putDouble("size", entry.getAttrs().getSize());
-                
-                result.pushMap(map);
+                copyChars(in, out, buf, Long.MAX_VALUE);
+                out.flush();
+                fos.getFD().sync();
+            }
+
+            String base = hex(baseMd.digest());
+            if (!base.equals(baseHash)) {
+                throw new Exception("CONFLICT: File changed on disk since it was opened");
+            }
+            String hash = hex(newMd.digest());
+            WritableMap result = Arguments.createMap();
+            result.putString("hash", hash);
+            if (hash.equals(base)) {
+                result.putBoolean("written", false);
+                rememberHash(target, hash);
+            } else {
+                commitTemp(tmp, target, hash);
+                keepTmp = true;
+                result.putBoolean("written", true);
             }
-            
             return result;
+        } finally {
+            if (!keepTmp) tmp.delete();
+        }
+    }
 
-        } catch (com.jcraft.jsch.JSchException e) {
-            String msg = e.getMessage();
-            // Детальная обработка ошибок для пользователя
-            if (msg.contains("Auth fail")) {
-                throw new Exception("Auth Failed: Check username/password.");
-            } else if (msg.contains("reject HostKey")) {
-                throw new Exception("Security Error: Host key rejected.");
-            } else if (msg.contains("timeout")) {
-                throw new Exception("Connection Timeout: Server is not responding.");
+    // Копирует (или пропускает, если out == null) до count символов; возвращает сколько вышло
+    private static long copyChars(Reader in, Writer out, char[] buf, long count) throws IOException {
+        long done = 0;
+        while (done < count) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, count - done));
+            if (n == -1) break;
+            if (out != null) out.write(buf, 0, n);
+            done += n;
+        }
+        return done;
+    }
+
+    // Временный файл рядом с настоящим файлом (для симлинка - рядом с тем, куда он
+    // указывает): rename в пределах одной ФС атомарен. Имя уникальное, чтобы два
+    // параллельных сохранения одного файла не писали в общий tmp.
+    static File tempFor(File target) throws IOException {
+        File real = resolveTarget(target);
+        return File.createTempFile("." + real.getName() + ".", ".xkode-tmp", real.getParentFile());
+    }
+
+    /**
+     * Временное имя на сервере рядом с path (suffix - ".xkode-tmp" и т.п.). Как и у tempFor,
+     * имя уникальное: два параллельных сохранения одного файла не пишут в общий tmp.
+     * SftpSync.isTemporary узнает такие имена по suffix.
+     */
+    static String remoteTempFor(String path, String suffix) {
+        int slash = path.lastIndexOf('/');
+        return path.substring(0, slash + 1) + "." + path.substring(slash + 1) + "."
+            + UUID.randomUUID().toString().substring(0, 8) + suffix;
+    }
+
+    /**
+     * Переименовывает tmp поверх target. Симлинк остается симлинком (заменяется его цель),
+     * права старого файла переносятся на новый. hash == null - без кэша хэшей.
+     */
+    static void commitTemp(File tmp, File target, String hash) throws Exception {
+        File real = resolveTarget(target);
+        copyPermissions(real, tmp);
+        if (!tmp.renameTo(real)) {
+            tmp.delete();
+            throw new Exception("WRITE_ERR: Failed to replace " + target.getAbsolutePath());
+        }
+        if (hash != null) rememberHash(target, hash);
+    }
+
+    private static File resolveTarget(File target) throws IOException {
+        File abs = target.getAbsoluteFile();
+        return abs.exists() ? abs.getCanonicalFile() : abs;
+    }
+
+    private static void copyPermissions(File from, File to) {
+        if (!from.exists()) return;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()));
             } else {
-                throw new Exception("SSH Error: " + msg);
+                // До API 26 java.nio.file нет: те же биты прав через stat/chmod
+                Os.chmod(to.getPath(), Os.stat(from.getPath()).st_mode & 07777);
             }
-        } catch (Exception e) {
-            throw new Exception("SFTP Error: " + e.getMessage());
+        } catch (IOException | UnsupportedOperationException | ErrnoException e) {
+            // Карта памяти (FAT/FUSE) прав не хранит: остаются права по умолчанию
+        }
+    }
+
+    /**
+     * Симлинк ли сам путь (без перехода по ссылке). Через lstat, а не Files.isSymbolicLink:
+     * java.nio.file есть только с API 26. Недоступный путь считается не ссылкой.
+     */
+    static boolean isSymlink(File f) {
+        try {
+            return OsConstants.S_ISLNK(Os.lstat(f.getPath()).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    private static void rememberHash(File f, String hash) {
+        synchronized (hashCache) {
+            hashCache.put(f.getAbsolutePath(), new Object[] { f.length(), f.lastModified(), hash });
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // --- DOCUMENTS ---
+    // Открытые буферы редактора живут в нативе (piece table): JS шлет только правки
+    // и запрашивает видимые строки, файл целиком через мост не гоняется.
+
+    public static WritableMap openDocument(String path) throws Exception {
+        DocumentStore.Document doc = DocumentStore.getInstance().open(checkReadable(path));
+        WritableMap result = documentInfo(doc);
+        result.putString("docId", doc.id);
+        result.putDouble("size", doc.size());
+        return result;
+    }
+
+    /** Правки [{start, end, text}] в смещениях UTF-16 текущей версии документа. */
+    public static WritableMap applyDocumentEdits(String docId, ReadableArray edits) throws Exception {
+        DocumentStore.Document doc = DocumentStore.getInstance().get(docId);
+        long[][] ranges = new long[edits.size()][];
+        String[] texts = new String[edits.size()];
+        for (int i = 0; i < edits.size(); i++) {
+            ReadableMap e = edits.getMap(i);
+            ranges[i] = new long[] { (long) e.getDouble("start"), (long) e.getDouble("end") };
+            texts[i] = e.hasKey("text") && !e.isNull("text") ? e.getString("text") : "";
+        }
+        doc.apply(ranges, texts);
+        return documentInfo(doc);
+    }
+
+    public static String getDocumentText(String docId, double start, double length) throws Exception {
+        return DocumentStore.getInstance().get(docId).text((long) start, (long) length);
+    }
+
+    public static WritableArray getDocumentLines(String docId, double fromLine, int count) throws Exception {
+        WritableArray result = Arguments.createArray();
+        for (String line : DocumentStore.getInstance().get(docId).lines((long) fromLine, count)) {
+            result.pushString(line);
+        }
+        return result;
+    }
+
+    /** Дешевый снимок для undo: копия списка кусков, текст не копируется. */
+    public static int snapshotDocument(String docId) throws Exception {
+        return DocumentStore.getInstance().get(docId).snapshot();
+    }
+
+    public static WritableMap restoreDocument(String docId, int snapshotId) throws Exception {
+        DocumentStore.Document doc = DocumentStore.getInstance().get(docId);
+        doc.restore(snapshotId);
+        return documentInfo(doc);
+    }
+
+    /** Пишет куски потоком во временный файл и атомарно подменяет исходный. */
+    public static WritableMap saveDocument(String docId) throws Exception {
+        DocumentStore.Document doc = DocumentStore.getInstance().get(docId);
+        DocumentStore.SaveState state = doc.beginSave();
+        MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
+        File tmp = tempFor(doc.file);
+        boolean keepTmp = false;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(fos, 64 * 1024), md)) {
+                doc.writeTo(state, out);
+                out.flush();
+                fos.getFD().sync();
+            }
+            String hash = hex(md.digest());
+            commitTemp(tmp, doc.file, hash);
+            keepTmp = true;
+            doc.afterSave(state);
+
+            WritableMap result = Arguments.createMap();
+            result.putString("hash", hash);
+            result.putDouble("size", doc.file.length());
+            return result;
         } finally {
-            if (channel != null && channel.isConnected()) channel.disconnect();
-            if (session != null && session.isConnected()) session.disconnect();
+            if (!keepTmp) tmp.delete();
         }
     }
 
-    // --- FTP ---
-    public static WritableArray listFtp(String host, int port, String user, String pass, String path) throws Exception {
-        FTPClient ftp = new FTPClient();
+    public static void closeDocument(String docId) {
+        DocumentStore.getInstance().close(docId);
+    }
+
+    public static void closeDocuments() {
+        DocumentStore.getInstance().closeAll();
+    }
+
+    private static WritableMap documentInfo(DocumentStore.Document doc) {
+        WritableMap info = Arguments.createMap();
+        info.putDouble("length", doc.length());
+        info.putDouble("lineCount", doc.lineCount());
+        return info;
+    }
+
+    // --- SFTP ---
+    public static WritableArray listSftp(String host, int port, String user, String pass, String path) throws Exception {
+        return listSftp(host, port, user, pass, path, false);
+    }
+
+    public static WritableArray listSftp(String host, int port, String user, String pass, String path, boolean refresh) throws Exception {
+        return listSftp(host, port, user, pass, path, refresh, false);
+    }
+
+    /**
+     * refresh - мимо кэша листингов (явное обновление в UI).
+     * prefetch - навигация пользователя: после ответа в фоне читаются подпапки.
+     */
+    public static WritableArray listSftp(String host, int port, String user, String pass, String path,
+                                         boolean refresh, boolean prefetch) throws Exception {
+        // Корректировка пути (если пришел null или пустой, берем корень или домашнюю папку)
+        String targetPath = (path == null || path.isEmpty()) ? "." : path;
+        String conn = sftpConn(host, port, user);
+        RemoteListingCache cache = RemoteListingCache.getInstance();
+        SftpPrefetcher prefetcher = SftpPrefetcher.getInstance();
+        // Эту папку уже читает предзагрузка - дождаться ее быстрее, чем начинать свой ls
+        if (!refresh) prefetcher.awaitInFlight(conn, targetPath);
+        RemoteListingCache.Listing cached = refresh ? null : cache.get(conn, targetPath);
+        if (cached != null && cached.isFresh()) {
+            if (prefetch) prefetcher.afterListing(host, port, user, pass, targetPath, cached.entries);
+            return toWritable(cached.entries);
+        }
+
         try {
-            ftp.setConnectTimeout(5000);
-            ftp.connect(host, port);
-            
-            if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
-                ftp.disconnect();
-                throw new Exception("FTP server refused connection.");
+            List<RemoteListingCache.Entry> entries = SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                // TTL истек: если папка не менялась, одного stat хватает вместо полного ls
+                if (cached != null && channel.stat(targetPath).getMTime() * 1000L == cached.dirMtime) {
+                    cache.revalidated(cached);
+                    return cached.entries;
+                }
+
+                return fetchSftpListing(channel, conn, targetPath);
+            });
+            if (prefetch) prefetcher.afterListing(host, port, user, pass, targetPath, entries);
+            return toWritable(entries);
+        } catch (com.jcraft.jsch.JSchException e) {
+            throw sshError(e);
+        } catch (Exception e) {
+            throw new Exception("SFTP Error: " + e.getMessage());
+        }
+    }
+
+    /** Полный ls папки в кэш листингов; общий для listSftp и фоновой предзагрузки. */
+    static List<RemoteListingCache.Entry> fetchSftpListing(ChannelSftp channel, String conn, String targetPath) throws Exception {
+        Vector<ChannelSftp.LsEntry> list = channel.ls(targetPath);
+        List<RemoteListingCache.Entry> result = new ArrayList<>(list.size());
+        List<RemoteListingCache.Entry> links = new ArrayList<>();
+        long dirMtime = -1;
+
+        for (ChannelSftp.LsEntry entry : list) {
+            String name = entry.getFilename();
+            SftpATTRS attrs = entry.getAttrs();
+            // "." заодно дает mtime самой папки для ревалидации
+            if (name.equals(".")) {
+                dirMtime = attrs.getMTime() * 1000L;
+                continue;
             }
+            // Пропускаем ссылку на родительскую папку
+            if (name.equals("..")) continue;
 
-            if (!ftp.login(user, pass)) {
-                ftp.disconnect();
-                throw new Exception("FTP login failed.");
+            // Формируем полный путь для навигации
+            // Если targetPath ".", то путь просто имя файла, иначе путь/имя
+            String fullPath;
+            if (targetPath.equals(".")) {
+                fullPath = name;
+            } else if (targetPath.endsWith("/")) {
+                fullPath = targetPath + name;
+            } else {
+                fullPath = targetPath + "/" + name;
             }
 
-            // Важно для мобильных сетей и NAT
-            ftp.enterLocalPassiveMode();
-            ftp.setFileType(FTP.BINARY_FILE_TYPE);
+            RemoteListingCache.Entry e = new RemoteListingCache.Entry();
+            e.name = name;
+            e.path = fullPath;
+            e.isDir = attrs.isDir();
+            e.isSymlink = attrs.isLink();
+            e.size = attrs.getSize();
+            e.mtime = attrs.getMTime() * 1000L;
+            e.mode = attrs.getPermissions() & 07777;
+            e.permissions = attrs.getPermissionsString();
+            // Ссылка на папку должна открываться как папка - разрешаем все ссылки после ls
+            if (e.isSymlink) links.add(e);
+            result.add(e);
+        }
+        if (!links.isEmpty()) resolveSftpLinks(channel, conn, targetPath, links);
 
-            String target = (path == null || path.isEmpty()) ? "/" : path;
-            
+        if (dirMtime < 0) dirMtime = channel.stat(targetPath).getMTime() * 1000L;
+        RemoteListingCache.getInstance().put(conn, targetPath, result, dirMtime);
+        return result;
+    }
+
+    /**
+     * readlink + stat на каждую ссылку - два последовательных round trip, в /usr/lib это
+     * секунды. Через exec в той же сессии все ссылки папки разрешаются за один round trip;
+     * без exec (chroot sftp) остается поштучный путь.
+     */
+    private static void resolveSftpLinks(ChannelSftp channel, String conn, String dir,
+                                         List<RemoteListingCache.Entry> links) throws Exception {
+        if (!noExecHosts.contains(conn)) {
+            try {
+                for (int from = 0; from < links.size(); from += LINK_BATCH) {
+                    resolveLinksExec(channel, dir, links.subList(from, Math.min(links.size(), from + LINK_BATCH)));
+                }
+                return;
+            } catch (com.jcraft.jsch.JSchException e) {
+                // Сервер не дает exec-канал - дальше сразу поштучно
+                noExecHosts.add(conn);
+            } catch (Exception e) {
+                // Разовый сбой команды: эту папку дочитываем поштучно
+            }
+        }
+        for (RemoteListingCache.Entry e : links) {
+            try {
+                e.linkTarget = channel.readlink(e.path);
+                e.isDir = channel.stat(e.path).isDir();
+            } catch (com.jcraft.jsch.SftpException broken) {
+                // Битая ссылка - показываем как есть
+            }
+        }
+    }
+
+    private static void resolveLinksExec(ChannelSftp channel, String dir,
+                                         List<RemoteListingCache.Entry> links) throws Exception {
+        // На каждую ссылку две записи через \0: цель и "d", если она ведет в папку
+        StringBuilder cmd = new StringBuilder("cd -- ").append(shellQuote(dir)).append(" && for f in");
+        for (RemoteListingCache.Entry e : links) cmd.append(' ').append(shellQuote(e.name));
+        cmd.append("; do if [ -d \"$f\" ]; then d=d; else d=-; fi; ")
+           .append("printf '%s\\0%s\\0' \"$(readlink -- \"$f\" 2>/dev/null)\" \"$d\"; done");
+
+        ChannelExec exec = SshSessionPool.getInstance().openExecBeside(channel);
+        if (exec == null) throw new Exception("No pooled session");
+        String[] fields;
+        try {
+            exec.setCommand(cmd.toString());
+            exec.setInputStream(null);
+            InputStream in = exec.getInputStream();
+            exec.connect(LINK_EXEC_TIMEOUT_MS);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+            fields = out.toString("UTF-8").split("\0", -1);
+        } finally {
+            SshSessionPool.getInstance().releaseChannel(exec);
+        }
+        // Последнее поле - пустой хвост после финального \0
+        if (fields.length != links.size() * 2 + 1) throw new Exception("Unexpected link listing");
+        for (int i = 0; i < links.size(); i++) {
+            RemoteListingCache.Entry e = links.get(i);
+            String target = fields[i * 2];
+            e.linkTarget = target.isEmpty() ? null : target;
+            e.isDir = fields[i * 2 + 1].equals("d");
+        }
+    }
+
+    private static String shellQuote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /** Настройки фоновой предзагрузки: {enabled, maxDirs, headBytes, maxFiles, maxFileSize}. */
+    public static void configureSftpPrefetch(ReadableMap options) {
+        SftpPrefetcher.getInstance().configure(options);
+    }
+
+    public static void cancelSftpPrefetch() {
+        SftpPrefetcher.getInstance().cancelAll();
+    }
+
+    static String sftpConn(String host, int port, String user) {
+        return "sftp:" + user + "@" + host + ":" + port;
+    }
+
+    private static String ftpConn(String host, int port, String user) {
+        return "ftp:" + user + "@" + host + ":" + port;
+    }
+
+    static WritableArray toWritable(List<RemoteListingCache.Entry> entries) {
+        WritableArray result = Arguments.createArray();
+        for (RemoteListingCache.Entry e : entries) {
+            WritableMap map = Arguments.createMap();
+            map.putString("name", e.name);
+            map.putString("path", e.path);
+            map.putBoolean("isDirectory", e.isDir);
+            map.putDouble("size", e.size);
+            map.putDouble("mtime", e.mtime);
+            map.putInt("mode", e.mode);
+            if (e.permissions != null) map.putString("permissions", e.permissions);
+            map.putBoolean("isSymlink", e.isSymlink);
+            if (e.linkTarget != null) map.putString("linkTarget", e.linkTarget);
+            result.pushMap(map);
+        }
+        return result;
+    }
+
+    // Детальная обработка ошибок для пользователя
+    private static Exception sshError(com.jcraft.jsch.JSchException e) {
+        String msg = e.getMessage();
+        if (msg == null) msg = e.toString();
+        if (msg.contains("Auth fail")) {
+            return new Exception("Auth Failed: Check username/password.");
+        } else if (msg.contains("reject HostKey")) {
+            return new Exception("Security Error: Host key rejected.");
+        } else if (msg.contains("timeout")) {
+            return new Exception("Connection Timeout: Server is not responding.");
+        } else {
+            return new Exception("SSH Error: " + msg);
+        }
+    }
+
+    // --- FTP ---
+    public static WritableArray listFtp(String host, int port, String user, String pass, String path) throws Exception {
+        return listFtp(host, port, user, pass, path, false);
+    }
+
+    public static WritableArray listFtp(String host, int port, String user, String pass, String path, boolean refresh) throws Exception {
+        String target = (path == null || path.isEmpty()) ? "/" : path;
+        String conn = ftpConn(host, port, user);
+        RemoteListingCache cache = RemoteListingCache.getInstance();
+        // mtime папки FTP надежно не отдает - только TTL
+        RemoteListingCache.Listing cached = refresh ? null : cache.get(conn, target);
+        if (cached != null && cached.isFresh()) return toWritable(cached.entries);
+
+        List<RemoteListingCache.Entry> entries = FtpClientPool.getInstance().withClient(host, port, user, pass, ftp -> {
             FTPFile[] files = ftp.listFiles(target);
-            WritableArray result = Arguments.createArray();
+            List<RemoteListingCache.Entry> result = new ArrayList<>(files.length);
 
             for (FTPFile file : files) {
+                if (file == null) continue; // строка LIST, которую парсер не понял
                 String name = file.getName();
                 if (name.equals(".") || name.equals("..")) continue;
 
-                WritableMap map = Arguments.createMap();
-                map.putString("name", name);
-                String fullPath = target.endsWith("/") ? target + name : target + "/" + name;
-                map.putString("path", fullPath);
-                map.putBoolean("isDirectory", file.isDirectory());
-                result.pushMap(map);
+                RemoteListingCache.Entry e = new RemoteListingCache.Entry();
+                e.name = name;
+                e.path = target.endsWith("/") ? target + name : target + "/" + name;
+                e.isDir = file.isDirectory();
+                e.isSymlink = file.isSymbolicLink();
+                e.linkTarget = file.getLink();
+                e.size = file.getSize();
+                e.mtime = file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : 0;
+                e.mode = ftpMode(file);
+                e.permissions = ftpPermissions(file);
+                result.add(e);
             }
-            
+            cache.put(conn, target, result, -1);
             return result;
-        } finally {
-            if (ftp.isConnected()) {
-                try { ftp.disconnect(); } catch (Exception ignored) {}
-            }
+        });
+        return toWritable(entries);
+    }
+
+    private static int ftpMode(FTPFile file) {
+        int mode = 0;
+        int[] access = { FTPFile.USER_ACCESS, FTPFile.GROUP_ACCESS, FTPFile.WORLD_ACCESS };
+        for (int i = 0; i < access.length; i++) {
+            int shift = (2 - i) * 3;
+            if (file.hasPermission(access[i], FTPFile.READ_PERMISSION)) mode |= 4 << shift;
+            if (file.hasPermission(access[i], FTPFile.WRITE_PERMISSION)) mode |= 2 << shift;
+            if (file.hasPermission(access[i], FTPFile.EXECUTE_PERMISSION)) mode |= 1 << shift;
         }
+        return mode;
     }
-    
-    public static String readSftp(String host, int port, String user, String pass, String path) throws Exception {
-        JSch jsch = new JSch();
-        Session session = null;
-        ChannelSftp channel = null;
-        InputStream stream = null;
 
-        try {
-            session = jsch.getSession(user, host, port);
-            session.setPassword(pass);
-            Properties config = new Properties();
-            config.put("StrictHostKeyChecking", "no");
-            config.put("PreferredAuthentications", "password,keyboard-interactive,publickey");
-            session.setConfig(config);
-            session.connect(10000);
-
-            channel = (ChannelSftp) session.openChannel("sftp");
-            channel.connect();
-
-            // 1. Проверяем файл перед скачиванием
-            try {
-                SftpATTRS attrs = channel.lstat(path);
-                if (attrs.isDir()) {
-                    throw new Exception("Cannot open directory as file");
-                }
-                long size = attrs.getSize();
-                if (size > 5 * 1024 * 1024) { // Лимит 5 МБ для удаленных файлов
-                    throw new Exception("File too large for remote editing (>5MB)");
-                }
-            } catch (Exception e) {
-                // Если lstat не сработал, возможно файл не существует или нет прав
-                throw new Exception("Remote file check failed: " + e.getMessage());
+    private static String ftpPermissions(FTPFile file) {
+        StringBuilder sb = new StringBuilder(10);
+        sb.append(file.isDirectory() ? 'd' : file.isSymbolicLink() ? 'l' : '-');
+        int mode = ftpMode(file);
+        String rwx = "rwx";
+        for (int bit = 8; bit >= 0; bit--) {
+            sb.append((mode & (1 << bit)) != 0 ? rwx.charAt(2 - bit % 3) : '-');
+        }
+        return sb.toString();
+    }
+
+    public static String readFtp(String host, int port, String user, String pass, String path) throws Exception {
+        return FtpClientPool.getInstance().withClient(host, port, user, pass, ftp -> {
+            // SIZE поддерживают не все серверы, поэтому лимит проверяем и после загрузки
+            String size = ftp.getSize(path);
+            long limit = 5 * 1024 * 1024; // Тот же лимит, что и для SFTP
+            if (size != null && Long.parseLong(size.trim()) > limit) {
+                throw new Exception("File too large for remote editing (>5MB)");
             }
 
-            // 2. Читаем поток
-            stream = channel.get(path);
             ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[4096];
-
-            while ((nRead = stream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+            if (!ftp.retrieveFile(path, buffer)) {
+                throw new Exception("FTP read failed: " + ftp.getReplyString());
             }
-            
-            buffer.flush();
             byte[] fileBytes = buffer.toByteArray();
+            if (fileBytes.length > limit) {
+                throw new Exception("File too large for remote editing (>5MB)");
+            }
 
-            // 3. Простейшая проверка на бинарность (первые 512 байт)
             int checkLimit = Math.min(fileBytes.length, 512);
             for (int i = 0; i < checkLimit; i++) {
                 if (fileBytes[i] == 0) throw new Exception("Detected binary file");
             }
 
             return new String(fileBytes, StandardCharsets.UTF_8);
+        });
+    }
+
+    public static void saveFtp(String host, int port, String user, String pass, String path, String content) throws Exception {
+        FtpClientPool.getInstance().withClient(host, port, user, pass, ftp -> {
+            byte[] data = content.getBytes(StandardCharsets.UTF_8);
+            if (!ftp.storeFile(path, new ByteArrayInputStream(data))) {
+                throw new Exception("FTP write failed: " + ftp.getReplyString());
+            }
+            RemoteListingCache.getInstance().invalidate(ftpConn(host, port, user), path);
+            return null;
+        });
+    }
 
+    public static String readSftp(String host, int port, String user, String pass, String path) throws Exception {
+        // Небольшой файл целиком мог прийти с предзагрузкой
+        SftpPrefetcher.Head head = SftpPrefetcher.getInstance().takeHead(sftpConn(host, port, user), path);
+        try {
+            return SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                // 1. Проверяем файл перед скачиванием
+                SftpATTRS attrs;
+                try {
+                    attrs = channel.lstat(path);
+                    if (attrs.isDir()) {
+                        throw new Exception("Cannot open directory as file");
+                    }
+                    long size = attrs.getSize();
+                    if (size > 5 * 1024 * 1024) { // Лимит 5 МБ для удаленных файлов
+                        throw new Exception("File too large for remote editing (>5MB)");
+                    }
+                } catch (Exception e) {
+                    // Если lstat не сработал, возможно файл не существует или нет прав
+                    throw new Exception("Remote file check failed: " + e.getMessage());
+                }
+                // Копия из предзагрузки годится, только если файл с тех пор не менялся:
+                // его могли править из терминала
+                if (head != null && head.isComplete() && head.matches(attrs)) return sftpText(head.data);
+
+                // 2. Читаем поток
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (InputStream stream = channel.get(path)) {
+                    int nRead;
+                    byte[] data = new byte[4096];
+                    while ((nRead = stream.read(data, 0, data.length)) != -1) {
+                        buffer.write(data, 0, nRead);
+                    }
+                }
+
+                // 3. Проверка на бинарность
+                return sftpText(buffer.toByteArray());
+            });
         } catch (com.jcraft.jsch.JSchException e) {
             throw new Exception("SFTP Conn Error: " + e.getMessage());
         } catch (com.jcraft.jsch.SftpException e) {
             throw new Exception("SFTP Read Error: " + e.getMessage());
-        } finally {
-            if (stream != null) try { stream.close(); } catch (IOException e) {}
-            if (channel != null) channel.disconnect();
-            if (session != null) session.disconnect();
+        }
+    }
+
+    // Простейшая проверка на бинарность (первые 512 байт) и декодирование
+    private static String sftpText(byte[] fileBytes) throws Exception {
+        int checkLimit = Math.min(fileBytes.length, 512);
+        for (int i = 0; i < checkLimit; i++) {
+            if (fileBytes[i] == 0) throw new Exception("Detected binary file");
+        }
+        return new String(fileBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Скачивание в локальный файл параллельными сегментами, с продолжением
+     * после обрыва. Возвращает {path, size, resumed}.
+     */
+    public static WritableMap downloadSftp(String host, int port, String user, String pass,
+                                           String remotePath, String localPath, ProgressListener listener) throws Exception {
+        File dest = new File(localPath);
+        long resumed;
+        try {
+            resumed = new SftpDownloader(host, port, user, pass, remotePath, dest, listener).run();
+        } catch (com.jcraft.jsch.JSchException e) {
+            throw new Exception("SFTP Conn Error: " + e.getMessage());
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new Exception("SFTP Read Error: " + e.getMessage());
+        }
+        WritableMap result = Arguments.createMap();
+        result.putString("path", dest.getAbsolutePath());
+        result.putDouble("size", dest.length());
+        result.putDouble("resumed", resumed);
+        return result;
+    }
+
+    /** Окно удаленного файла для превью - как readLocalRange, без скачивания целиком. */
+    public static WritableMap readSftpRange(String host, int port, String user, String pass,
+                                            String path, double offset, int length) throws Exception {
+        // Первое окно файла могло прийти с предзагрузкой
+        SftpPrefetcher.Head head = offset <= 0
+            ? SftpPrefetcher.getInstance().takeHead(sftpConn(host, port, user), path) : null;
+        try {
+            return SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                SftpATTRS attrs = channel.stat(path);
+                if (attrs.isDir()) throw new Exception("Cannot open directory as file");
+                long size = attrs.getSize();
+                long from = Math.max(0, Math.min((long) offset, size));
+                int want = Math.max(4, Math.min(length, 4 * 1024 * 1024));
+                int span = (int) Math.min(want + 3L, size - from);
+                // stat уже сделан ради размера: он же подтверждает, что копия не устарела
+                if (head != null && head.matches(attrs) && head.data.length >= span) {
+                    return textWindow(head.data, span, want, 0, size);
+                }
+
+                byte[] buf = new byte[span];
+                int filled = 0;
+                try (InputStream stream = channel.get(path, null, from)) {
+                    int n;
+                    while (filled < span && (n = stream.read(buf, filled, span - filled)) != -1) {
+                        filled += n;
+                    }
+                }
+                return textWindow(buf, filled, want, from, size);
+            });
+        } catch (com.jcraft.jsch.JSchException e) {
+            throw new Exception("SFTP Conn Error: " + e.getMessage());
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new Exception("SFTP Read Error: " + e.getMessage());
+        }
+    }
+
+    // --- SFTP WRITE ---
+
+    // Что мы сами последний раз залили: "user@host:port/path" -> {size, mtime, hash}
+    private static final Map<String, Object[]> remoteHashes =
+        new LinkedHashMap<String, Object[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+                return size() > MAX_HASH_CACHE;
+            }
+        };
+
+    /** Сохранение текста в удаленный файл; skipUnchanged - не заливать, если на сервере то же самое. */
+    public static WritableMap saveSftp(String host, int port, String user, String pass,
+                                       String path, String content, boolean skipUnchanged) throws Exception {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        String hash = hex(MessageDigest.getInstance(HASH_ALGORITHM).digest(data));
+        return uploadSftp(host, port, user, pass, path, () -> new ByteArrayInputStream(data),
+            data.length, hash, skipUnchanged, null);
+    }
+
+    /** Заливка локального файла; прогресс идет через listener. */
+    public static WritableMap uploadFile(String host, int port, String user, String pass, String localPath,
+                                         String remotePath, boolean skipUnchanged, ProgressListener listener) throws Exception {
+        File f = checkReadable(localPath);
+        String hash = skipUnchanged ? hashLocal(localPath) : null;
+        return uploadSftp(host, port, user, pass, remotePath, () -> new FileInputStream(f),
+            f.length(), hash, skipUnchanged, listener);
+    }
+
+    private interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Пишем во временное имя рядом с целевым и переименовываем: читатели на сервере
+     * никогда не видят наполовину записанный файл. put() в JSch отправляет write-запросы
+     * пачкой, не дожидаясь подтверждения каждого.
+     */
+    private static WritableMap uploadSftp(String host, int port, String user, String pass, String path,
+                                          StreamSource source, long size, String hash,
+                                          boolean skipUnchanged, ProgressListener listener) throws Exception {
+        String key = user + "@" + host + ":" + port + "/" + path;
+        try {
+            return SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                SftpATTRS existing = null;
+                try {
+                    existing = channel.stat(path);
+                } catch (com.jcraft.jsch.SftpException e) {
+                    if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) throw e;
+                }
+
+                WritableMap result = Arguments.createMap();
+                if (skipUnchanged && existing != null && hash != null) {
+                    Object[] known;
+                    synchronized (remoteHashes) {
+                        known = remoteHashes.get(key);
+                    }
+                    // Размер и mtime на сервере те же, что после нашей заливки, и контент тот же
+                    if (known != null && (long) known[0] == existing.getSize()
+                            && (int) known[1] == existing.getMTime() && hash.equals(known[2])) {
+                        result.putBoolean("uploaded", false);
+                        result.putDouble("bytes", 0);
+                        return result;
+                    }
+                }
+
+                String tmp = remoteTempFor(path, ".xkode-tmp");
+
+                long started = System.currentTimeMillis();
+                long[] sent = new long[1];
+                try (InputStream in = source.open()) {
+                    channel.put(in, tmp, new com.jcraft.jsch.SftpProgressMonitor() {
+                        @Override
+                        public void init(int op, String src, String dest, long max) {}
+
+                        @Override
+                        public boolean count(long count) {
+                            sent[0] += count;
+                            if (listener != null) listener.onProgress(sent[0], size);
+                            // false прерывает put - так работает отмена запроса
+                            return !TaskScheduler.isCancelled();
+                        }
+
+                        @Override
+                        public void end() {}
+                    }, ChannelSftp.OVERWRITE);
+
+                    if (TaskScheduler.isCancelled()) {
+                        throw new InterruptedException("Upload cancelled");
+                    }
+                    // Права исходного файла сохраняем (скрипты остаются исполняемыми)
+                    if (existing != null) channel.chmod(existing.getPermissions() & 07777, tmp);
+                    renameOver(channel, tmp, path, existing != null);
+                    RemoteListingCache.getInstance().invalidate(sftpConn(host, port, user), path);
+                    SftpPrefetcher.getInstance().invalidate(sftpConn(host, port, user), path);
+                } catch (Exception e) {
+                    // Если старой версии уже нет на месте, tmp - единственная копия: не трогаем
+                    if (existing == null || sftpExists(channel, path)) {
+                        try { channel.rm(tmp); } catch (Exception ignored) {}
+                    }
+                    throw e;
+                }
+                long elapsed = Math.max(1, System.currentTimeMillis() - started);
+
+                if (hash != null) {
+                    SftpATTRS written = channel.stat(path);
+                    synchronized (remoteHashes) {
+                        remoteHashes.put(key, new Object[] { written.getSize(), written.getMTime(), hash });
+                    }
+                }
+
+                result.putBoolean("uploaded", true);
+                result.putDouble("bytes", sent[0]);
+                result.putDouble("elapsedMs", elapsed);
+                result.putDouble("bytesPerSec", sent[0] * 1000.0 / elapsed);
+                return result;
+            });
+        } catch (com.jcraft.jsch.JSchException e) {
+            throw new Exception("SFTP Conn Error: " + e.getMessage());
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new Exception("SFTP Write Error: " + e.getMessage());
+        }
+    }
+
+    private static void renameOver(ChannelSftp channel, String from, String to, boolean targetExists) throws Exception {
+        try {
+            // JSch использует posix-rename@openssh.com, если сервер его поддерживает - это атомарно
+            channel.rename(from, to);
+            return;
+        } catch (com.jcraft.jsch.SftpException e) {
+            if (!targetExists) throw e;
+        }
+        // Старый SFTP v3 не переименовывает поверх существующего файла: старую версию
+        // сначала отодвигаем, а не удаляем, чтобы при сбое было что вернуть
+        // (имя уникальное: параллельная запись того же файла не тронет чужую копию)
+        String backup = remoteTempFor(to, ".xkode-bak");
+        channel.rename(to, backup);
+        try {
+            channel.rename(from, to);
+        } catch (com.jcraft.jsch.SftpException e) {
+            try {
+                channel.rename(backup, to);
+            } catch (com.jcraft.jsch.SftpException restore) {
+                throw new Exception("SFTP Write Error: " + e.getMessage() + " (previous version kept at " + backup
+                    + ", new content at " + from + ")");
+            }
+            throw e;
+        }
+        try { channel.rm(backup); } catch (com.jcraft.jsch.SftpException ignored) {}
+    }
+
+    private static boolean sftpExists(ChannelSftp channel, String path) {
+        try {
+            channel.stat(path);
+            return true;
+        } catch (com.jcraft.jsch.SftpException e) {
+            // Не смогли проверить - считаем, что цели нет, и tmp сохраняем
+            return false;
         }
     }
 }
\ No newline at end of file
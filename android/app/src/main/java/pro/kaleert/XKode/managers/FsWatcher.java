@@ -0,0 +1,371 @@
+package pro.kaleert.XKode.managers;
+
+import android.os.FileObserver;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Наблюдение за папками, открытыми в дереве: локальные - через FileObserver (inotify),
+ * SFTP - дешевым опросом mtime папки. События копятся и склеиваются, в JS уходит
+ * одна пачка FS_CHANGED после затишья, а не поток на каждую запись.
+ */
+class FsWatcher {
+
+    private static final long DEBOUNCE_MS = 150;
+    private static final long MAX_DELAY_MS = 1000;
+    private static final int MAX_PENDING = 1000;
+    private static final int MAX_OBSERVED_DIRS = 4000;
+    private static final long DEFAULT_POLL_MS = 5000;
+    // Правка файла не меняет mtime папки - полный ls делаем хотя бы раз в столько опросов
+    private static final int FULL_LIST_EVERY = 6;
+
+    private static final int LOCAL_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.CLOSE_WRITE
+        | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    static final String CREATED = "created";
+    static final String DELETED = "deleted";
+    static final String MODIFIED = "modified";
+    static final String OVERFLOW = "overflow";
+
+    private static FsWatcher instance;
+
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = daemonScheduler("xkode-watch");
+    // Опрос SFTP ждет сеть - отдельный поток, чтобы не задерживать локальные пачки
+    private final ScheduledExecutorService poller = daemonScheduler("xkode-watch-poll");
+
+    private FsWatcher() {}
+
+    static synchronized FsWatcher getInstance() {
+        if (instance == null) {
+            instance = new FsWatcher();
+        }
+        return instance;
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // --- WATCH ---
+
+    private abstract class Watch {
+        final String id;
+        final FileSystemManager.ChangeListener listener;
+        // Порядок важен: JS применяет изменения в том же порядке
+        final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+        boolean overflow;
+        long firstEventAt;
+        long lastEventAt;
+        ScheduledFuture<?> flushTask;
+        volatile boolean stopped;
+
+        Watch(String id, FileSystemManager.ChangeListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        abstract void stop();
+
+        /** Склейка: создан+удален - ничего, удален+создан - изменен. */
+        synchronized void record(String path, String type) {
+            if (stopped) return;
+            long now = System.currentTimeMillis();
+            if (pending.isEmpty() && !overflow) firstEventAt = now;
+            lastEventAt = now;
+
+            String prev = pending.get(path);
+            if (DELETED.equals(type)) {
+                if (CREATED.equals(prev)) pending.remove(path);
+                else pending.put(path, DELETED);
+            } else if (CREATED.equals(type)) {
+                pending.put(path, DELETED.equals(prev) ? MODIFIED : CREATED);
+            } else if (prev == null) {
+                pending.put(path, MODIFIED);
+            }
+            // Шторм событий (git checkout, сборка) - пусть JS просто перечитает дерево
+            if (pending.size() > MAX_PENDING) {
+                pending.clear();
+                overflow = true;
+            }
+            if (flushTask == null) flushTask = timer.schedule(this::flush, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void flush() {
+            List<String> changed = new ArrayList<>();
+            WritableArray batch = Arguments.createArray();
+            boolean overflowed;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long quiet = now - lastEventAt;
+                if (quiet < DEBOUNCE_MS && now - firstEventAt < MAX_DELAY_MS) {
+                    flushTask = timer.schedule(this::flush, DEBOUNCE_MS - quiet, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                flushTask = null;
+                if (stopped) return;
+                overflowed = overflow;
+                if (overflow) {
+                    batch.pushMap(change(rootPath(), OVERFLOW));
+                } else {
+                    for (Map.Entry<String, String> e : pending.entrySet()) {
+                        batch.pushMap(change(e.getKey(), e.getValue()));
+                        changed.add(e.getKey());
+                    }
+                }
+                pending.clear();
+                overflow = false;
+            }
+            if (batch.size() > 0) listener.onChanges(id, batch);
+            afterFlush(changed, overflowed);
+        }
+
+        abstract String rootPath();
+
+        /** overflowed - отдельные пути потеряны, changed пуст. */
+        void afterFlush(List<String> changed, boolean overflowed) {}
+    }
+
+    private static WritableMap change(String path, String type) {
+        WritableMap map = Arguments.createMap();
+        map.putString("path", path);
+        map.putString("type", type);
+        return map;
+    }
+
+    // --- LOCAL ---
+
+    private class LocalWatch extends Watch {
+        final File root;
+        final boolean recursive;
+        final List<Pattern> ignores = new ArrayList<>();
+        final Map<String, FileObserver> observers = new HashMap<>();
+        // Полная сверка индекса после шторма уже в очереди - вторую не ставим
+        final AtomicBoolean indexRefreshQueued = new AtomicBoolean();
+
+        LocalWatch(String id, File root, boolean recursive, FileSystemManager.ChangeListener listener) {
+            super(id, listener);
+            this.root = root;
+            this.recursive = recursive;
+            for (String g : ContentSearch.DEFAULT_IGNORES) ignores.add(ContentSearch.globToRegex(g));
+        }
+
+        // Один inotify-наблюдатель на папку: рекурсивного режима у ядра нет
+        synchronized void observe(File dir) {
+            if (stopped || observers.containsKey(dir.getPath())) return;
+            // Лимит inotify-наблюдателей в системе общий - глубже не лезем
+            if (observers.size() >= MAX_OBSERVED_DIRS) return;
+            String dirPath = dir.getPath();
+            @SuppressWarnings("deprecation")
+            FileObserver observer = new FileObserver(dirPath, LOCAL_EVENTS) {
+                @Override
+                public void onEvent(int event, String name) {
+                    onLocalEvent(dirPath, event & FileObserver.ALL_EVENTS, name);
+                }
+            };
+            observers.put(dirPath, observer);
+            observer.startWatching();
+
+            if (!recursive) return;
+            File[] children = dir.listFiles();
+            if (children == null) return;
+            for (File child : children) {
+                if (child.isDirectory() && !isIgnored(child.getName())) observe(child);
+            }
+        }
+
+        private boolean isIgnored(String name) {
+            for (Pattern p : ignores) {
+                if (p.matcher(name).matches()) return true;
+            }
+            return false;
+        }
+
+        void onLocalEvent(String dirPath, int event, String name) {
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                synchronized (this) {
+                    FileObserver o = observers.remove(dirPath);
+                    if (o != null) o.stopWatching();
+                }
+                if (dirPath.equals(root.getPath())) record(dirPath, DELETED);
+                return;
+            }
+            if (name == null || isIgnored(name)) return;
+            File f = new File(dirPath, name);
+            if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+                record(f.getPath(), CREATED);
+                // Новую папку начинаем слушать сразу, иначе ее содержимое потеряется
+                if (recursive && f.isDirectory()) observe(f);
+            } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+                record(f.getPath(), DELETED);
+            } else {
+                record(f.getPath(), MODIFIED);
+            }
+        }
+
+        @Override
+        String rootPath() {
+            return root.getPath();
+        }
+
+        @Override
+        void afterFlush(List<String> changed, boolean overflowed) {
+            // Индексация читает файлы - это работа для CPU-пула, а не для таймера пачек.
+            // Если очередь пула забита, индекс догонит следующий indexWorkspace
+            TaskScheduler scheduler = TaskScheduler.getInstance();
+            if (overflowed) {
+                // Какие файлы менялись, неизвестно: точечный update ничего бы не исправил
+                if (!indexRefreshQueued.compareAndSet(false, true)) return;
+                String path = root.getPath();
+                boolean queued = scheduler.runBackground(TaskScheduler.Pool.CPU, () -> {
+                    indexRefreshQueued.set(false);
+                    TrigramIndex.refreshOverlapping(path);
+                    return null;
+                });
+                if (!queued) indexRefreshQueued.set(false);
+            } else if (!changed.isEmpty()) {
+                // Триграммный индекс догоняет изменения сам, без полного пересканирования
+                scheduler.runBackground(TaskScheduler.Pool.CPU, () -> {
+                    TrigramIndex.notifyChanged(changed);
+                    return null;
+                });
+            }
+        }
+
+        @Override
+        synchronized void stop() {
+            stopped = true;
+            for (FileObserver o : observers.values()) o.stopWatching();
+            observers.clear();
+            if (flushTask != null) flushTask.cancel(false);
+        }
+    }
+
+    // --- SFTP ---
+
+    private class SftpWatch extends Watch {
+        final String host;
+        final int port;
+        final String user;
+        final String pass;
+        final String path;
+        Map<String, long[]> snapshot;   // имя -> {size, mtime}
+        long dirMtime = -1;
+        int polls;
+        ScheduledFuture<?> pollTask;
+
+        SftpWatch(String id, String host, int port, String user, String pass, String path, FileSystemManager.ChangeListener listener) {
+            super(id, listener);
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.pass = pass;
+            this.path = path;
+        }
+
+        void poll() {
+            if (stopped) return;
+            try {
+                long mtime = SshSessionPool.getInstance().withSftp(host, port, user, pass,
+                    channel -> channel.stat(path).getMTime() * 1000L);
+                boolean full = snapshot == null || mtime != dirMtime || ++polls % FULL_LIST_EVERY == 0;
+                dirMtime = mtime;
+                if (!full) return;
+
+                // Свежий листинг заодно обновляет кэш, и дерево перечитает папку без сети
+                FileSystemManager.listSftp(host, port, user, pass, path, true);
+                RemoteListingCache.Listing listing = RemoteListingCache.getInstance()
+                    .get(FileSystemManager.sftpConn(host, port, user), path);
+                if (listing == null) return;
+
+                Map<String, long[]> next = new HashMap<>();
+                for (RemoteListingCache.Entry e : listing.entries) next.put(e.path, new long[] { e.size, e.mtime });
+                if (snapshot != null) {
+                    for (Map.Entry<String, long[]> e : next.entrySet()) {
+                        long[] old = snapshot.get(e.getKey());
+                        if (old == null) record(e.getKey(), CREATED);
+                        else if (old[0] != e.getValue()[0] || old[1] != e.getValue()[1]) record(e.getKey(), MODIFIED);
+                    }
+                    for (String p : snapshot.keySet()) {
+                        if (!next.containsKey(p)) record(p, DELETED);
+                    }
+                }
+                snapshot = next;
+            } catch (Exception e) {
+                // Сеть моргнула - попробуем на следующем тике, папка могла и исчезнуть
+                if (snapshot != null && e.getMessage() != null && e.getMessage().contains("No such file")) {
+                    record(path, DELETED);
+                    snapshot = null;
+                }
+            }
+        }
+
+        @Override
+        String rootPath() {
+            return path;
+        }
+
+        @Override
+        synchronized void stop() {
+            stopped = true;
+            if (pollTask != null) pollTask.cancel(false);
+            if (flushTask != null) flushTask.cancel(false);
+        }
+    }
+
+    // --- API ---
+
+    /** Повторный watch с тем же id заменяет старый. */
+    void watchLocal(String id, String path, boolean recursive, FileSystemManager.ChangeListener listener) throws Exception {
+        File root = new File(path);
+        if (!root.isDirectory()) throw new Exception("Path is not a directory: " + path);
+        LocalWatch watch = new LocalWatch(id, root, recursive, listener);
+        replace(id, watch);
+        watch.observe(root);
+    }
+
+    void watchSftp(String id, String host, int port, String user, String pass, String path, long intervalMs,
+                   FileSystemManager.ChangeListener listener) {
+        SftpWatch watch = new SftpWatch(id, host, port, user, pass, (path == null || path.isEmpty()) ? "." : path, listener);
+        replace(id, watch);
+        long interval = intervalMs > 0 ? intervalMs : DEFAULT_POLL_MS;
+        // Первый опрос только снимает исходное состояние
+        watch.pollTask = poller.scheduleWithFixedDelay(watch::poll, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    boolean unwatch(String id) {
+        Watch watch = watches.remove(id);
+        if (watch == null) return false;
+        watch.stop();
+        return true;
+    }
+
+    void unwatchAll() {
+        for (String id : new ArrayList<>(watches.keySet())) unwatch(id);
+    }
+
+    private void replace(String id, Watch watch) {
+        Watch old = watches.put(id, watch);
+        if (old != null) old.stop();
+    }
+}
\ No newline at end of file
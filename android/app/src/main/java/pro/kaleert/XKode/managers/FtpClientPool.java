@@ -0,0 +1,238 @@
+package pro.kaleert.XKode.managers;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пул залогиненных FTPClient на каждый endpoint (user@host:port).
+ * Простаивающие соединения держим живыми через NOOP и закрываем по таймауту.
+ * Пароль в ключ не входит: клиент выдается только тому, кто знает пароль его логина.
+ */
+public class FtpClientPool {
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    // Молчащий сервер не должен вешать поток пула навсегда (управляющий канал и данные)
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int MAX_PER_ENDPOINT = 4;
+    private static final long BORROW_WAIT_MS = 15000;
+    // Если клиент простаивал дольше - проверяем его NOOP перед выдачей
+    private static final long VALIDATE_AFTER_MS = 10 * 1000;
+    private static final long KEEPALIVE_MS = 30 * 1000;
+    private static final long IDLE_TIMEOUT_MS = 2 * 60 * 1000;
+
+    private static FtpClientPool instance;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService keeper;
+
+    private FtpClientPool() {
+        keeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "xkode-ftp-keepalive");
+            t.setDaemon(true);
+            return t;
+        });
+        keeper.scheduleWithFixedDelay(this::maintain, KEEPALIVE_MS, KEEPALIVE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized FtpClientPool getInstance() {
+        if (instance == null) {
+            instance = new FtpClientPool();
+        }
+        return instance;
+    }
+
+    // --- MODEL ---
+
+    private static class Endpoint {
+        final String host;
+        final int port;
+        final String user;
+        final Semaphore permits = new Semaphore(MAX_PER_ENDPOINT, true);
+        final ArrayDeque<IdleClient> idle = new ArrayDeque<>();
+        long lastUsed = System.currentTimeMillis();
+        boolean removed;        // убран из реестра: вернувшиеся клиенты закрываем
+
+        Endpoint(String host, int port, String user) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+        }
+    }
+
+    private static class IdleClient {
+        final FTPClient client;
+        final String pass;
+        long since = System.currentTimeMillis();
+
+        IdleClient(FTPClient client, String pass) {
+            this.client = client;
+            this.pass = pass;
+        }
+    }
+
+    public interface FtpTask<T> {
+        T run(FTPClient ftp) throws Exception;
+    }
+
+    // --- API ---
+
+    /**
+     * Выдает клиента из пула, выполняет операцию и возвращает его обратно.
+     * Соединение, упавшее во время операции, в пул не возвращается.
+     */
+    public <T> T withClient(String host, int port, String user, String pass, FtpTask<T> task) throws Exception {
+        Endpoint ep = endpoints.computeIfAbsent(user + "@" + host + ":" + port, k -> new Endpoint(host, port, user));
+
+        if (!ep.permits.tryAcquire(BORROW_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            throw new Exception("FTP pool exhausted: too many parallel requests to " + host);
+        }
+        FTPClient ftp = null;
+        try {
+            ftp = borrow(ep, pass);
+            T result = task.run(ftp);
+            giveBack(ep, ftp, pass);
+            ftp = null;
+            return result;
+        } finally {
+            if (ftp != null) {
+                // Ответ сервера после ошибки мог остаться непрочитанным - не переиспользуем
+                quietDisconnect(ftp);
+            }
+            ep.permits.release();
+        }
+    }
+
+    private FTPClient borrow(Endpoint ep, String pass) throws Exception {
+        while (true) {
+            IdleClient ic;
+            synchronized (ep) {
+                ep.lastUsed = System.currentTimeMillis();
+                ic = ep.idle.pollFirst();
+            }
+            if (ic == null) break;
+            // Другой пароль - либо его сменили, либо он неверный: чужой логин не отдаем
+            if (ic.pass.equals(pass) && isHealthy(ic)) return ic.client;
+            quietDisconnect(ic.client);
+        }
+        return connect(ep, pass);
+    }
+
+    private boolean isHealthy(IdleClient ic) {
+        if (!ic.client.isConnected()) return false;
+        if (System.currentTimeMillis() - ic.since < VALIDATE_AFTER_MS) return true;
+        try {
+            return ic.client.sendNoOp();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void giveBack(Endpoint ep, FTPClient ftp, String pass) {
+        if (!ftp.isConnected()) return;
+        synchronized (ep) {
+            ep.lastUsed = System.currentTimeMillis();
+            if (!ep.removed) {
+                ep.idle.addFirst(new IdleClient(ftp, pass));
+                return;
+            }
+        }
+        quietDisconnect(ftp);
+    }
+
+    private FTPClient connect(Endpoint ep, String pass) throws Exception {
+        FTPClient ftp = new FTPClient();
+        ftp.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        // Таймаут чтения для приветствия и логина; после connect - явный setSoTimeout
+        ftp.setDefaultTimeout(READ_TIMEOUT_MS);
+        ftp.setDataTimeout(Duration.ofMillis(READ_TIMEOUT_MS));
+        // Во время долгих передач шлем NOOP по управляющему каналу
+        ftp.setControlKeepAliveTimeout(Duration.ofSeconds(60));
+        ftp.connect(ep.host, ep.port);
+        ftp.setSoTimeout(READ_TIMEOUT_MS);
+
+        if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+            quietDisconnect(ftp);
+            throw new Exception("FTP server refused connection.");
+        }
+
+        if (!ftp.login(ep.user, pass)) {
+            quietDisconnect(ftp);
+            throw new Exception("FTP login failed.");
+        }
+
+        // Важно для мобильных сетей и NAT
+        ftp.enterLocalPassiveMode();
+        ftp.setFileType(FTP.BINARY_FILE_TYPE);
+        return ftp;
+    }
+
+    private static void quietDisconnect(FTPClient ftp) {
+        if (ftp.isConnected()) {
+            try { ftp.logout(); } catch (Exception ignored) {}
+            try { ftp.disconnect(); } catch (Exception ignored) {}
+        }
+    }
+
+    // --- KEEPALIVE ---
+
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Endpoint>> eps = endpoints.entrySet().iterator();
+        while (eps.hasNext()) {
+            Endpoint ep = eps.next().getValue();
+            // NOOP ждет сеть - забираем клиентов и проверяем без блокировки,
+            // иначе borrow и giveBack этого endpoint стояли бы за медленным сервером
+            List<IdleClient> checking;
+            synchronized (ep) {
+                checking = new ArrayList<>(ep.idle);
+                ep.idle.clear();
+            }
+            List<IdleClient> alive = new ArrayList<>();
+            for (IdleClient ic : checking) {
+                boolean ok = false;
+                if (now - ic.since < IDLE_TIMEOUT_MS) {
+                    try {
+                        ok = ic.client.sendNoOp();
+                    } catch (Exception ignored) {}
+                }
+                if (ok) alive.add(ic);
+                else quietDisconnect(ic.client);
+            }
+            synchronized (ep) {
+                // Проверенные простаивали дольше вернувшихся за это время - в хвост
+                ep.idle.addAll(alive);
+                // Забытый endpoint (другой сервер, сменился логин) не копится в реестре
+                if (ep.idle.isEmpty() && ep.permits.availablePermits() == MAX_PER_ENDPOINT
+                        && now - ep.lastUsed >= IDLE_TIMEOUT_MS) {
+                    ep.removed = true;
+                    eps.remove();
+                }
+            }
+        }
+    }
+
+    public void closeAll() {
+        for (Endpoint ep : endpoints.values()) {
+            List<IdleClient> closing;
+            synchronized (ep) {
+                closing = new ArrayList<>(ep.idle);
+                ep.idle.clear();
+            }
+            // logout ждет ответ сервера - вне блокировки
+            for (IdleClient ic : closing) quietDisconnect(ic.client);
+        }
+    }
+}
\ No newline at end of file
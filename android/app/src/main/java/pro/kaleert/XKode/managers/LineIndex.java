@@ -0,0 +1,164 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Индекс начал строк файла. Храним смещение каждой stride-й строки в long[];
+ * когда массив дорастает до MAX_ENTRIES, прореживаем его вдвое (stride *= 2),
+ * так что память ограничена для файла любого размера.
+ */
+class LineIndex {
+
+    private static final int MAX_ENTRIES = 1 << 20; // 8 MB на индекс
+    private static final int MAX_CACHED = 8;
+    private static final int SCAN_BUFFER = 64 * 1024;
+    // Хвост уже проиндексированной части: по нему узнаем, что файл только дописали
+    private static final int TAIL_CHECK = 256;
+
+    private static final Map<String, LineIndex> cache =
+        new LinkedHashMap<String, LineIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest) {
+                return size() > MAX_CACHED;
+            }
+        };
+
+    private long[] starts = new long[1024];
+    private int entries;
+    private int stride = 1;
+    private long newlines;
+    private long scannedTo;
+    private long mtime;
+    private byte[] tail = new byte[0];
+
+    private LineIndex() {
+        starts[entries++] = 0; // строка 0 всегда начинается с нуля
+    }
+
+    /** Индекс из кэша; если файл изменился - дописываем или строим заново. */
+    static LineIndex forFile(File f) throws IOException {
+        String key = f.getAbsolutePath();
+        LineIndex index;
+        synchronized (cache) {
+            index = cache.get(key);
+            if (index == null) {
+                index = new LineIndex();
+                cache.put(key, index);
+            }
+        }
+        synchronized (index) {
+            index.refresh(f);
+        }
+        return index;
+    }
+
+    synchronized long lineCount() {
+        // Как в редакторе: пустой файл - одна строка, завершающий \n открывает новую
+        return newlines + 1;
+    }
+
+    /** Смещение начала строки line (line <= lineCount). */
+    synchronized long lineStart(RandomAccessFile raf, long line) throws IOException {
+        if (line == 0) return 0;
+        int slot = (int) (line / stride);
+        long offset = starts[slot];
+        long remaining = line - (long) slot * stride;
+        if (remaining == 0) return offset;
+
+        // Между контрольными точками досчитываем переводы строк
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_BUFFER);
+        FileChannel ch = raf.getChannel();
+        long pos = offset;
+        while (pos < scannedTo) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            byte[] arr = buf.array();
+            for (int i = 0; i < n; i++) {
+                if (arr[i] == '\n' && --remaining == 0) return pos + i + 1;
+            }
+            pos += n;
+        }
+        return scannedTo;
+    }
+
+    synchronized long indexedLength() {
+        return scannedTo;
+    }
+
+    // --- SCAN ---
+
+    private void refresh(File f) throws IOException {
+        long size = f.length();
+        long modified = f.lastModified();
+        if (size == scannedTo && modified == mtime) return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            // Тот же размер, но другое время изменения — файл переписан на месте,
+            // хвост мог совпасть случайно, поэтому пересчитываем всё
+            if (size <= scannedTo || !tailMatches(raf)) reset();
+            scan(raf.getChannel(), size);
+            tail = new byte[(int) Math.min(TAIL_CHECK, size)];
+            raf.getChannel().read(ByteBuffer.wrap(tail), size - tail.length);
+        }
+        mtime = modified;
+    }
+
+    private boolean tailMatches(RandomAccessFile raf) throws IOException {
+        if (tail.length == 0) return true;
+        byte[] now = new byte[tail.length];
+        raf.getChannel().read(ByteBuffer.wrap(now), scannedTo - tail.length);
+        return Arrays.equals(now, tail);
+    }
+
+    private void reset() {
+        starts = new long[1024];
+        entries = 1;
+        stride = 1;
+        newlines = 0;
+        scannedTo = 0;
+        tail = new byte[0];
+    }
+
+    private void scan(FileChannel ch, long size) throws IOException {
+        // Прямой буфер: канал читает в него без промежуточной копии
+        ByteBuffer buf = ByteBuffer.allocateDirect(SCAN_BUFFER);
+        long pos = scannedTo;
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    newlines++;
+                    if (newlines % stride == 0) addStart(pos + i + 1);
+                }
+            }
+            pos += n;
+        }
+        scannedTo = pos;
+    }
+
+    private void addStart(long offset) {
+        if (entries == starts.length) {
+            if (entries >= MAX_ENTRIES) {
+                // Оставляем каждую вторую точку
+                for (int i = 0; i < entries / 2; i++) starts[i] = starts[i * 2];
+                entries /= 2;
+                stride *= 2;
+                // Новая строка попадает в сетку, только если кратна новому шагу
+                if (newlines % stride != 0) return;
+            } else {
+                starts = Arrays.copyOf(starts, entries * 2);
+            }
+        }
+        starts[entries++] = offset;
+    }
+}
\ No newline at end of file
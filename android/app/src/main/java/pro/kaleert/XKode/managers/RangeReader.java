@@ -0,0 +1,45 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Окна больших локальных файлов: позиционное чтение в переиспользуемый heap-буфер.
+ * Не mmap: если файл обрежут снаружи посреди чтения (ротация лога, перезапись из
+ * терминала), доступ за концом отображения - SIGBUS и падение процесса, а pread
+ * просто вернет меньше байт. Так же читает исходный файл DocumentStore.
+ */
+class RangeReader {
+
+    static final int MAX_WINDOW = 4 * 1024 * 1024;
+
+    // Буфер на поток пула: листание большого файла не плодит по мегабайтам мусора на страницу
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    private RangeReader() {}
+
+    /** Буфер потока не короче length; содержимое живет до следующего вызова в этом потоке. */
+    static byte[] buffer(int length) {
+        byte[] buf = buffers.get();
+        if (buf == null || buf.length < length) {
+            buf = new byte[length];
+            buffers.set(buf);
+        }
+        return buf;
+    }
+
+    /** До length байт с offset в dst; меньше, если файл успел укоротиться. */
+    static int read(File f, long offset, byte[] dst, int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(dst, 0, length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) break;
+            }
+            return buf.position();
+        }
+    }
+}
\ No newline at end of file
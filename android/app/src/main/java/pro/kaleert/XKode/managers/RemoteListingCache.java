@@ -0,0 +1,114 @@
+package pro.kaleert.XKode.managers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Кэш листингов удаленных папок (SFTP/FTP) на соединение.
+ * Свежие (моложе TTL) отдаются сразу; устаревшие по SFTP сверяются по mtime папки.
+ * Память ограничена общим числом записей, вытесняем давно не открывавшиеся папки.
+ */
+class RemoteListingCache {
+
+    private static final long TTL_MS = 30 * 1000;
+    private static final int MAX_ENTRIES = 50000;
+
+    private static RemoteListingCache instance;
+
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(64, 0.75f, true);
+    private int totalEntries;
+
+    private RemoteListingCache() {}
+
+    static synchronized RemoteListingCache getInstance() {
+        if (instance == null) {
+            instance = new RemoteListingCache();
+        }
+        return instance;
+    }
+
+    // --- MODEL ---
+
+    static class Entry {
+        String name;
+        String path;
+        boolean isDir;
+        boolean isSymlink;
+        String linkTarget;
+        long size;
+        long mtime;       // мс
+        int mode;         // биты прав, как в stat
+        String permissions;
+    }
+
+    static class Listing {
+        final List<Entry> entries;
+        final long dirMtime;   // -1, если сервер его не отдает (FTP)
+        volatile long fetchedAt = System.currentTimeMillis();
+
+        Listing(List<Entry> entries, long dirMtime) {
+            this.entries = entries;
+            this.dirMtime = dirMtime;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - fetchedAt < TTL_MS;
+        }
+    }
+
+    // --- API ---
+
+    synchronized Listing get(String conn, String path) {
+        return listings.get(key(conn, path));
+    }
+
+    synchronized void put(String conn, String path, List<Entry> entries, long dirMtime) {
+        Listing old = listings.put(key(conn, path), new Listing(entries, dirMtime));
+        if (old != null) totalEntries -= old.entries.size();
+        totalEntries += entries.size();
+
+        Iterator<Map.Entry<String, Listing>> it = listings.entrySet().iterator();
+        while (totalEntries > MAX_ENTRIES && it.hasNext()) {
+            Listing eldest = it.next().getValue();
+            // Только что положенную папку не выкидываем, даже если она одна больше лимита
+            if (eldest.entries == entries) break;
+            totalEntries -= eldest.entries.size();
+            it.remove();
+        }
+    }
+
+    /** mtime папки не изменился - продлеваем жизнь листинга. */
+    void revalidated(Listing listing) {
+        listing.fetchedAt = System.currentTimeMillis();
+    }
+
+    /** Наша запись/переименование: сбрасываем сам путь и его родителя. */
+    synchronized void invalidate(String conn, String path) {
+        drop(key(conn, path));
+        drop(key(conn, parentOf(normalize(path))));
+    }
+
+    private void drop(String key) {
+        Listing old = listings.remove(key);
+        if (old != null) totalEntries -= old.entries.size();
+    }
+
+    private static String key(String conn, String path) {
+        return conn + "|" + normalize(path);
+    }
+
+    private static String normalize(String path) {
+        if (path == null || path.isEmpty()) return ".";
+        while (path.length() > 1 && path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash < 0) return ".";
+        if (slash == 0) return "/";
+        return path.substring(0, slash);
+    }
+}
\ No newline at end of file
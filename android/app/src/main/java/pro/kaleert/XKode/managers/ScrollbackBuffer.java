@@ -0,0 +1,251 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * История вывода сессии: кольцевой буфер байт UTF-8 с фиксированным лимитом памяти.
+ * Вытесняемые байты можно сбрасывать в файл-сегмент на диске (тоже ограниченный),
+ * тогда getScrollback может читать и старую историю.
+ *
+ * Под монитором вытесняемые байты только копируются в pending; на диск их пишет
+ * drainSpill вне монитора, под spillLock (порядок: spillLock, затем монитор).
+ * Reader-поток терминала не ждет диск: если запись уже идет, он ее пропускает.
+ */
+class ScrollbackBuffer {
+
+    private static final long SPILL_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final byte[] ring;
+    private int head;   // индекс самого старого байта
+    private int size;
+
+    private final File spillFile;
+    private long spillSize;     // вся вытесненная история: на диске + pending
+    private byte[] pending = new byte[0];
+    private int pendingLen;
+    private boolean closed;
+
+    // Дальше - только под spillLock
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private FileOutputStream spillOut;
+    private long diskSize;
+
+    // Переиспользуемый кодировщик, чтобы запись не создавала мусор
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer scratch = ByteBuffer.allocate(8192);
+
+    ScrollbackBuffer(int capacity, File spillFile) {
+        this.ring = new byte[Math.max(capacity, 4096)];
+        this.spillFile = spillFile;
+    }
+
+    // --- WRITE ---
+
+    void append(CharSequence text) {
+        boolean spilled;
+        synchronized (this) {
+            CharBuffer in = CharBuffer.wrap(text);
+            while (true) {
+                scratch.clear();
+                CoderResult result = encoder.encode(in, scratch, true);
+                scratch.flip();
+                write(scratch.array(), 0, scratch.limit());
+                if (!result.isOverflow()) break;
+            }
+            encoder.reset();
+            spilled = pendingLen > 0;
+        }
+        // Диск занят чтением истории или другой записью - допишем со следующим append
+        if (spilled && spillLock.tryLock()) {
+            try {
+                drainSpill();
+            } finally {
+                spillLock.unlock();
+            }
+        }
+    }
+
+    private void write(byte[] src, int off, int len) {
+        int overflow = size + len - ring.length;
+        if (overflow > 0) {
+            // Сначала уходят самые старые байты кольца, затем (если запись больше кольца) начало src
+            int fromRing = Math.min(overflow, size);
+            evictFromRing(fromRing);
+            int fromSrc = overflow - fromRing;
+            if (fromSrc > 0) {
+                spill(src, off, fromSrc);
+                off += fromSrc;
+                len -= fromSrc;
+            }
+        }
+        int tail = (head + size) % ring.length;
+        int first = Math.min(len, ring.length - tail);
+        System.arraycopy(src, off, ring, tail, first);
+        System.arraycopy(src, off + first, ring, 0, len - first);
+        size += len;
+    }
+
+    private void evictFromRing(int count) {
+        if (count <= 0) return;
+        int first = Math.min(count, ring.length - head);
+        spill(ring, head, first);
+        spill(ring, 0, count - first);
+        head = (head + count) % ring.length;
+        size -= count;
+    }
+
+    // Под монитором: только копия в pending, без диска
+    private void spill(byte[] src, int off, int len) {
+        if (spillFile == null || closed || len <= 0) return;
+        if (pendingLen + len > SPILL_MAX_BYTES) {
+            // Диск сильно отстал: отбрасываем недописанное, как при переполнении сегмента
+            spillSize -= pendingLen;
+            pendingLen = 0;
+        }
+        if (pendingLen + len > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pendingLen + len, pending.length * 2));
+        }
+        System.arraycopy(src, off, pending, pendingLen, len);
+        pendingLen += len;
+        spillSize += len;
+    }
+
+    // Под spillLock, без монитора (он берется только на обмен буфера)
+    private void drainSpill() {
+        byte[] batch;
+        int len;
+        synchronized (this) {
+            if (pendingLen == 0) return;
+            batch = pending;
+            len = pendingLen;
+            pending = new byte[Math.min(batch.length, ring.length)];
+            pendingLen = 0;
+        }
+        long lost = 0;
+        try {
+            if (diskSize + len > SPILL_MAX_BYTES) {
+                // Сегмент переполнен: начинаем заново, старейшая история теряется
+                closeSpill();
+                spillFile.delete();
+                lost = diskSize;
+                diskSize = 0;
+            }
+            if (spillOut == null) spillOut = new FileOutputStream(spillFile, true);
+            spillOut.write(batch, 0, len);
+            diskSize += len;
+        } catch (IOException e) {
+            // Диск недоступен - просто живем только с памятью
+            closeSpill();
+            lost += len;
+        }
+        if (lost > 0) {
+            synchronized (this) {
+                spillSize -= lost;
+            }
+        }
+    }
+
+    // --- READ ---
+
+    /** Весь хранимый объем: сегмент на диске + кольцо. */
+    synchronized long length() {
+        return spillSize + size;
+    }
+
+    /** Содержимое кольца в памяти (для мгновенного восстановления View). */
+    synchronized String snapshotText() {
+        byte[] out = new byte[size];
+        copyFromRing(0, out, 0, size);
+        return decode(out, out.length);
+    }
+
+    /**
+     * Чтение окна истории; offset отсчитывается от начала хранимой истории.
+     * spillLock держит файл неизменным, а монитор нужен только на копию pending и кольца,
+     * так что чтение с диска не останавливает вывод терминала.
+     */
+    String read(long offset, int len) throws IOException {
+        spillLock.lock();
+        try {
+            byte[] out;
+            int fromDisk;
+            synchronized (this) {
+                long total = spillSize + size;
+                if (offset < 0 || offset >= total || len <= 0) return "";
+                len = (int) Math.min(len, total - offset);
+                out = new byte[len];
+                // Под spillLock spillSize = diskSize + pendingLen
+                fromDisk = offset < diskSize ? (int) Math.min(len, diskSize - offset) : 0;
+                int filled = fromDisk;
+                if (filled < len && offset + filled < spillSize) {
+                    int at = (int) (offset + filled - diskSize);
+                    int n = (int) Math.min(len - filled, pendingLen - at);
+                    System.arraycopy(pending, at, out, filled, n);
+                    filled += n;
+                }
+                if (filled < len) {
+                    int ringOffset = (int) (offset + filled - spillSize);
+                    copyFromRing(ringOffset, out, filled, len - filled);
+                }
+            }
+            if (fromDisk > 0) {
+                if (spillOut != null) spillOut.flush();
+                try (RandomAccessFile raf = new RandomAccessFile(spillFile, "r")) {
+                    raf.seek(offset);
+                    raf.readFully(out, 0, fromDisk);
+                }
+            }
+            return decode(out, len);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private void copyFromRing(int offset, byte[] dst, int dstOff, int len) {
+        int start = (head + offset) % ring.length;
+        int first = Math.min(len, ring.length - start);
+        System.arraycopy(ring, start, dst, dstOff, first);
+        System.arraycopy(ring, 0, dst, dstOff + first, len - first);
+    }
+
+    /** Начало окна могло попасть в середину символа - пропускаем байты-продолжения. */
+    private static String decode(byte[] data, int len) {
+        int start = 0;
+        while (start < len && start < 3 && (data[start] & 0xC0) == 0x80) start++;
+        return new String(data, start, len - start, StandardCharsets.UTF_8);
+    }
+
+    void close() {
+        spillLock.lock();
+        try {
+            synchronized (this) {
+                closed = true;
+                pendingLen = 0;
+            }
+            closeSpill();
+            if (spillFile != null) spillFile.delete();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private void closeSpill() {
+        if (spillOut != null) {
+            try { spillOut.close(); } catch (IOException ignored) {}
+            spillOut = null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,212 @@
+package pro.kaleert.XKode.managers;
+
+import com.jcraft.jsch.SftpATTRS;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Скачивание большого файла по SFTP сегментами в несколько каналов пула.
+ * Внутри канала JSch сам держит несколько read-запросов в полете (bulk requests),
+ * так что на длинном RTT канал не простаивает в ожидании ответа.
+ *
+ * Данные пишутся сразу в dest.part позиционно; завершенные сегменты отмечаются
+ * в dest.part.state, поэтому прерванную загрузку можно продолжить.
+ */
+class SftpDownloader {
+
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_PARALLEL = 4;
+    private static final int BULK_REQUESTS = 32;
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    // Сколько ждем, пока воркеры доделают текущее чтение после отмены
+    private static final long STOP_TIMEOUT_SEC = 10;
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String pass;
+    private final String remotePath;
+    private final File dest;
+    private final FileSystemManager.ProgressListener listener;
+
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private long total;
+    private volatile boolean stopped;
+
+    SftpDownloader(String host, int port, String user, String pass,
+                   String remotePath, File dest, FileSystemManager.ProgressListener listener) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.pass = pass;
+        this.remotePath = remotePath;
+        this.dest = dest;
+        this.listener = listener;
+    }
+
+    /** Возвращает сколько байт было взято из предыдущей попытки (resume). */
+    long run() throws Exception {
+        SftpATTRS attrs = SshSessionPool.getInstance().withSftp(host, port, user, pass, ch -> ch.stat(remotePath));
+        if (attrs.isDir()) throw new Exception("Cannot download directory as file");
+        total = attrs.getSize();
+        String version = total + " " + attrs.getMTime();
+
+        File part = new File(dest.getPath() + ".part");
+        File state = new File(dest.getPath() + ".part.state");
+        if (dest.getParentFile() != null) dest.getParentFile().mkdirs();
+
+        // Продолжаем только если удаленный файл тот же (размер + mtime)
+        Set<Integer> completed = loadState(state, version);
+        if (completed == null) {
+            part.delete();
+            completed = new HashSet<>();
+            try (FileOutputStream fos = new FileOutputStream(state)) {
+                fos.write((version + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int segments = (int) ((total + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        List<Integer> todo = new ArrayList<>();
+        long resumed = 0;
+        for (int i = 0; i < segments; i++) {
+            if (completed.contains(i)) {
+                resumed += segmentLength(i);
+            } else {
+                todo.add(i);
+            }
+        }
+        done.set(resumed);
+        report(true);
+
+        try (RandomAccessFile raf = new RandomAccessFile(part, "rw");
+             FileOutputStream stateOut = new FileOutputStream(state, true)) {
+            raf.setLength(total);
+            FileChannel out = raf.getChannel();
+            AtomicInteger next = new AtomicInteger();
+            int workers = Math.min(MAX_PARALLEL, todo.size());
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(workers, 1), r -> {
+                Thread t = new Thread(r, "xkode-sftp-download");
+                t.setDaemon(true);
+                return t;
+            });
+            List<Future<?>> futures = new ArrayList<>();
+            try {
+                for (int w = 0; w < workers; w++) {
+                    futures.add(pool.submit(TaskScheduler.inheritCancel(() -> {
+                        int idx;
+                        while (!stopped && (idx = next.getAndIncrement()) < todo.size()) {
+                            int segment = todo.get(idx);
+                            fetchSegment(segment, out);
+                            synchronized (stateOut) {
+                                stateOut.write((segment + "\n").getBytes(StandardCharsets.UTF_8));
+                                stateOut.flush();
+                            }
+                        }
+                        return null;
+                    })));
+                }
+                for (Future<?> f : futures) TaskScheduler.await(f);
+            } catch (java.util.concurrent.ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } finally {
+                // Отмена или сбой: воркеры сами выходят на следующем чтении. Не прерываем их -
+                // interrupt закрыл бы общий FileChannel и оставил бы SFTP-каналы рассинхронизированными.
+                // .part остается для resume
+                stopped = true;
+                pool.shutdown();
+                pool.awaitTermination(STOP_TIMEOUT_SEC, TimeUnit.SECONDS);
+            }
+            out.force(false);
+        }
+
+        report(true);
+        dest.delete();
+        if (!part.renameTo(dest)) {
+            throw new Exception("Failed to move downloaded file to " + dest.getAbsolutePath());
+        }
+        state.delete();
+        return resumed;
+    }
+
+    private long segmentLength(int segment) {
+        long start = (long) segment * SEGMENT_SIZE;
+        return Math.min(SEGMENT_SIZE, total - start);
+    }
+
+    private void fetchSegment(int segment, FileChannel out) throws Exception {
+        long start = (long) segment * SEGMENT_SIZE;
+        long length = segmentLength(segment);
+        // При повторе (мертвый канал из пула) сегмент пишется заново с начала - позиции те же
+        long written = SshSessionPool.getInstance().withSftp(host, port, user, pass, ch -> {
+            ch.setBulkRequests(BULK_REQUESTS);
+            byte[] buf = new byte[READ_BUFFER];
+            long pos = start;
+            long end = start + length;
+            try (InputStream in = ch.get(remotePath, null, start)) {
+                while (pos < end) {
+                    TaskScheduler.checkCancelled();
+                    if (stopped) throw new InterruptedException("Download stopped");
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, end - pos));
+                    if (n == -1) break;
+                    ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                    while (bb.hasRemaining()) {
+                        pos += out.write(bb, pos);
+                    }
+                    done.addAndGet(n);
+                    report(false);
+                }
+            }
+            return pos - start;
+        });
+        if (written < length) {
+            throw new Exception("Remote file was truncated during download");
+        }
+    }
+
+    private void report(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (force || (now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now))) {
+            listener.onProgress(done.get(), total);
+        }
+    }
+
+    private static Set<Integer> loadState(File state, String version) {
+        if (!state.exists()) return null;
+        try (BufferedReader r = new BufferedReader(new FileReader(state))) {
+            if (!version.equals(r.readLine())) return null;
+            Set<Integer> completed = new HashSet<>();
+            String line;
+            while ((line = r.readLine()) != null) {
+                // Последняя строка могла не дописаться при падении
+                try { completed.add(Integer.parseInt(line.trim())); } catch (NumberFormatException ignored) {}
+            }
+            return completed;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,275 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая предзагрузка SFTP: после листинга папки заранее читаем ее подпапки
+ * (в RemoteListingCache) и, по желанию, начало небольших файлов. Раскрытие папки
+ * на медленном канале тогда обходится без round trip.
+ *
+ * Работает на своих низкоприоритетных потоках и не больше двух каналов на сервер.
+ * Новый листинг того же соединения отменяет все, что еще не началось для прошлого.
+ */
+class SftpPrefetcher {
+
+    private static final int WORKERS = 2;
+    private static final long HEAD_TTL_MS = 30 * 1000;
+    private static final long MAX_HEAD_CACHE_BYTES = 4 * 1024 * 1024;
+    // Сколько listSftp ждет уже идущую предзагрузку той же папки, прежде чем читать сам
+    private static final long AWAIT_IN_FLIGHT_MS = 5000;
+
+    private static SftpPrefetcher instance;
+
+    private volatile Config config = new Config();
+    private final ThreadPoolExecutor executor;
+    // Поколение навигации на соединение: задания прошлого поколения не выполняются
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Head> heads = new LinkedHashMap<>(64, 0.75f, true);
+    private long headBytes;
+    // Счетчик invalidate: начало файла, чтение которого пересеклось с записью, не кладем
+    private long invalidations;
+
+    private SftpPrefetcher() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "xkode-prefetch-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static synchronized SftpPrefetcher getInstance() {
+        if (instance == null) {
+            instance = new SftpPrefetcher();
+        }
+        return instance;
+    }
+
+    // --- CONFIG ---
+
+    static class Config {
+        boolean enabled = true;
+        int maxDirs = 8;        // сколько подпапок читать после одного листинга
+        int headBytes;          // 0 - начала файлов не читаем
+        int maxFiles = 8;
+        long maxFileSize = 256 * 1024;  // файлы крупнее не трогаем
+
+        static Config from(ReadableMap map) {
+            Config c = new Config();
+            if (map == null) return c;
+            if (map.hasKey("enabled") && !map.isNull("enabled")) c.enabled = map.getBoolean("enabled");
+            if (map.hasKey("maxDirs") && !map.isNull("maxDirs")) c.maxDirs = Math.max(0, map.getInt("maxDirs"));
+            if (map.hasKey("headBytes") && !map.isNull("headBytes")) c.headBytes = Math.max(0, Math.min(map.getInt("headBytes"), 256 * 1024));
+            if (map.hasKey("maxFiles") && !map.isNull("maxFiles")) c.maxFiles = Math.max(0, map.getInt("maxFiles"));
+            if (map.hasKey("maxFileSize") && !map.isNull("maxFileSize")) c.maxFileSize = Math.max(0, (long) map.getDouble("maxFileSize"));
+            return c;
+        }
+    }
+
+    void configure(ReadableMap options) {
+        config = Config.from(options);
+        if (!config.enabled) cancelAll();
+    }
+
+    // --- SCHEDULE ---
+
+    /** Листинг path только что получен пользователем: планируем соседей на будущее. */
+    void afterListing(String host, int port, String user, String pass, String path, List<RemoteListingCache.Entry> entries) {
+        Config c = config;
+        if (!c.enabled) return;
+        String conn = FileSystemManager.sftpConn(host, port, user);
+        long gen = generations.computeIfAbsent(conn, k -> new AtomicLong()).incrementAndGet();
+        // Пользователь ушел в другую папку - очередь прошлой больше не нужна
+        executor.getQueue().removeIf(r -> ((Job) r).conn.equals(conn));
+
+        RemoteListingCache cache = RemoteListingCache.getInstance();
+        int dirs = 0, files = 0;
+        for (RemoteListingCache.Entry e : entries) {
+            if (e.isDir) {
+                if (dirs >= c.maxDirs || isIgnored(e.name)) continue;
+                RemoteListingCache.Listing cached = cache.get(conn, e.path);
+                if (cached != null && cached.isFresh()) continue;
+                dirs++;
+                executor.execute(new Job(conn, gen, host, port, user, pass, e.path, -1, 0));
+            }
+        }
+        if (c.headBytes <= 0) return;
+        for (RemoteListingCache.Entry e : entries) {
+            if (files >= c.maxFiles) break;
+            if (e.isDir || e.size > c.maxFileSize || peekHead(conn, e.path, e.size, e.mtime)) continue;
+            files++;
+            executor.execute(new Job(conn, gen, host, port, user, pass, e.path, e.size, e.mtime));
+        }
+    }
+
+    private static boolean isIgnored(String name) {
+        for (String ignored : ContentSearch.DEFAULT_IGNORES) {
+            if (ignored.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /** Сбрасывает все запланированное (смена сервера, выключение). */
+    void cancelAll() {
+        for (AtomicLong gen : generations.values()) gen.incrementAndGet();
+        executor.getQueue().clear();
+    }
+
+    /**
+     * Если эту папку прямо сейчас читает предзагрузка - ждем ее, а не шлем второй ls.
+     * Возвращает true, если ждали (кэш листингов стоит проверить еще раз).
+     */
+    boolean awaitInFlight(String conn, String path) throws InterruptedException {
+        CountDownLatch latch = inFlight.get(key(conn, path));
+        if (latch == null) return false;
+        latch.await(AWAIT_IN_FLIGHT_MS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private class Job implements Runnable {
+        final String conn;
+        final long gen;
+        final String host;
+        final int port;
+        final String user;
+        final String pass;
+        final String path;
+        final long size;    // -1 - папка
+        final long mtime;
+
+        Job(String conn, long gen, String host, int port, String user, String pass, String path, long size, long mtime) {
+            this.conn = conn;
+            this.gen = gen;
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.pass = pass;
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        @Override
+        public void run() {
+            AtomicLong current = generations.get(conn);
+            if (current == null || current.get() != gen) return;
+            String key = key(conn, path);
+            CountDownLatch latch = new CountDownLatch(1);
+            if (inFlight.putIfAbsent(key, latch) != null) return;
+            try {
+                SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                    if (size < 0) {
+                        FileSystemManager.fetchSftpListing(channel, conn, path);
+                    } else {
+                        readHead(channel, key);
+                    }
+                    return null;
+                });
+            } catch (Exception ignored) {
+                // Предзагрузка - только подсказка: ошибку увидит обычный запрос, если до него дойдет
+            } finally {
+                inFlight.remove(key, latch);
+                latch.countDown();
+            }
+        }
+
+        private void readHead(com.jcraft.jsch.ChannelSftp channel, String key) throws Exception {
+            int want = (int) Math.min(size, config.headBytes);
+            long epoch = invalidationCount();
+            byte[] data = new byte[want];
+            int filled = 0;
+            try (InputStream in = channel.get(path)) {
+                int n;
+                while (filled < want && (n = in.read(data, filled, want - filled)) != -1) filled += n;
+            }
+            if (filled < want) return;
+            putHead(key, new Head(data, size, mtime), epoch);
+        }
+    }
+
+    // --- FILE HEADS ---
+
+    static class Head {
+        final byte[] data;
+        final long size;
+        final long mtime;
+        final long fetchedAt = System.currentTimeMillis();
+
+        Head(byte[] data, long size, long mtime) {
+            this.data = data;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        boolean isComplete() {
+            return data.length == size;
+        }
+
+        /** Файл на сервере все тот же: размер и mtime как при предзагрузке. */
+        boolean matches(com.jcraft.jsch.SftpATTRS attrs) {
+            return attrs.getSize() == size && attrs.getMTime() * 1000L == mtime;
+        }
+    }
+
+    private synchronized long invalidationCount() {
+        return invalidations;
+    }
+
+    private synchronized void putHead(String key, Head head, long epoch) {
+        if (epoch != invalidations) return;
+        Head old = heads.put(key, head);
+        if (old != null) headBytes -= old.data.length;
+        headBytes += head.data.length;
+        Iterator<Map.Entry<String, Head>> it = heads.entrySet().iterator();
+        while (headBytes > MAX_HEAD_CACHE_BYTES && it.hasNext()) {
+            Head eldest = it.next().getValue();
+            if (eldest == head) break;
+            headBytes -= eldest.data.length;
+            it.remove();
+        }
+    }
+
+    private synchronized boolean peekHead(String conn, String path, long size, long mtime) {
+        Head h = heads.get(key(conn, path));
+        return h != null && h.size == size && h.mtime == mtime;
+    }
+
+    /**
+     * Свежее (моложе TTL) начало файла или null. Забирает запись: дальше файл читают сами.
+     * Перед использованием сверьте Head.matches со stat - файл могли поменять мимо нас.
+     */
+    synchronized Head takeHead(String conn, String path) {
+        Head h = heads.remove(key(conn, path));
+        if (h == null) return null;
+        headBytes -= h.data.length;
+        return System.currentTimeMillis() - h.fetchedAt < HEAD_TTL_MS ? h : null;
+    }
+
+    /** Наша запись в файл: предзагруженное начало больше не верно. */
+    synchronized void invalidate(String conn, String path) {
+        invalidations++;
+        Head old = heads.remove(key(conn, path));
+        if (old != null) headBytes -= old.data.length;
+    }
+
+    private static String key(String conn, String path) {
+        return conn + "|" + path;
+    }
+}
\ No newline at end of file
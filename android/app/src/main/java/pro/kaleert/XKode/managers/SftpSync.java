@@ -0,0 +1,1323 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Синхронизация локальной папки с папкой на SFTP в стиле rsync.
+ *
+ * Деревья сравниваются по размеру и mtime относительно состояния прошлой синхронизации
+ * (baseline), поэтому в режиме "both" видно, какая сторона менялась, и правки с обеих
+ * сторон отдаются как конфликт. Измененный файл по возможности передается дельтой:
+ * сигнатуры блоков (Adler-32 + MD5) считает хелпер на сервере через exec, скользящая
+ * сумма катится локально, по сети идут только отличающиеся блоки.
+ *
+ * Хелперы: python3 - обход дерева одной командой, дельта в обе стороны; только md5sum -
+ * дельта при скачивании по выровненным блокам; ничего - файлы целиком.
+ */
+class SftpSync {
+
+    private static final int STATE_MAGIC = 0x584B5359; // "XKSY"
+    private static final int MIN_DELTA_SIZE = 64 * 1024;
+    private static final int MIN_BLOCK = 2 * 1024;
+    private static final int MAX_BLOCK = 1024 * 1024;
+    private static final int COPY_BUFFER = 256 * 1024;
+    // Крупные файлы целиком качаем сегментами в несколько каналов
+    private static final long PARALLEL_DOWNLOAD_SIZE = 8 * 1024 * 1024;
+    private static final int ADLER_MOD = 65521;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    private static final int EXEC_TIMEOUT_MS = 10000;
+    private static final String[] DEFAULT_EXCLUDES = { ".git", "node_modules" };
+    private static final int ERRNO_ENOENT = 2;
+    private static final int MAX_WALK_ERRORS = 20;
+
+    private static final String HELPER_PYTHON = "python3";
+    private static final String HELPER_MD5 = "md5sum";
+    private static final String HELPER_NONE = "none";
+
+    private static final String PROBE =
+        "if command -v python3 >/dev/null 2>&1; then echo python3; "
+        + "elif command -v md5sum >/dev/null 2>&1 && command -v dd >/dev/null 2>&1; then echo md5sum; "
+        + "else echo none; fi";
+
+    // Хелпер на сервере: walk ROOT [GLOB...] | sig FILE BLOCK | md5 FILE | patch TARGET DELTA TMP MTIME MD5
+    // walk сообщает о сбоях записью "E\tERRNO\tREL": нечитаемая папка не должна выглядеть пустой
+    private static final String PY_HELPER = String.join("\n",
+        "import sys, os, stat, zlib, hashlib, struct, fnmatch",
+        "op = sys.argv[1]",
+        "out = sys.stdout.buffer",
+        "def enc(s):",
+        "    return s.encode(\"utf-8\", \"surrogateescape\")",
+        "if op == \"walk\":",
+        "    root = sys.argv[2]",
+        "    ex = sys.argv[3:]",
+        "    def err(e):",
+        "        rel = os.path.relpath(e.filename, root) if e.filename else \".\"",
+        "        out.write(enc(\"E\\t%d\\t%s\\0\" % (e.errno or 0, \"\" if rel == \".\" else rel)))",
+        "    if os.path.exists(root) and not os.path.isdir(root):",
+        "        err(OSError(20, \"Not a directory\", root))",
+        "    for d, dirs, files in os.walk(root, onerror=err):",
+        "        dirs[:] = [n for n in dirs if not any(fnmatch.fnmatchcase(n, g) for g in ex) and not os.path.islink(os.path.join(d, n))]",
+        "        rel = os.path.relpath(d, root)",
+        "        rel = \"\" if rel == \".\" else rel + \"/\"",
+        "        for n in files:",
+        "            try:",
+        "                st = os.lstat(os.path.join(d, n))",
+        "            except OSError as e:",
+        "                err(e)",
+        "                continue",
+        "            if stat.S_ISREG(st.st_mode):",
+        "                out.write(enc(\"%d\\t%d\\t%s%s\\0\" % (st.st_size, int(st.st_mtime), rel, n)))",
+        "elif op == \"sig\":",
+        "    b = int(sys.argv[3])",
+        "    with open(sys.argv[2], \"rb\") as f:",
+        "        while True:",
+        "            c = f.read(b)",
+        "            if not c:",
+        "                break",
+        "            out.write(enc(\"%08x %s\\n\" % (zlib.adler32(c) & 0xffffffff, hashlib.md5(c).hexdigest())))",
+        "elif op == \"md5\":",
+        "    h = hashlib.md5()",
+        "    with open(sys.argv[2], \"rb\") as f:",
+        "        for c in iter(lambda: f.read(1048576), b\"\"):",
+        "            h.update(c)",
+        "    out.write(enc(h.hexdigest() + \"\\n\"))",
+        "elif op == \"patch\":",
+        "    t, dl, tmp, mt, want = sys.argv[2:7]",
+        "    h = hashlib.md5()",
+        "    with open(t, \"rb\") as bf, open(dl, \"rb\") as df, open(tmp, \"wb\") as of:",
+        "        while True:",
+        "            k = df.read(1)",
+        "            if not k:",
+        "                break",
+        "            if k == b\"C\":",
+        "                o, n = struct.unpack(\">QQ\", df.read(16))",
+        "                bf.seek(o)",
+        "                src = bf",
+        "            else:",
+        "                n, = struct.unpack(\">Q\", df.read(8))",
+        "                src = df",
+        "            while n > 0:",
+        "                c = src.read(min(n, 1048576))",
+        "                if not c:",
+        "                    sys.exit(4)",
+        "                of.write(c)",
+        "                h.update(c)",
+        "                n -= len(c)",
+        "        of.flush()",
+        "        os.fsync(of.fileno())",
+        "    os.remove(dl)",
+        "    if h.hexdigest() != want:",
+        "        os.remove(tmp)",
+        "        sys.exit(3)",
+        "    os.chmod(tmp, os.stat(t).st_mode & 0o7777)",
+        "    os.utime(tmp, (int(mt), int(mt)))",
+        "    os.rename(tmp, t)",
+        "");
+
+    enum Mode { PUSH, PULL, BOTH }
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String pass;
+    private final String conn;
+    private final File localRoot;
+    private final String remoteRoot;
+    private final File stateDir;
+    private final FileSystemManager.ProgressListener listener;
+
+    private final Mode mode;
+    private final boolean dryRun;
+    private final boolean delete;
+    private final boolean useDelta;
+    private final String prefer;   // "local" | "remote" | "newer" | null - конфликты только в отчет
+    private final int maxDelete;   // -1 - без ограничения
+    private final List<Pattern> excludes = new ArrayList<>();
+    private final List<String> excludeNames = new ArrayList<>();
+
+    private String helper = HELPER_NONE;
+    private final Set<String> remoteDirs = new HashSet<>();
+    private long totalBytes;
+    private long doneBytes;
+    private long lastReport;
+    private long bytesSent;
+    private long bytesReceived;
+    private long bytesMatched;
+    // Корень стороны не существует / часть дерева не прочиталась: удалять по такому обходу нельзя
+    private boolean localMissing;
+    private boolean remoteMissing;
+    private final List<String> walkErrors = new ArrayList<>();
+
+    SftpSync(String host, int port, String user, String pass, String localRoot, String remoteRoot,
+             File stateDir, ReadableMap options, FileSystemManager.ProgressListener listener) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.pass = pass;
+        this.conn = FileSystemManager.sftpConn(host, port, user);
+        this.localRoot = new File(localRoot).getAbsoluteFile();
+        String root = remoteRoot == null || remoteRoot.isEmpty() ? "." : remoteRoot;
+        while (root.length() > 1 && root.endsWith("/")) root = root.substring(0, root.length() - 1);
+        this.remoteRoot = root;
+        this.stateDir = stateDir;
+        this.listener = listener;
+
+        String m = optString(options, "mode");
+        this.mode = "push".equals(m) ? Mode.PUSH : "pull".equals(m) ? Mode.PULL : Mode.BOTH;
+        this.dryRun = optBoolean(options, "dryRun", false);
+        this.delete = optBoolean(options, "delete", false);
+        this.useDelta = optBoolean(options, "delta", true);
+        this.prefer = optString(options, "prefer");
+        this.maxDelete = options != null && options.hasKey("maxDelete") && !options.isNull("maxDelete")
+            ? options.getInt("maxDelete") : -1;
+
+        ReadableArray globs = options != null && options.hasKey("exclude") && !options.isNull("exclude")
+            ? options.getArray("exclude") : null;
+        List<String> patterns = new ArrayList<>();
+        if (globs != null) {
+            for (int i = 0; i < globs.size(); i++) patterns.add(globs.getString(i));
+        } else {
+            for (String g : DEFAULT_EXCLUDES) patterns.add(g);
+        }
+        for (String g : patterns) {
+            excludes.add(ContentSearch.globToRegex(g));
+            // По имени папки хелпер отсекает поддерево еще на сервере
+            if (g.indexOf('/') < 0) excludeNames.add(g);
+        }
+    }
+
+    private static String optString(ReadableMap map, String key) {
+        return map != null && map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+
+    private static boolean optBoolean(ReadableMap map, String key, boolean def) {
+        return map != null && map.hasKey(key) && !map.isNull(key) ? map.getBoolean(key) : def;
+    }
+
+    // --- MODEL ---
+
+    private static class Meta {
+        final long size;
+        final long mtime;   // секунды: точность SFTP
+
+        Meta(long size, long mtime) {
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        boolean matches(long size, long mtime) {
+            return this.size == size && this.mtime == mtime;
+        }
+    }
+
+    /** Как выглядели обе стороны сразу после прошлой синхронизации файла. */
+    private static class Base {
+        final long localSize;
+        final long localMtime;
+        final long remoteSize;
+        final long remoteMtime;
+
+        Base(long localSize, long localMtime, long remoteSize, long remoteMtime) {
+            this.localSize = localSize;
+            this.localMtime = localMtime;
+            this.remoteSize = remoteSize;
+            this.remoteMtime = remoteMtime;
+        }
+    }
+
+    private enum Action { UPLOAD, DOWNLOAD, DELETE_REMOTE, DELETE_LOCAL }
+
+    private static class Step {
+        final String rel;
+        final Action action;
+        final Meta local;
+        final Meta remote;
+
+        Step(String rel, Action action, Meta local, Meta remote) {
+            this.rel = rel;
+            this.action = action;
+            this.local = local;
+            this.remote = remote;
+        }
+
+        long bytes() {
+            if (action == Action.UPLOAD) return local.size;
+            if (action == Action.DOWNLOAD) return remote.size;
+            return 0;
+        }
+    }
+
+    /** Сигнатура удаленного файла: слабая сумма (null без python) и MD5 каждого блока. */
+    private static class Signature {
+        final int blockSize;
+        final long fileSize;
+        final int[] weak;
+        final String[] strong;
+
+        Signature(int blockSize, long fileSize, int[] weak, String[] strong) {
+            this.blockSize = blockSize;
+            this.fileSize = fileSize;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        int blocks() {
+            return strong.length;
+        }
+
+        int length(int block) {
+            return (int) Math.min(blockSize, fileSize - (long) block * blockSize);
+        }
+    }
+
+    // --- RUN ---
+
+    WritableMap run() throws Exception {
+        long started = System.currentTimeMillis();
+        File stateFile = new File(stateDir, TrigramIndex.shortHash(conn + "|" + localRoot.getPath() + "|" + remoteRoot) + ".state");
+        Map<String, Base> baseline = loadState(stateFile);
+        if (localRoot.exists() && !localRoot.isDirectory()) throw new Exception("Not a directory: " + localRoot.getPath());
+        helper = probeHelper();
+
+        Map<String, Meta> local = walkLocal();
+        Map<String, Meta> remote = HELPER_PYTHON.equals(helper) ? walkRemotePython() : walkRemoteSftp();
+        // Пропавший корень (не смонтирована карта, опечатка в пути) - не пустое дерево:
+        // иначе baseline или delete превратят его в удаление всего на другой стороне
+        if (localMissing) {
+            if (mode == Mode.PUSH || !baseline.isEmpty() || (delete && mode == Mode.BOTH)) {
+                throw new Exception("Local folder not found: " + localRoot.getPath());
+            }
+            if (!dryRun && !localRoot.mkdirs() && !localRoot.isDirectory()) {
+                throw new Exception("Failed to create " + localRoot.getPath());
+            }
+        }
+        if (remoteMissing && (mode == Mode.PULL || !baseline.isEmpty() || (delete && mode == Mode.BOTH))) {
+            throw new Exception("Remote folder not found: " + remoteRoot);
+        }
+        Map<String, Base> next = new TreeMap<>();
+
+        WritableArray conflicts = Arguments.createArray();
+        List<Step> plan = new ArrayList<>();
+        TreeSet<String> paths = new TreeSet<>(local.keySet());
+        paths.addAll(remote.keySet());
+        for (String rel : paths) {
+            Meta l = local.get(rel);
+            Meta r = remote.get(rel);
+            Base b = baseline.get(rel);
+            if (l != null && r != null && l.size == r.size && l.mtime == r.mtime) {
+                next.put(rel, new Base(l.size, l.mtime, r.size, r.mtime));
+                continue;
+            }
+            boolean localChanged = b == null ? l != null : l == null || !l.matches(b.localSize, b.localMtime);
+            boolean remoteChanged = b == null ? r != null : r == null || !r.matches(b.remoteSize, b.remoteMtime);
+            if (b != null && !localChanged && !remoteChanged) {
+                // mtime не выставился (внешняя карта памяти), но с прошлого раза ничего не менялось
+                next.put(rel, b);
+                continue;
+            }
+
+            Boolean push = null;
+            boolean conflict = false;
+            if (mode == Mode.PUSH) {
+                if (b != null && localChanged && remoteChanged) conflict = true;
+                else if (b == null || localChanged) push = true;
+            } else if (mode == Mode.PULL) {
+                if (b != null && localChanged && remoteChanged) conflict = true;
+                else if (b == null || remoteChanged) push = false;
+            } else if (localChanged && remoteChanged) {
+                conflict = true;
+            } else {
+                push = localChanged;
+            }
+            if (conflict) {
+                push = resolve(l, r);
+                if (push == null) {
+                    conflicts.pushMap(conflictInfo(rel, l, r, b));
+                    if (b != null) next.put(rel, b);
+                    continue;
+                }
+            }
+            if (push == null) {
+                if (b != null) next.put(rel, b);
+                continue;
+            }
+
+            // Удаление без baseline - только по явному delete, как у rsync
+            boolean propagateDelete = delete || (mode == Mode.BOTH && b != null);
+            if (push) {
+                if (l != null) plan.add(new Step(rel, Action.UPLOAD, l, r));
+                else if (propagateDelete) plan.add(new Step(rel, Action.DELETE_REMOTE, null, r));
+                else if (b != null) next.put(rel, b);
+            } else {
+                if (r != null) plan.add(new Step(rel, Action.DOWNLOAD, l, r));
+                else if (propagateDelete) plan.add(new Step(rel, Action.DELETE_LOCAL, l, null));
+                else if (b != null) next.put(rel, b);
+            }
+        }
+
+        String deleteSkipped = deletionGuard(plan, local, remote, baseline);
+        int skippedDeletes = 0;
+        if (deleteSkipped != null) {
+            for (Iterator<Step> it = plan.iterator(); it.hasNext(); ) {
+                Step s = it.next();
+                if (s.action != Action.DELETE_LOCAL && s.action != Action.DELETE_REMOTE) continue;
+                it.remove();
+                skippedDeletes++;
+                Base b = baseline.get(s.rel);
+                if (b != null) next.put(s.rel, b);
+            }
+        }
+
+        for (Step s : plan) totalBytes += s.bytes();
+        report(true);
+
+        WritableArray actions = Arguments.createArray();
+        Set<String> attempted = new HashSet<>();
+        int uploaded = 0, downloaded = 0, deletedLocal = 0, deletedRemote = 0, failed = 0;
+        for (Step s : plan) {
+            WritableMap a = Arguments.createMap();
+            a.putString("path", s.rel);
+            a.putString("action", actionName(s.action));
+            a.putDouble("size", s.bytes());
+            if (!dryRun) {
+                TaskScheduler.checkCancelled();
+                long sentBefore = bytesSent + bytesReceived;
+                long doneBefore = doneBytes;
+                attempted.add(s.rel);
+                try {
+                    Base done = execute(s, a);
+                    if (done != null) next.put(s.rel, done);
+                    switch (s.action) {
+                        case UPLOAD: uploaded++; break;
+                        case DOWNLOAD: downloaded++; break;
+                        case DELETE_REMOTE: deletedRemote++; break;
+                        default: deletedLocal++; break;
+                    }
+                } catch (InterruptedException e) {
+                    saveState(stateFile, next, baseline, plan, attempted);
+                    throw e;
+                } catch (Exception e) {
+                    if (TaskScheduler.isCancelled()) {
+                        saveState(stateFile, next, baseline, plan, attempted);
+                        throw new InterruptedException("Sync cancelled");
+                    }
+                    // Один сбойный файл не срывает остальные; baseline для него прежний
+                    failed++;
+                    a.putString("error", e.getMessage());
+                    Base b = baseline.get(s.rel);
+                    if (b != null) next.put(s.rel, b);
+                }
+                a.putDouble("transferred", bytesSent + bytesReceived - sentBefore);
+                doneBytes = doneBefore + s.bytes();
+                report(false);
+            }
+            actions.pushMap(a);
+        }
+        if (!dryRun) saveState(stateFile, next, baseline, plan, attempted);
+        report(true);
+
+        WritableMap result = Arguments.createMap();
+        result.putString("mode", mode.name().toLowerCase());
+        result.putBoolean("dryRun", dryRun);
+        result.putString("helper", helper);
+        result.putInt("uploaded", uploaded);
+        result.putInt("downloaded", downloaded);
+        result.putInt("deletedLocal", deletedLocal);
+        result.putInt("deletedRemote", deletedRemote);
+        result.putInt("failed", failed);
+        result.putInt("deletesSkipped", skippedDeletes);
+        if (deleteSkipped != null) result.putString("deleteSkipped", deleteSkipped);
+        WritableArray errors = Arguments.createArray();
+        for (String e : walkErrors) errors.pushString(e);
+        result.putArray("walkErrors", errors);
+        result.putDouble("bytesSent", bytesSent);
+        result.putDouble("bytesReceived", bytesReceived);
+        result.putDouble("bytesMatched", bytesMatched);
+        result.putArray("actions", actions);
+        result.putArray("conflicts", conflicts);
+        result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    /**
+     * Защита от массового удаления, как "IO error encountered -- skipping file deletion" и
+     * --max-delete у rsync. Возвращает причину, если удаления из плана надо выбросить.
+     */
+    private String deletionGuard(List<Step> plan, Map<String, Meta> local, Map<String, Meta> remote,
+                                 Map<String, Base> baseline) {
+        int toLocal = 0, toRemote = 0;
+        for (Step s : plan) {
+            if (s.action == Action.DELETE_LOCAL) toLocal++;
+            else if (s.action == Action.DELETE_REMOTE) toRemote++;
+        }
+        if (toLocal + toRemote == 0) return null;
+        if (!walkErrors.isEmpty()) return "IO error while listing files, skipping deletion";
+        if (maxDelete >= 0 && toLocal + toRemote > maxDelete) {
+            return "Too many deletions (" + (toLocal + toRemote) + " > maxDelete " + maxDelete + ")";
+        }
+        // Пустая сторона при непустой другой почти всегда означает сбой, а не желание все стереть
+        if (toRemote > 0 && local.isEmpty() && !baseline.isEmpty()) return "Local folder is empty, skipping deletion";
+        if (toLocal > 0 && remote.isEmpty() && !baseline.isEmpty()) return "Remote folder is empty, skipping deletion";
+        return null;
+    }
+
+    private void walkError(String rel, String message) {
+        if (walkErrors.size() < MAX_WALK_ERRORS) walkErrors.add((rel.isEmpty() ? "." : rel) + ": " + message);
+        else if (walkErrors.size() == MAX_WALK_ERRORS) walkErrors.add("...");
+    }
+
+    // Конфликт решается только если это явно разрешено опцией prefer
+    private Boolean resolve(Meta l, Meta r) {
+        if ("local".equals(prefer)) return true;
+        if ("remote".equals(prefer)) return false;
+        if ("newer".equals(prefer)) {
+            if (l == null || r == null) return l != null;
+            return l.mtime >= r.mtime;
+        }
+        return null;
+    }
+
+    private static WritableMap conflictInfo(String rel, Meta l, Meta r, Base b) {
+        WritableMap c = Arguments.createMap();
+        c.putString("path", rel);
+        if (l != null) {
+            c.putDouble("localSize", l.size);
+            c.putDouble("localMtime", l.mtime * 1000);
+        }
+        if (r != null) {
+            c.putDouble("remoteSize", r.size);
+            c.putDouble("remoteMtime", r.mtime * 1000);
+        }
+        c.putString("reason", b == null ? "differs" : l == null ? "deletedLocally" : r == null ? "deletedRemotely" : "bothModified");
+        return c;
+    }
+
+    private static String actionName(Action action) {
+        switch (action) {
+            case UPLOAD: return "upload";
+            case DOWNLOAD: return "download";
+            case DELETE_REMOTE: return "deleteRemote";
+            default: return "deleteLocal";
+        }
+    }
+
+    private Base execute(Step s, WritableMap info) throws Exception {
+        String remotePath = remotePath(s.rel);
+        File localFile = new File(localRoot, s.rel);
+        switch (s.action) {
+            case UPLOAD: {
+                boolean delta = useDelta && HELPER_PYTHON.equals(helper) && s.remote != null
+                    && s.local.size >= MIN_DELTA_SIZE && s.remote.size >= MIN_DELTA_SIZE;
+                info.putBoolean("delta", delta);
+                if (delta) {
+                    pushDelta(localFile, remotePath, s.remote);
+                } else {
+                    pushFull(localFile, s.rel, s.local);
+                }
+                RemoteListingCache.getInstance().invalidate(conn, remotePath);
+                SftpPrefetcher.getInstance().invalidate(conn, remotePath);
+                SftpATTRS after = SshSessionPool.getInstance().withSftp(host, port, user, pass, ch -> ch.stat(remotePath));
+                return new Base(s.local.size, s.local.mtime, after.getSize(), after.getMTime());
+            }
+            case DOWNLOAD: {
+                boolean delta = useDelta && !HELPER_NONE.equals(helper) && s.local != null
+                    && s.local.size >= MIN_DELTA_SIZE && s.remote.size >= MIN_DELTA_SIZE;
+                info.putBoolean("delta", delta);
+                File parent = localFile.getParentFile();
+                if (parent != null && !parent.isDirectory()) parent.mkdirs();
+                if (delta) {
+                    pullDelta(localFile, remotePath, s.remote);
+                } else {
+                    pullFull(localFile, remotePath, s.remote);
+                }
+                localFile.setLastModified(s.remote.mtime * 1000);
+                return new Base(localFile.length(), localFile.lastModified() / 1000, s.remote.size, s.remote.mtime);
+            }
+            case DELETE_REMOTE:
+                SshSessionPool.getInstance().withSftp(host, port, user, pass, ch -> {
+                    ch.rm(remotePath);
+                    return null;
+                });
+                RemoteListingCache.getInstance().invalidate(conn, remotePath);
+                SftpPrefetcher.getInstance().invalidate(conn, remotePath);
+                return null;
+            default:
+                if (localFile.exists() && !localFile.delete()) {
+                    throw new Exception("Failed to delete " + localFile.getPath());
+                }
+                return null;
+        }
+    }
+
+    private String remotePath(String rel) {
+        if (remoteRoot.equals(".")) return rel;
+        if (remoteRoot.equals("/")) return "/" + rel;
+        return remoteRoot + "/" + rel;
+    }
+
+    // --- TREES ---
+
+    private boolean isExcluded(String name, String rel) {
+        for (Pattern p : excludes) {
+            if (p.matcher(name).matches() || p.matcher(rel).matches()) return true;
+        }
+        return false;
+    }
+
+    // Исключение папки распространяется на все под ней
+    private boolean isExcludedPath(String rel) {
+        int from = 0;
+        while (true) {
+            int slash = rel.indexOf('/', from);
+            String prefix = slash < 0 ? rel : rel.substring(0, slash);
+            if (isExcluded(prefix.substring(prefix.lastIndexOf('/') + 1), prefix)) return true;
+            if (slash < 0) return false;
+            from = slash + 1;
+        }
+    }
+
+    private Map<String, Meta> walkLocal() throws IOException {
+        Map<String, Meta> result = new HashMap<>();
+        if (!localRoot.exists()) {
+            localMissing = true;
+            return result;
+        }
+        walkLocal(localRoot, "", result);
+        return result;
+    }
+
+    // File.listFiles, а не Files.walkFileTree: java.nio.file есть только с API 26
+    private void walkLocal(File dir, String rel, Map<String, Meta> result) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            // Корень, который нельзя прочитать, - ошибка всей синхронизации, а не пустая папка
+            if (rel.isEmpty()) throw new IOException("Cannot read " + dir.getPath());
+            walkError(rel, "Cannot read directory");
+            return;
+        }
+        for (File f : children) {
+            String name = f.getName();
+            String childRel = rel.isEmpty() ? name : rel + "/" + name;
+            // Ссылки не синхронизируем и по ним не ходим
+            if (FileSystemManager.isSymlink(f) || isExcluded(name, childRel)) continue;
+            if (f.isDirectory()) {
+                walkLocal(f, childRel, result);
+            } else if (f.isFile() && !isTemporary(name)) {
+                // Свои временные файлы и недокачанные части SftpDownloader не синхронизируем
+                result.put(childRel, new Meta(f.length(), f.lastModified() / 1000));
+            }
+        }
+    }
+
+    private Map<String, Meta> walkRemotePython() throws Exception {
+        List<String> args = new ArrayList<>();
+        args.add("walk");
+        args.add(remoteRoot);
+        args.addAll(excludeNames);
+        byte[] out = exec(python(args));
+        Map<String, Meta> result = new HashMap<>();
+        int start = 0;
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] != 0) continue;
+            String rec = new String(out, start, i - start, StandardCharsets.UTF_8);
+            start = i + 1;
+            String[] f = rec.split("\t", 3);
+            if (f.length < 3) continue;
+            if (f[0].equals("E")) {
+                int errno = Integer.parseInt(f[1]);
+                if (f[2].isEmpty() && errno == ERRNO_ENOENT) {
+                    remoteMissing = true;
+                } else if (f[2].isEmpty()) {
+                    throw new Exception("Cannot list " + remoteRoot + " (errno " + errno + ")");
+                } else {
+                    walkError(f[2], "errno " + errno);
+                }
+                continue;
+            }
+            String name = f[2].substring(f[2].lastIndexOf('/') + 1);
+            if (isExcludedPath(f[2]) || isTemporary(name)) continue;
+            result.put(f[2], new Meta(Long.parseLong(f[0]), Long.parseLong(f[1])));
+            remoteDirs.add(parentOf(f[2]));
+        }
+        return result;
+    }
+
+    private Map<String, Meta> walkRemoteSftp() throws Exception {
+        Map<String, Meta> result = new HashMap<>();
+        SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+            // Повтор на новом канале начинает обход заново
+            result.clear();
+            walkErrors.clear();
+            try {
+                if (!channel.stat(remoteRoot).isDir()) throw new Exception("Not a directory: " + remoteRoot);
+            } catch (com.jcraft.jsch.SftpException e) {
+                // Корня нет: решение, пустое ли это дерево или ошибка, принимает run()
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    remoteMissing = true;
+                    return null;
+                }
+                throw e;
+            }
+            List<String> queue = new ArrayList<>();
+            queue.add("");
+            for (int i = 0; i < queue.size(); i++) {
+                TaskScheduler.checkCancelled();
+                String dirRel = queue.get(i);
+                List<RemoteListingCache.Entry> entries;
+                try {
+                    entries = FileSystemManager.fetchSftpListing(channel, conn, dirRel.isEmpty() ? remoteRoot : remotePath(dirRel));
+                } catch (com.jcraft.jsch.SftpException e) {
+                    if (dirRel.isEmpty()) throw e;
+                    walkError(dirRel, e.getMessage());
+                    continue;
+                }
+                remoteDirs.add(dirRel);
+                for (RemoteListingCache.Entry e : entries) {
+                    if (e.isSymlink) continue;
+                    String rel = dirRel.isEmpty() ? e.name : dirRel + "/" + e.name;
+                    if (isExcluded(e.name, rel)) continue;
+                    if (e.isDir) {
+                        queue.add(rel);
+                    } else if (!isTemporary(e.name)) {
+                        result.put(rel, new Meta(e.size, e.mtime / 1000));
+                    }
+                }
+            }
+            return null;
+        });
+        return result;
+    }
+
+    private static boolean isTemporary(String name) {
+        return name.endsWith(".xkode-tmp") || name.endsWith(".xkode-delta") || name.endsWith(".xkode-bak")
+            || name.endsWith(".part") || name.endsWith(".part.state");
+    }
+
+    private static String parentOf(String rel) {
+        int slash = rel.lastIndexOf('/');
+        return slash < 0 ? "" : rel.substring(0, slash);
+    }
+
+    private void ensureRemoteDir(ChannelSftp channel, String dirRel) throws Exception {
+        if (remoteDirs.contains(dirRel)) return;
+        if (!dirRel.isEmpty()) {
+            ensureRemoteDir(channel, parentOf(dirRel));
+            mkdirQuietly(channel, remotePath(dirRel));
+        } else if (!remoteRoot.equals(".") && !remoteRoot.equals("/")) {
+            // Корня нет (первая заливка): создаем его со всеми родителями
+            int slash = remoteRoot.indexOf('/', 1);
+            while (slash > 0) {
+                mkdirQuietly(channel, remoteRoot.substring(0, slash));
+                slash = remoteRoot.indexOf('/', slash + 1);
+            }
+            mkdirQuietly(channel, remoteRoot);
+        }
+        remoteDirs.add(dirRel);
+    }
+
+    private static void mkdirQuietly(ChannelSftp channel, String path) {
+        try {
+            channel.mkdir(path);
+        } catch (com.jcraft.jsch.SftpException e) {
+            // Уже есть - нормально; иначе ошибку покажет сама запись файла
+        }
+    }
+
+    // --- STATE ---
+
+    private static Map<String, Base> loadState(File file) {
+        Map<String, Base> result = new HashMap<>();
+        if (!file.isFile()) return result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != STATE_MAGIC) return result;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String rel = in.readUTF();
+                result.put(rel, new Base(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // Битое состояние - как первая синхронизация
+            result.clear();
+        }
+        return result;
+    }
+
+    // При отмене шаги, до которых не дошли, сохраняют прежний baseline
+    private void saveState(File file, Map<String, Base> next, Map<String, Base> previous,
+                           List<Step> plan, Set<String> attempted) throws IOException {
+        for (Step s : plan) {
+            if (!attempted.contains(s.rel) && previous.containsKey(s.rel)) next.put(s.rel, previous.get(s.rel));
+        }
+        if (!stateDir.isDirectory()) stateDir.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(next.size());
+            for (Map.Entry<String, Base> e : next.entrySet()) {
+                Base b = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(b.localSize);
+                out.writeLong(b.localMtime);
+                out.writeLong(b.remoteSize);
+                out.writeLong(b.remoteMtime);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to save sync state");
+        }
+    }
+
+    // --- REMOTE HELPER ---
+
+    private String probeHelper() {
+        if (!useDelta) return HELPER_NONE;
+        try {
+            String answer = new String(exec(PROBE), StandardCharsets.UTF_8).trim();
+            if (answer.equals(HELPER_PYTHON) || answer.equals(HELPER_MD5)) return answer;
+        } catch (Exception e) {
+            // Нет exec (только sftp-subsystem) - работаем без хелпера
+        }
+        return HELPER_NONE;
+    }
+
+    private static String shellQuote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    private static String python(List<String> args) {
+        StringBuilder cmd = new StringBuilder("python3 -c ").append(shellQuote(PY_HELPER));
+        for (String a : args) cmd.append(' ').append(shellQuote(a));
+        return cmd.toString();
+    }
+
+    private byte[] exec(String command) throws Exception {
+        ChannelExec channel = SshSessionPool.getInstance().openExec(host, port, user, pass);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            channel.setCommand(command);
+            channel.setInputStream(null);
+            channel.setErrStream(err);
+            InputStream in = channel.getInputStream();
+            channel.connect(EXEC_TIMEOUT_MS);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+                TaskScheduler.checkCancelled();
+            }
+            // Статус приходит сразу за EOF
+            for (int i = 0; i < 200 && !channel.isClosed(); i++) Thread.sleep(10);
+            int status = channel.getExitStatus();
+            if (status != 0) {
+                String msg = err.toString("UTF-8").trim();
+                throw new Exception("Remote helper failed (" + status + ")" + (msg.isEmpty() ? "" : ": " + msg));
+            }
+            return out.toByteArray();
+        } finally {
+            SshSessionPool.getInstance().releaseChannel(channel);
+        }
+    }
+
+    // Блок ~ 8 * sqrt(размера): на 2 ГБ - 256 КБ, сигнатура порядка сотен килобайт
+    private static int blockSize(long size) {
+        long b = Long.highestOneBit(Math.max(1, (long) Math.sqrt((double) size) * 8));
+        return (int) Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, b));
+    }
+
+    private Signature remoteSignature(String remotePath, long size) throws Exception {
+        int block = blockSize(size);
+        int blocks = (int) ((size + block - 1) / block);
+        String command;
+        if (HELPER_PYTHON.equals(helper)) {
+            List<String> args = new ArrayList<>();
+            args.add("sig");
+            args.add(remotePath);
+            args.add(String.valueOf(block));
+            command = python(args);
+        } else {
+            command = "f=" + shellQuote(remotePath) + "; i=0; while [ $i -lt " + blocks + " ]; do "
+                + "dd if=\"$f\" bs=" + block + " skip=$i count=1 2>/dev/null | md5sum; i=$((i+1)); done";
+        }
+        String[] lines = new String(exec(command), StandardCharsets.UTF_8).split("\n");
+        int[] weak = HELPER_PYTHON.equals(helper) ? new int[blocks] : null;
+        String[] strong = new String[blocks];
+        int count = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (count == blocks) throw new Exception("Remote file changed during sync: " + remotePath);
+            String[] f = line.split("\\s+");
+            if (weak != null) {
+                weak[count] = (int) Long.parseLong(f[0], 16);
+                strong[count] = f[1];
+            } else {
+                strong[count] = f[0];
+            }
+            count++;
+        }
+        if (count != blocks) throw new Exception("Remote file changed during sync: " + remotePath);
+        return new Signature(block, size, weak, strong);
+    }
+
+    // --- DELTA ---
+
+    /** Скользящее окно по локальному файлу с буферизацией чтения. */
+    private static class Window implements Closeable {
+        final RandomAccessFile raf;
+        final long size;
+        final byte[] buf;
+        long bufStart;
+        int bufLen;
+
+        Window(File file, int blockSize) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            size = raf.length();
+            buf = new byte[Math.max(4 * blockSize, 1024 * 1024)];
+        }
+
+        /** Гарантирует, что [pos, pos + len) лежит в буфере; возвращает индекс pos. */
+        int ensure(long pos, int len) throws IOException {
+            if (pos >= bufStart && pos + len <= bufStart + bufLen) return (int) (pos - bufStart);
+            raf.seek(pos);
+            int n = 0;
+            while (n < buf.length) {
+                int r = raf.read(buf, n, buf.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            bufStart = pos;
+            bufLen = n;
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * Ищет в локальном файле полные блоки сигнатуры на любом смещении (скользящий Adler-32,
+     * подтверждение MD5). Без слабых сумм - только по выровненным блокам.
+     * Результат: пары {смещение в файле, номер блока} по возрастанию смещения.
+     */
+    private static List<long[]> findBlocks(File file, Signature sig) throws Exception {
+        List<long[]> matches = new ArrayList<>();
+        int block = sig.blockSize;
+        int full = (int) (sig.fileSize / block);
+        MessageDigest md = MessageDigest.getInstance("MD5");
+
+        try (Window w = new Window(file, block)) {
+            if (w.size < block || full == 0) return matches;
+            if (sig.weak == null) {
+                Map<String, Integer> byStrong = new HashMap<>();
+                for (int k = full - 1; k >= 0; k--) byStrong.put(sig.strong[k], k);
+                for (long o = 0; o + block <= w.size; o += block) {
+                    int idx = w.ensure(o, block);
+                    md.update(w.buf, idx, block);
+                    Integer k = byStrong.get(hex(md.digest()));
+                    if (k != null) matches.add(new long[] { o, k });
+                    TaskScheduler.checkCancelled();
+                }
+                return matches;
+            }
+
+            Map<Integer, List<Integer>> byWeak = new HashMap<>();
+            for (int k = 0; k < full; k++) {
+                byWeak.computeIfAbsent(sig.weak[k], x -> new ArrayList<>()).add(k);
+            }
+            long o = 0;
+            long[] ab = adler(w, o, block);
+            long a = ab[0], b = ab[1];
+            while (true) {
+                int weak = (int) ((b << 16) | a);
+                List<Integer> candidates = byWeak.get(weak);
+                boolean matched = false;
+                if (candidates != null) {
+                    int idx = w.ensure(o, block);
+                    md.update(w.buf, idx, block);
+                    String strong = hex(md.digest());
+                    for (int k : candidates) {
+                        if (sig.strong[k].equals(strong)) {
+                            matches.add(new long[] { o, k });
+                            matched = true;
+                            break;
+                        }
+                    }
+                }
+                if (matched) {
+                    o += block;
+                    if (o + block > w.size) break;
+                    ab = adler(w, o, block);
+                    a = ab[0];
+                    b = ab[1];
+                    continue;
+                }
+                if (o + block >= w.size) break;
+                int idx = w.ensure(o, block + 1);
+                int out = w.buf[idx] & 0xFF;
+                int in = w.buf[idx + block] & 0xFF;
+                a = Math.floorMod(a - out + in, ADLER_MOD);
+                b = Math.floorMod(b - (long) block * out + a - 1, ADLER_MOD);
+                o++;
+                if ((o & 0xFFFFF) == 0) TaskScheduler.checkCancelled();
+            }
+        }
+        return matches;
+    }
+
+    // Adler-32 окна [pos, pos + len): {a, b}, как zlib.adler32 на сервере
+    private static long[] adler(Window w, long pos, int len) throws IOException {
+        int idx = w.ensure(pos, len);
+        long a = 1, b = 0;
+        for (int i = 0; i < len; i++) {
+            a = (a + (w.buf[idx + i] & 0xFF)) % ADLER_MOD;
+            b = (b + a) % ADLER_MOD;
+        }
+        return new long[] { a, b };
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte x : bytes) {
+            sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Скачивание дельтой (как zsync): сервер отдает сигнатуру своего файла, локальная
+     * старая версия просматривается на совпадающие блоки, по сети идут только остальные.
+     */
+    private void pullDelta(File target, String remotePath, Meta remote) throws Exception {
+        Signature sig = remoteSignature(remotePath, remote.size);
+        Map<String, Long> found = new HashMap<>();
+        for (long[] m : findBlocks(target, sig)) found.putIfAbsent(sig.strong[(int) m[1]], m[0]);
+
+        int blocks = sig.blocks();
+        long[] source = new long[blocks];
+        for (int k = 0; k < blocks; k++) {
+            Long at = sig.length(k) == sig.blockSize ? found.get(sig.strong[k]) : null;
+            source[k] = at != null ? at : -1;
+        }
+
+        File tmp = FileSystemManager.tempFor(target);
+        boolean keepTmp = false;
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            try (RandomAccessFile basis = new RandomAccessFile(target, "r");
+                 BufferedOutputStream out = new BufferedOutputStream(new DigestOutputStream(fos, digest), COPY_BUFFER)) {
+                byte[] buf = new byte[Math.max(sig.blockSize, COPY_BUFFER)];
+                SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                    int k = 0;
+                    while (k < blocks) {
+                        TaskScheduler.checkCancelled();
+                        if (source[k] >= 0) {
+                            int len = sig.length(k);
+                            basis.seek(source[k]);
+                            basis.readFully(buf, 0, len);
+                            out.write(buf, 0, len);
+                            bytesMatched += len;
+                            advance(len);
+                            k++;
+                            continue;
+                        }
+                        // Подряд идущие недостающие блоки - одним запросом
+                        int j = k;
+                        while (j < blocks && source[j] < 0) j++;
+                        long from = (long) k * sig.blockSize;
+                        long to = Math.min(sig.fileSize, (long) j * sig.blockSize);
+                        try (InputStream in = channel.get(remotePath, null, from)) {
+                            long left = to - from;
+                            while (left > 0) {
+                                int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                                if (n == -1) throw new Exception("Remote file changed during sync: " + remotePath);
+                                out.write(buf, 0, n);
+                                left -= n;
+                                bytesReceived += n;
+                                advance(n);
+                            }
+                        }
+                        k = j;
+                    }
+                    // Файл поменялся, пока собирали - смесь версий не сохраняем
+                    SftpATTRS after = channel.stat(remotePath);
+                    if (after.getSize() != remote.size || after.getMTime() != remote.mtime) {
+                        throw new Exception("Remote file changed during sync: " + remotePath);
+                    }
+                    return null;
+                });
+                out.flush();
+                fos.getFD().sync();
+            }
+            // Совпавшие MD5 блоков и тот же stat еще не гарантия: сверяем собранный файл целиком
+            if (!hex(digest.digest()).equals(remoteMd5(remotePath))) {
+                throw new Exception("Checksum mismatch after delta download: " + remotePath);
+            }
+            FileSystemManager.commitTemp(tmp, target, null);
+            keepTmp = true;
+        } finally {
+            if (!keepTmp) tmp.delete();
+        }
+    }
+
+    private String remoteMd5(String remotePath) throws Exception {
+        String command;
+        if (HELPER_PYTHON.equals(helper)) {
+            List<String> args = new ArrayList<>();
+            args.add("md5");
+            args.add(remotePath);
+            command = python(args);
+        } else {
+            command = "md5sum < " + shellQuote(remotePath);
+        }
+        String answer = new String(exec(command), StandardCharsets.UTF_8).trim();
+        int space = answer.indexOf(' ');
+        return (space < 0 ? answer : answer.substring(0, space)).toLowerCase();
+    }
+
+    /**
+     * Заливка дельтой (как rsync): сервер отдает сигнатуру старой версии, локальный файл
+     * раскладывается на ссылки на ее блоки и литералы. На сервер уходит только этот
+     * поток, хелпер собирает файл рядом, сверяет MD5 и атомарно подменяет.
+     */
+    private void pushDelta(File source, String remotePath, Meta remote) throws Exception {
+        Signature sig = remoteSignature(remotePath, remote.size);
+        List<long[]> matches = findBlocks(source, sig);
+        String md5 = md5(source);
+
+        if (!stateDir.isDirectory()) stateDir.mkdirs();
+        File delta = File.createTempFile("sync", ".delta", stateDir);
+        String remoteDelta = FileSystemManager.remoteTempFor(remotePath, ".xkode-delta");
+        String remoteTmp = FileSystemManager.remoteTempFor(remotePath, ".xkode-tmp");
+        try {
+            bytesMatched += writeDelta(source, sig, matches, delta);
+
+            long deltaSize = delta.length();
+            long[] sent = new long[1];
+            SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                try (InputStream in = new FileInputStream(delta)) {
+                    channel.put(in, remoteDelta, new com.jcraft.jsch.SftpProgressMonitor() {
+                        @Override
+                        public void init(int op, String src, String dest, long max) {}
+
+                        @Override
+                        public boolean count(long count) {
+                            sent[0] += count;
+                            advance(count * source.length() / Math.max(1, deltaSize));
+                            return !TaskScheduler.isCancelled();
+                        }
+
+                        @Override
+                        public void end() {}
+                    }, ChannelSftp.OVERWRITE);
+                }
+                if (TaskScheduler.isCancelled()) throw new InterruptedException("Sync cancelled");
+                return null;
+            });
+            bytesSent += sent[0];
+
+            List<String> args = new ArrayList<>();
+            args.add("patch");
+            args.add(remotePath);
+            args.add(remoteDelta);
+            args.add(remoteTmp);
+            args.add(String.valueOf(source.lastModified() / 1000));
+            args.add(md5);
+            try {
+                exec(python(args));
+            } catch (Exception e) {
+                SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                    try { channel.rm(remoteDelta); } catch (Exception ignored) {}
+                    try { channel.rm(remoteTmp); } catch (Exception ignored) {}
+                    return null;
+                });
+                throw e;
+            }
+        } finally {
+            delta.delete();
+        }
+    }
+
+    /** Поток для хелпера: 'C' смещение длина - блоки старой версии, 'D' длина байты - литерал. */
+    private static long writeDelta(File source, Signature sig, List<long[]> matches, File delta) throws IOException {
+        long matched = 0;
+        long size = source.length();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(delta), COPY_BUFFER))) {
+            byte[] buf = new byte[COPY_BUFFER];
+            long pos = 0;
+            long copyFrom = -1, copyLen = 0;
+            for (long[] m : matches) {
+                long basisOffset = m[1] * sig.blockSize;
+                if (m[0] > pos) {
+                    copyLen = flushCopy(out, copyFrom, copyLen);
+                    writeLiteral(out, in, buf, pos, m[0] - pos);
+                }
+                // Соседние блоки basis подряд - одна команда копирования
+                if (copyLen > 0 && copyFrom + copyLen == basisOffset) {
+                    copyLen += sig.blockSize;
+                } else {
+                    flushCopy(out, copyFrom, copyLen);
+                    copyFrom = basisOffset;
+                    copyLen = sig.blockSize;
+                }
+                matched += sig.blockSize;
+                pos = m[0] + sig.blockSize;
+            }
+            flushCopy(out, copyFrom, copyLen);
+            if (pos < size) writeLiteral(out, in, buf, pos, size - pos);
+        }
+        return matched;
+    }
+
+    private static long flushCopy(DataOutputStream out, long from, long len) throws IOException {
+        if (len > 0) {
+            out.writeByte('C');
+            out.writeLong(from);
+            out.writeLong(len);
+        }
+        return 0;
+    }
+
+    private static void writeLiteral(DataOutputStream out, RandomAccessFile in, byte[] buf, long pos, long len) throws IOException {
+        out.writeByte('D');
+        out.writeLong(len);
+        in.seek(pos);
+        while (len > 0) {
+            int n = (int) Math.min(buf.length, len);
+            in.readFully(buf, 0, n);
+            out.write(buf, 0, n);
+            len -= n;
+        }
+    }
+
+    private static String md5(File file) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[COPY_BUFFER];
+            int n;
+            while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
+        }
+        return hex(md.digest());
+    }
+
+    // --- FULL TRANSFER ---
+
+    private void pullFull(File target, String remotePath, Meta remote) throws Exception {
+        if (remote.size >= PARALLEL_DOWNLOAD_SIZE) {
+            long base = doneBytes;
+            new SftpDownloader(host, port, user, pass, remotePath, target, (done, total) -> {
+                doneBytes = base + done;
+                report(false);
+            }).run();
+            bytesReceived += remote.size;
+            return;
+        }
+        File tmp = FileSystemManager.tempFor(target);
+        boolean keepTmp = false;
+        try {
+            long base = doneBytes;
+            long received = bytesReceived;
+            // При повторе (мертвый канал из пула) файл качается заново: tmp открывается
+            // с обрезкой внутри попытки, прогресс откатывается к началу файла
+            long written = SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+                doneBytes = base;
+                bytesReceived = received;
+                long total = 0;
+                byte[] buf = new byte[64 * 1024];
+                try (FileOutputStream fos = new FileOutputStream(tmp);
+                     BufferedOutputStream out = new BufferedOutputStream(fos, COPY_BUFFER);
+                     InputStream in = channel.get(remotePath)) {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                        total += n;
+                        bytesReceived += n;
+                        advance(n);
+                        TaskScheduler.checkCancelled();
+                    }
+                    out.flush();
+                    fos.getFD().sync();
+                }
+                return total;
+            });
+            if (written != remote.size) throw new Exception("Remote file changed during sync: " + remotePath);
+            FileSystemManager.commitTemp(tmp, target, null);
+            keepTmp = true;
+        } finally {
+            if (!keepTmp) tmp.delete();
+        }
+    }
+
+    private void pushFull(File source, String rel, Meta local) throws Exception {
+        String remotePath = remotePath(rel);
+        SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+            ensureRemoteDir(channel, parentOf(rel));
+            return null;
+        });
+        long base = doneBytes;
+        WritableMap r = FileSystemManager.uploadFile(host, port, user, pass, source.getPath(), remotePath, false,
+            (done, total) -> {
+                doneBytes = base + done;
+                report(false);
+            });
+        bytesSent += (long) r.getDouble("bytes");
+        // mtime как у локального - иначе следующий проход снова увидит разницу
+        SshSessionPool.getInstance().withSftp(host, port, user, pass, channel -> {
+            channel.setMtime(remotePath, (int) local.mtime);
+            return null;
+        });
+    }
+
+    // --- PROGRESS ---
+
+    private void advance(long bytes) {
+        doneBytes += bytes;
+        report(false);
+    }
+
+    private void report(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        if (!force && now - lastReport < PROGRESS_INTERVAL_MS) return;
+        lastReport = now;
+        listener.onProgress(Math.min(doneBytes, totalBytes), totalBytes);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,560 @@
+package pro.kaleert.XKode.managers;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Инкрементальные снимки рабочей папки.
+ *
+ * Содержимое лежит в общем хранилище объектов objects/xx/<sha256>: файл режется на
+ * куски по CHUNK_SIZE, каждый кусок сжимается и сохраняется один раз. Снимок - это
+ * манифест (путь, размер, mtime, хэши кусков). Файлы, у которых размер и mtime
+ * совпали с прошлым снимком, даже не читаются - время снимка пропорционально изменениям.
+ *
+ * Объекты и их каталоги сбрасываются на диск (fsync) до записи манифеста, иначе после
+ * падения питания манифест мог бы ссылаться на пустые куски. При восстановлении каждый
+ * кусок сверяется с его SHA-256.
+ */
+class SnapshotStore {
+
+    private static final int MAGIC = 0x584B534E; // XKSN
+    private static final int VERSION = 1;
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int HASH_BYTES = 32;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    private static final String[] DEFAULT_EXCLUDES = { "node_modules", ".git" };
+
+    // Один снимок/удаление за раз: сборка мусора не должна видеть полузаписанный снимок
+    private static final Object lock = new Object();
+    // Манифесты идущих восстановлений (под lock): их объекты delete не собирает.
+    // Статично, как и lock: SnapshotStore создается на каждый вызов
+    private static final List<Manifest> restoring = new ArrayList<>();
+
+    private final File storeDir;
+    private final File objectsDir;
+    // Каталоги с новыми объектами этого снимка: их fsync перед манифестом
+    private final Set<File> dirtyDirs = ConcurrentHashMap.newKeySet();
+
+    SnapshotStore(File storeDir) {
+        this.storeDir = storeDir;
+        this.objectsDir = new File(storeDir, "objects");
+    }
+
+    // --- MODEL ---
+
+    private static class FileEntry {
+        String path;        // относительно корня
+        long size;
+        long mtime;
+        boolean executable;
+        byte[][] chunks;
+    }
+
+    private static class Manifest {
+        String id;
+        long created;
+        String root;
+        long totalBytes;
+        List<FileEntry> files = new ArrayList<>();
+    }
+
+    // --- CREATE ---
+
+    /** options: exclude (globs, по умолчанию node_modules и .git). */
+    WritableMap create(String rootPath, ReadableMap options, FileSystemManager.ProgressListener listener) throws Exception {
+        File root = new File(rootPath).getCanonicalFile();
+        if (!root.isDirectory()) throw new Exception("Path is not a directory: " + rootPath);
+        long started = System.currentTimeMillis();
+
+        List<Pattern> excludes = new ArrayList<>();
+        ReadableArray globs = options != null && options.hasKey("exclude") && !options.isNull("exclude")
+            ? options.getArray("exclude") : null;
+        if (globs != null) {
+            for (int i = 0; i < globs.size(); i++) excludes.add(ContentSearch.globToRegex(globs.getString(i)));
+        } else {
+            for (String g : DEFAULT_EXCLUDES) excludes.add(ContentSearch.globToRegex(g));
+        }
+
+        synchronized (lock) {
+            File snapsDir = snapsDir(root);
+            snapsDir.mkdirs();
+            Manifest previous = latest(snapsDir);
+            Map<String, FileEntry> known = new HashMap<>();
+            if (previous != null) {
+                for (FileEntry e : previous.files) known.put(e.path, e);
+            }
+
+            Manifest manifest = new Manifest();
+            manifest.created = System.currentTimeMillis();
+            manifest.id = String.valueOf(manifest.created);
+            manifest.root = root.getPath();
+            walk(root, "", excludes, manifest.files);
+
+            // Читаем только то, что изменилось по размеру или mtime
+            List<FileEntry> changed = new ArrayList<>();
+            long changedBytes = 0;
+            for (FileEntry e : manifest.files) {
+                FileEntry old = known.get(e.path);
+                if (old != null && old.size == e.size && old.mtime == e.mtime) {
+                    e.chunks = old.chunks;
+                } else {
+                    changed.add(e);
+                    changedBytes += e.size;
+                }
+            }
+
+            AtomicLong hashed = new AtomicLong();
+            AtomicLong stored = new AtomicLong();
+            AtomicLong lastReport = new AtomicLong();
+            long total = changedBytes;
+            runParallel(changed, e -> {
+                storeFile(new File(root, e.path), e, stored, bytes -> {
+                    long done = hashed.addAndGet(bytes);
+                    long now = System.currentTimeMillis();
+                    long last = lastReport.get();
+                    if (listener != null && now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now)) {
+                        listener.onProgress(done, total);
+                    }
+                });
+            });
+            if (listener != null) listener.onProgress(hashed.get(), total);
+            for (FileEntry e : manifest.files) manifest.totalBytes += e.size;
+
+            // Манифест только после того, как все его куски и их имена на диске
+            for (File dir : dirtyDirs) syncDir(dir);
+            if (!dirtyDirs.isEmpty()) syncDir(objectsDir);
+            dirtyDirs.clear();
+            writeManifest(new File(snapsDir, manifest.id + ".snap"), manifest);
+
+            WritableMap result = Arguments.createMap();
+            result.putString("id", manifest.id);
+            result.putInt("files", manifest.files.size());
+            result.putInt("changed", changed.size());
+            result.putDouble("bytes", manifest.totalBytes);
+            result.putDouble("hashedBytes", hashed.get());
+            result.putDouble("storedBytes", stored.get());
+            result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+            return result;
+        }
+    }
+
+    private void walk(File dir, String rel, List<Pattern> excludes, List<FileEntry> out) throws InterruptedException {
+        TaskScheduler.checkCancelled();
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (File f : children) {
+            String childRel = rel.isEmpty() ? f.getName() : rel + "/" + f.getName();
+            if (isExcluded(excludes, f.getName(), childRel)) continue;
+            if (f.isDirectory()) {
+                // Ссылки на папки не обходим: ссылка на предка зациклила бы обход,
+                // а на соседа - сохранила бы те же файлы дважды
+                if (FileSystemManager.isSymlink(f)) continue;
+                walk(f, childRel, excludes, out);
+            } else if (f.isFile()) {
+                FileEntry e = new FileEntry();
+                e.path = childRel;
+                e.size = f.length();
+                e.mtime = f.lastModified();
+                e.executable = f.canExecute();
+                out.add(e);
+            }
+        }
+    }
+
+    private static boolean isExcluded(List<Pattern> excludes, String name, String rel) {
+        for (Pattern p : excludes) {
+            if (p.matcher(name).matches() || p.matcher(rel).matches()) return true;
+        }
+        return false;
+    }
+
+    private interface BytesCallback {
+        void onBytes(long bytes);
+    }
+
+    // Хэширует файл по кускам и кладет в хранилище те, которых там еще нет
+    private void storeFile(File f, FileEntry e, AtomicLong stored, BytesCallback progress) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] buf = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, e.size))];
+        long size = 0;
+        try (InputStream in = new FileInputStream(f)) {
+            while (true) {
+                int n = 0, r;
+                while (n < buf.length && (r = in.read(buf, n, buf.length - n)) != -1) n += r;
+                if (n == 0 && !chunks.isEmpty()) break;
+                md.reset();
+                md.update(buf, 0, n);
+                byte[] hash = md.digest();
+                if (storeObject(hash, buf, n)) stored.addAndGet(n);
+                chunks.add(hash);
+                size += n;
+                progress.onBytes(n);
+                if (n < buf.length) break;
+                if (buf.length < CHUNK_SIZE) buf = new byte[CHUNK_SIZE];
+            }
+        }
+        // Файл менялся во время снимка - фиксируем то, что реально прочитали
+        e.size = size;
+        e.chunks = chunks.toArray(new byte[0][]);
+    }
+
+    private boolean storeObject(byte[] hash, byte[] data, int length) throws IOException {
+        File obj = objectFile(hash);
+        if (obj.exists()) return false;
+        obj.getParentFile().mkdirs();
+        File tmp = new File(obj.getParentFile(), obj.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(fos, deflater, 64 * 1024)) {
+            out.write(data, 0, length);
+            out.finish();
+            fos.getFD().sync();
+        } finally {
+            deflater.end();
+        }
+        // Тот же кусок мог параллельно сохранить другой поток - содержимое одинаковое
+        if (!tmp.renameTo(obj)) {
+            tmp.delete();
+            return false;
+        }
+        dirtyDirs.add(obj.getParentFile());
+        return true;
+    }
+
+    private File objectFile(byte[] hash) {
+        String hex = hex(hash);
+        return new File(new File(objectsDir, hex.substring(0, 2)), hex.substring(2));
+    }
+
+    // --- RESTORE ---
+
+    /** Восстанавливает снимок в dest; лишние файлы в dest не трогаем. */
+    WritableMap restore(String rootPath, String id, String destPath, FileSystemManager.ProgressListener listener) throws Exception {
+        File root = new File(rootPath).getCanonicalFile();
+        Manifest manifest;
+        synchronized (lock) {
+            manifest = readManifest(snapshotFile(root, id), false);
+            restoring.add(manifest);
+        }
+        try {
+            return restore(manifest, new File(destPath).getCanonicalFile(), listener);
+        } finally {
+            synchronized (lock) {
+                restoring.remove(manifest);
+            }
+        }
+    }
+
+    private WritableMap restore(Manifest manifest, File dest, FileSystemManager.ProgressListener listener) throws Exception {
+        String destPrefix = dest.getPath() + File.separator;
+        long started = System.currentTimeMillis();
+
+        // Папки заранее, чтобы потоки не гонялись за mkdirs
+        for (FileEntry e : manifest.files) {
+            File target = new File(dest, e.path).getCanonicalFile();
+            if (!target.getPath().startsWith(destPrefix)) throw new Exception("Snapshot path outside target: " + e.path);
+            target.getParentFile().mkdirs();
+        }
+
+        AtomicLong done = new AtomicLong();
+        AtomicLong lastReport = new AtomicLong();
+        runParallel(manifest.files, e -> {
+            File target = new File(dest, e.path);
+            byte[] buf = new byte[64 * 1024];
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            // Файл собирается рядом и подменяется целиком: битый кусок не оставит полуфайл
+            File tmp = FileSystemManager.tempFor(target);
+            boolean keepTmp = false;
+            try {
+                FileOutputStream fos = new FileOutputStream(tmp);
+                try (OutputStream out = new BufferedOutputStream(fos, 256 * 1024)) {
+                    for (byte[] hash : e.chunks) {
+                        File obj = objectFile(hash);
+                        if (!obj.exists()) throw new Exception("Snapshot object missing: " + hex(hash));
+                        md.reset();
+                        Inflater inflater = new Inflater();
+                        try (InputStream in = new InflaterInputStream(new FileInputStream(obj), inflater, 64 * 1024)) {
+                            int n;
+                            while ((n = in.read(buf)) != -1) {
+                                md.update(buf, 0, n);
+                                out.write(buf, 0, n);
+                                done.addAndGet(n);
+                            }
+                        } finally {
+                            inflater.end();
+                        }
+                        if (!MessageDigest.isEqual(md.digest(), hash)) {
+                            throw new Exception("Snapshot object corrupted: " + hex(hash));
+                        }
+                    }
+                    out.flush();
+                    fos.getFD().sync();
+                }
+                FileSystemManager.commitTemp(tmp, target, null);
+                keepTmp = true;
+            } finally {
+                if (!keepTmp) tmp.delete();
+            }
+            target.setLastModified(e.mtime);
+            if (e.executable) target.setExecutable(true);
+            long now = System.currentTimeMillis();
+            long last = lastReport.get();
+            if (listener != null && now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now)) {
+                listener.onProgress(done.get(), manifest.totalBytes);
+            }
+        });
+        if (listener != null) listener.onProgress(done.get(), manifest.totalBytes);
+
+        WritableMap result = Arguments.createMap();
+        result.putString("id", manifest.id);
+        result.putInt("files", manifest.files.size());
+        result.putDouble("bytes", done.get());
+        result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    // --- LIST / DELETE ---
+
+    /** [{id, created, files, bytes}] новые первыми; читаются только заголовки манифестов. */
+    WritableArray list(String rootPath) throws Exception {
+        File root = new File(rootPath).getCanonicalFile();
+        WritableArray result = Arguments.createArray();
+        File[] snaps = snapsDir(root).listFiles((d, name) -> name.endsWith(".snap"));
+        if (snaps == null) return result;
+        Arrays.sort(snaps, (a, b) -> b.getName().compareTo(a.getName()));
+        for (File f : snaps) {
+            Manifest m = readManifest(f, true);
+            WritableMap map = Arguments.createMap();
+            map.putString("id", m.id);
+            map.putDouble("created", m.created);
+            map.putInt("files", m.files.size());
+            map.putDouble("bytes", m.totalBytes);
+            result.pushMap(map);
+        }
+        return result;
+    }
+
+    /** Удаляет снимок и объекты, на которые больше не ссылается ни один снимок. */
+    WritableMap delete(String rootPath, String id) throws Exception {
+        File root = new File(rootPath).getCanonicalFile();
+        synchronized (lock) {
+            File snap = snapshotFile(root, id);
+            if (!snap.delete()) throw new Exception("Failed to delete snapshot " + id);
+
+            Set<String> live = new HashSet<>();
+            // Снимок могли удалить посреди восстановления - его куски еще читаются
+            for (Manifest m : restoring) {
+                for (FileEntry e : m.files) {
+                    for (byte[] h : e.chunks) live.add(hex(h));
+                }
+            }
+            File[] roots = new File(storeDir, "snaps").listFiles();
+            if (roots != null) {
+                for (File dir : roots) {
+                    File[] snaps = dir.listFiles((d, name) -> name.endsWith(".snap"));
+                    if (snaps == null) continue;
+                    for (File f : snaps) {
+                        for (FileEntry e : readManifest(f, false).files) {
+                            for (byte[] h : e.chunks) live.add(hex(h));
+                        }
+                    }
+                }
+            }
+
+            int removed = 0;
+            long freed = 0;
+            File[] buckets = objectsDir.listFiles();
+            if (buckets != null) {
+                for (File bucket : buckets) {
+                    File[] objs = bucket.listFiles();
+                    if (objs == null) continue;
+                    for (File obj : objs) {
+                        if (live.contains(bucket.getName() + obj.getName())) continue;
+                        long len = obj.length();
+                        if (obj.delete()) {
+                            removed++;
+                            freed += len;
+                        }
+                    }
+                }
+            }
+            WritableMap result = Arguments.createMap();
+            result.putInt("removedObjects", removed);
+            result.putDouble("freedBytes", freed);
+            return result;
+        }
+    }
+
+    // --- MANIFEST ---
+
+    private File snapsDir(File root) throws Exception {
+        return new File(new File(storeDir, "snaps"), TrigramIndex.shortHash(root.getPath()));
+    }
+
+    private File snapshotFile(File root, String id) throws Exception {
+        if (id == null || !id.matches("\\d+")) throw new Exception("Invalid snapshot id: " + id);
+        File f = new File(snapsDir(root), id + ".snap");
+        if (!f.isFile()) throw new Exception("Snapshot not found: " + id);
+        return f;
+    }
+
+    private Manifest latest(File snapsDir) throws IOException {
+        File[] snaps = snapsDir.listFiles((d, name) -> name.endsWith(".snap"));
+        if (snaps == null || snaps.length == 0) return null;
+        File newest = snaps[0];
+        for (File f : snaps) {
+            if (f.getName().compareTo(newest.getName()) > 0) newest = f;
+        }
+        return readManifest(newest, false);
+    }
+
+    private static void writeManifest(File target, Manifest m) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(m.id);
+            out.writeLong(m.created);
+            out.writeUTF(m.root);
+            out.writeInt(m.files.size());
+            out.writeLong(m.totalBytes);
+            for (FileEntry e : m.files) {
+                out.writeUTF(e.path);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeBoolean(e.executable);
+                out.writeInt(e.chunks.length);
+                for (byte[] h : e.chunks) out.write(h);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(target)) throw new IOException("Failed to save snapshot manifest");
+        syncDir(target.getParentFile());
+    }
+
+    // fsync каталога: без него имя после rename может не пережить падение питания
+    // (Os, а не FileChannel.open(Path): java.nio.file есть только с API 26)
+    private static void syncDir(File dir) {
+        try {
+            FileDescriptor fd = Os.open(dir.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException ignored) {
+            // Не каждая ФС (FAT/FUSE на карте памяти) дает открыть каталог - там не гарантируем
+        }
+    }
+
+    // headerOnly - без списка файлов (files остается пустым, нужен лишь счетчик)
+    private static Manifest readManifest(File f, boolean headerOnly) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Bad snapshot " + f.getName());
+            Manifest m = new Manifest();
+            m.id = in.readUTF();
+            m.created = in.readLong();
+            m.root = in.readUTF();
+            int count = in.readInt();
+            m.totalBytes = in.readLong();
+            if (headerOnly) {
+                m.files = new ArrayList<>(Collections.nCopies(count, (FileEntry) null));
+                return m;
+            }
+            for (int i = 0; i < count; i++) {
+                FileEntry e = new FileEntry();
+                e.path = in.readUTF();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                e.executable = in.readBoolean();
+                e.chunks = new byte[in.readInt()][];
+                for (int c = 0; c < e.chunks.length; c++) {
+                    e.chunks[c] = new byte[HASH_BYTES];
+                    in.readFully(e.chunks[c]);
+                }
+                m.files.add(e);
+            }
+            return m;
+        }
+    }
+
+    // --- HELPERS ---
+
+    private interface EntryTask {
+        void run(FileEntry e) throws Exception;
+    }
+
+    private static void runParallel(List<FileEntry> entries, EntryTask task) throws Exception {
+        if (entries.isEmpty()) return;
+        int threads = Math.max(1, Math.min(entries.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "xkode-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(entries.size());
+            for (FileEntry e : entries) {
+                futures.add(pool.submit(TaskScheduler.inheritCancel(() -> {
+                    task.run(e);
+                    return null;
+                })));
+            }
+            for (Future<?> f : futures) TaskScheduler.await(f);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,463 @@
+package pro.kaleert.XKode.managers;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelShell;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий реестр SSH-сессий (host:port:user).
+ * Терминал и SFTP открывают каналы поверх одной авторизованной Session,
+ * поэтому повторная навигация по папкам не платит за handshake.
+ */
+public class SshSessionPool {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int KEEPALIVE_INTERVAL_MS = 15000;
+    private static final int KEEPALIVE_MAX_MISSED = 3;
+    // OpenSSH по умолчанию разрешает MaxSessions=10, оставляем запас
+    private static final int MAX_CHANNELS_PER_SESSION = 8;
+    private static final long IDLE_CHANNEL_MS = 60 * 1000;
+    private static final long IDLE_SESSION_MS = 5 * 60 * 1000;
+    private static final long EVICT_PERIOD_MS = 30 * 1000;
+
+    private static SshSessionPool instance;
+
+    private final Map<String, HostEntry> hosts = new ConcurrentHashMap<>();
+    // Какой сессии принадлежит выданный канал (для release)
+    private final Map<Channel, PooledSession> owners = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    private SshSessionPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "xkode-ssh-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, EVICT_PERIOD_MS, EVICT_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized SshSessionPool getInstance() {
+        if (instance == null) {
+            instance = new SshSessionPool();
+        }
+        return instance;
+    }
+
+    // --- MODEL ---
+
+    private static class HostEntry {
+        final String host;
+        final int port;
+        final String user;
+        final List<PooledSession> sessions = new ArrayList<>();
+
+        HostEntry(String host, int port, String user) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+        }
+    }
+
+    private static class PooledSession {
+        final HostEntry owner;
+        final Session session;
+        final String password;
+        final ArrayDeque<IdleChannel> idleSftp = new ArrayDeque<>();
+        // Handshake идет вне блокировки хоста: его делает создатель сессии (connector),
+        // остальные получившие в ней слот ждут connected
+        final CountDownLatch connected = new CountDownLatch(1);
+        Thread connector;
+        volatile JSchException connectError;
+        int leased;
+        long lastUsed = System.currentTimeMillis();
+
+        PooledSession(HostEntry owner, Session session, String password) {
+            this.owner = owner;
+            this.session = session;
+            this.password = password;
+        }
+
+        int openChannels() {
+            return leased + idleSftp.size();
+        }
+
+        boolean isConnecting() {
+            return connected.getCount() > 0;
+        }
+    }
+
+    private static class IdleChannel {
+        final ChannelSftp channel;
+        final long since = System.currentTimeMillis();
+
+        IdleChannel(ChannelSftp channel) {
+            this.channel = channel;
+        }
+    }
+
+    public interface SftpTask<T> {
+        T run(ChannelSftp channel) throws Exception;
+    }
+
+    private static String key(String host, int port, String user) {
+        return user + "@" + host + ":" + port;
+    }
+
+    // --- SFTP ---
+
+    /**
+     * Выполняет операцию на SFTP-канале из пула и возвращает канал обратно.
+     * Если канал из кэша оказался мертвым (сервер закрыл сессию), операция
+     * один раз повторяется на свежем подключении.
+     */
+    public <T> T withSftp(String host, int port, String user, String pass, SftpTask<T> task) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            Lease lease = borrowSftp(host, port, user, pass);
+            try {
+                T result = task.run(lease.channel);
+                endLease(lease, false);
+                return result;
+            } catch (Exception e) {
+                boolean dead = !lease.channel.isConnected() || !lease.owner.session.isConnected();
+                endLease(lease, dead);
+                if (!(dead && lease.reused && attempt == 0)) throw e;
+            }
+        }
+    }
+
+    private void endLease(Lease lease, boolean dead) {
+        // Прерывание посреди JSch-I/O могло оставить в канале недочитанный ответ:
+        // следующий заемщик получил бы чужие пакеты, поэтому такой канал не возвращаем
+        if (dead || Thread.currentThread().isInterrupted()) {
+            discard(lease.channel);
+        } else {
+            releaseSftp(lease.channel);
+        }
+    }
+
+    private static class Lease {
+        final ChannelSftp channel;
+        final PooledSession owner;
+        final boolean reused;
+
+        Lease(ChannelSftp channel, PooledSession owner, boolean reused) {
+            this.channel = channel;
+            this.owner = owner;
+            this.reused = reused;
+        }
+    }
+
+    public ChannelSftp acquireSftp(String host, int port, String user, String pass) throws JSchException {
+        return borrowSftp(host, port, user, pass).channel;
+    }
+
+    private Lease borrowSftp(String host, int port, String user, String pass) throws JSchException {
+        HostEntry entry = hosts.computeIfAbsent(key(host, port, user), k -> new HostEntry(host, port, user));
+        PooledSession ps;
+        synchronized (entry) {
+            pruneDead(entry);
+            // 1. Переиспользуем уже открытый канал
+            for (PooledSession candidate : entry.sessions) {
+                if (!candidate.password.equals(pass)) continue;
+                IdleChannel idle;
+                while ((idle = candidate.idleSftp.pollFirst()) != null) {
+                    if (idle.channel.isConnected()) {
+                        candidate.leased++;
+                        candidate.lastUsed = System.currentTimeMillis();
+                        owners.put(idle.channel, candidate);
+                        return new Lease(idle.channel, candidate, true);
+                    }
+                }
+            }
+            // 2. Резервируем слот под новый канал (handshake только если слотов нет)
+            ps = reserveSlot(entry, pass);
+        }
+
+        // Handshake и открытие канала - round trip'ы, не держим блокировку хоста
+        try {
+            ensureConnected(entry, ps);
+            ChannelSftp ch = (ChannelSftp) ps.session.openChannel("sftp");
+            ch.connect(CONNECT_TIMEOUT_MS);
+            owners.put(ch, ps);
+            return new Lease(ch, ps, false);
+        } catch (JSchException e) {
+            synchronized (entry) {
+                ps.leased--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Отдельный SFTP-канал вне пула для долгих операций (постраничный листинг): его можно
+     * держать сколько угодно, не занимая кэшированные каналы. Закрывать через releaseChannel.
+     */
+    public ChannelSftp openSftp(String host, int port, String user, String pass) throws JSchException {
+        HostEntry entry = hosts.computeIfAbsent(key(host, port, user), k -> new HostEntry(host, port, user));
+        PooledSession ps;
+        synchronized (entry) {
+            pruneDead(entry);
+            ps = reserveSlot(entry, pass);
+        }
+        ChannelSftp ch = null;
+        try {
+            ensureConnected(entry, ps);
+            ch = (ChannelSftp) ps.session.openChannel("sftp");
+            owners.put(ch, ps);
+            ch.connect(CONNECT_TIMEOUT_MS);
+            return ch;
+        } catch (JSchException e) {
+            if (ch != null) {
+                discard(ch);
+            } else {
+                synchronized (entry) {
+                    ps.leased--;
+                }
+            }
+            throw e;
+        }
+    }
+
+    public void releaseSftp(ChannelSftp channel) {
+        PooledSession ps = owners.remove(channel);
+        if (ps == null) {
+            channel.disconnect();
+            return;
+        }
+        synchronized (ps.owner) {
+            ps.leased--;
+            ps.lastUsed = System.currentTimeMillis();
+            if (channel.isConnected() && ps.session.isConnected()) {
+                ps.idleSftp.addFirst(new IdleChannel(channel));
+                return;
+            }
+        }
+        channel.disconnect();
+    }
+
+    // --- SHELL ---
+
+    public ChannelShell openShell(String host, int port, String user, String pass) throws JSchException {
+        HostEntry entry = hosts.computeIfAbsent(key(host, port, user), k -> new HostEntry(host, port, user));
+        PooledSession ps;
+        synchronized (entry) {
+            pruneDead(entry);
+            ps = reserveSlot(entry, pass);
+        }
+        try {
+            ensureConnected(entry, ps);
+            ChannelShell ch = (ChannelShell) ps.session.openChannel("shell");
+            owners.put(ch, ps);
+            return ch;
+        } catch (JSchException e) {
+            synchronized (entry) {
+                ps.leased--;
+            }
+            throw e;
+        }
+    }
+
+    /** Канал для одной удаленной команды (хелперы синхронизации); закрывать через releaseChannel. */
+    public ChannelExec openExec(String host, int port, String user, String pass) throws JSchException {
+        HostEntry entry = hosts.computeIfAbsent(key(host, port, user), k -> new HostEntry(host, port, user));
+        PooledSession ps;
+        synchronized (entry) {
+            pruneDead(entry);
+            ps = reserveSlot(entry, pass);
+        }
+        try {
+            ensureConnected(entry, ps);
+            ChannelExec ch = (ChannelExec) ps.session.openChannel("exec");
+            owners.put(ch, ps);
+            return ch;
+        } catch (JSchException e) {
+            synchronized (entry) {
+                ps.leased--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Exec-канал в той же сессии, что и взятый SFTP-канал: одна команда рядом с текущей
+     * операцией без второго handshake. Слот сверх лимита занимается ненадолго - запас до
+     * MaxSessions сервера это покрывает. null, если канал не из пула.
+     */
+    public ChannelExec openExecBeside(ChannelSftp leased) throws JSchException {
+        PooledSession ps = owners.get(leased);
+        if (ps == null) return null;
+        synchronized (ps.owner) {
+            ps.leased++;
+        }
+        try {
+            ChannelExec ch = (ChannelExec) ps.session.openChannel("exec");
+            owners.put(ch, ps);
+            return ch;
+        } catch (JSchException e) {
+            synchronized (ps.owner) {
+                ps.leased--;
+            }
+            throw e;
+        }
+    }
+
+    /** Закрывает канал и освобождает его слот в сессии. */
+    public void releaseChannel(Channel channel) {
+        discard(channel);
+    }
+
+    private void discard(Channel channel) {
+        PooledSession ps = owners.remove(channel);
+        try {
+            channel.disconnect();
+        } catch (Exception ignored) {}
+        if (ps == null) return;
+        synchronized (ps.owner) {
+            ps.leased--;
+            ps.lastUsed = System.currentTimeMillis();
+            if (!ps.session.isConnected()) {
+                closeSession(ps);
+                ps.owner.sessions.remove(ps);
+            }
+        }
+    }
+
+    // --- SESSIONS ---
+
+    /**
+     * Вызывается под блокировкой entry. Только занимает слот: новая сессия добавляется
+     * еще не подключенной, handshake делает ensureConnected уже без блокировки.
+     */
+    private PooledSession reserveSlot(HostEntry entry, String pass) throws JSchException {
+        for (PooledSession candidate : entry.sessions) {
+            if (candidate.password.equals(pass) && candidate.openChannels() < MAX_CHANNELS_PER_SESSION) {
+                candidate.leased++;
+                candidate.lastUsed = System.currentTimeMillis();
+                return candidate;
+            }
+        }
+        PooledSession created = new PooledSession(entry, newSession(entry, pass), pass);
+        created.connector = Thread.currentThread();
+        created.leased++;
+        entry.sessions.add(created);
+        return created;
+    }
+
+    /** Вне блокировки entry: создатель сессии подключает ее, остальные ждут результата. */
+    private void ensureConnected(HostEntry entry, PooledSession ps) throws JSchException {
+        if (ps.connector == Thread.currentThread()) {
+            ps.connector = null;
+            try {
+                ps.session.connect(CONNECT_TIMEOUT_MS);
+            } catch (JSchException e) {
+                ps.connectError = e;
+                synchronized (entry) {
+                    entry.sessions.remove(ps);
+                }
+                throw e;
+            } finally {
+                ps.connected.countDown();
+            }
+            return;
+        }
+        try {
+            if (!ps.connected.await(CONNECT_TIMEOUT_MS * 2L, TimeUnit.MILLISECONDS)) {
+                throw new JSchException("Timed out waiting for SSH connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSchException("Interrupted while waiting for SSH connection");
+        }
+        if (ps.connectError != null) throw new JSchException(ps.connectError.getMessage(), ps.connectError);
+    }
+
+    private Session newSession(HostEntry entry, String pass) throws JSchException {
+        JSch jsch = new JSch();
+        Session s = jsch.getSession(entry.user, entry.host, entry.port);
+        s.setPassword(pass);
+        Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        // Разрешаем все популярные методы, чтобы не было ошибок "Auth fail"
+        config.put("PreferredAuthentications", "password,keyboard-interactive,publickey");
+        // Сессия общая для терминала и SFTP: сжатие выгодно для текстового трафика
+        config.put("compression.s2c", "zlib,none");
+        config.put("compression.c2s", "zlib,none");
+        s.setConfig(config);
+        // Keepalive, чтобы NAT мобильных сетей не рвал простаивающую сессию
+        s.setServerAliveInterval(KEEPALIVE_INTERVAL_MS);
+        s.setServerAliveCountMax(KEEPALIVE_MAX_MISSED);
+        return s;
+    }
+
+    /** Вызывается под блокировкой entry. Мертвые сессии переподключатся при следующем запросе. */
+    private void pruneDead(HostEntry entry) {
+        Iterator<PooledSession> it = entry.sessions.iterator();
+        while (it.hasNext()) {
+            PooledSession ps = it.next();
+            if (!ps.isConnecting() && !ps.session.isConnected()) {
+                closeSession(ps);
+                it.remove();
+            }
+        }
+    }
+
+    private void closeSession(PooledSession ps) {
+        for (IdleChannel idle : ps.idleSftp) {
+            try { idle.channel.disconnect(); } catch (Exception ignored) {}
+        }
+        ps.idleSftp.clear();
+        try { ps.session.disconnect(); } catch (Exception ignored) {}
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (HostEntry entry : hosts.values()) {
+            synchronized (entry) {
+                Iterator<PooledSession> it = entry.sessions.iterator();
+                while (it.hasNext()) {
+                    PooledSession ps = it.next();
+                    if (ps.isConnecting()) continue;
+                    Iterator<IdleChannel> ci = ps.idleSftp.iterator();
+                    while (ci.hasNext()) {
+                        IdleChannel idle = ci.next();
+                        if (now - idle.since > IDLE_CHANNEL_MS || !idle.channel.isConnected()) {
+                            try { idle.channel.disconnect(); } catch (Exception ignored) {}
+                            ci.remove();
+                        }
+                    }
+                    boolean unused = ps.openChannels() == 0 && now - ps.lastUsed > IDLE_SESSION_MS;
+                    if (unused || !ps.session.isConnected()) {
+                        closeSession(ps);
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    public void closeAll() {
+        for (HostEntry entry : hosts.values()) {
+            synchronized (entry) {
+                for (PooledSession ps : entry.sessions) closeSession(ps);
+                entry.sessions.clear();
+            }
+        }
+        owners.clear();
+    }
+}
\ No newline at end of file
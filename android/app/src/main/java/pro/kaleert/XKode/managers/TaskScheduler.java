@@ -0,0 +1,226 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий планировщик для всех вызовов из JS.
+ * Отдельные ограниченные пулы для диска, сети и CPU (zip), приоритеты внутри пула,
+ * отмена по requestId и отказ при переполнении очереди вместо шторма потоков.
+ *
+ * Отмена кооперативная: поток задачи не прерывается. Interrupt посреди JSch или
+ * FileChannel закрывает канал (ClosedByInterruptException) и может вернуть в пул
+ * SFTP-канал с недочитанным ответом. Задачи сами проверяют checkCancelled().
+ */
+public class TaskScheduler {
+
+    public enum Pool { DISK, NETWORK, CPU }
+
+    // Меньше - важнее. Внутри одного приоритета порядок FIFO
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int MAX_QUEUE = 128;
+    private static final long KEEP_ALIVE_SEC = 30;
+    // Как часто ожидание на потоке задачи просыпается проверить отмену
+    private static final long CANCEL_POLL_MS = 100;
+
+    // Задача, которую выполняет (или которой помогает) текущий поток
+    private static final ThreadLocal<Task> current = new ThreadLocal<>();
+
+    private static TaskScheduler instance;
+
+    private final ThreadPoolExecutor disk;
+    private final ThreadPoolExecutor network;
+    private final ThreadPoolExecutor cpu;
+    private final Map<String, Task> byRequestId = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private TaskScheduler() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        disk = createPool("xkode-disk", 4);
+        // Сетевые задачи в основном ждут сервер, их можно держать больше
+        network = createPool("xkode-net", 6);
+        cpu = createPool("xkode-cpu", Math.max(1, cores - 1));
+    }
+
+    public static synchronized TaskScheduler getInstance() {
+        if (instance == null) {
+            instance = new TaskScheduler();
+        }
+        return instance;
+    }
+
+    private static ThreadPoolExecutor createPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private ThreadPoolExecutor executor(Pool pool) {
+        switch (pool) {
+            case NETWORK: return network;
+            case CPU: return cpu;
+            default: return disk;
+        }
+    }
+
+    // --- TASK ---
+
+    private class Task implements Runnable, Comparable<Task> {
+        final ThreadPoolExecutor executor;
+        final int priority;
+        final long seq = sequence.getAndIncrement();
+        final String requestId;
+        final String errorCode;
+        final Promise promise;
+        final Callable<Object> work;
+        final AtomicBoolean settled = new AtomicBoolean();
+        volatile boolean cancelled;
+
+        Task(ThreadPoolExecutor executor, int priority, String requestId, String errorCode, Promise promise, Callable<Object> work) {
+            this.executor = executor;
+            this.priority = priority;
+            this.requestId = requestId;
+            this.errorCode = errorCode;
+            this.promise = promise;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            if (settled.get()) return; // отменена, пока ждала в очереди
+            current.set(this);
+            try {
+                Object result = work.call();
+                if (settled.compareAndSet(false, true) && promise != null) promise.resolve(result);
+            } catch (Throwable e) {
+                // Error (OOM на большом чтении, NoClassDefFoundError на старом API) тоже уходит
+                // в reject: иначе он убил бы поток пула вместе с процессом, а промис повис бы
+                String message = e instanceof Exception ? e.getMessage() : e.toString();
+                if (settled.compareAndSet(false, true) && promise != null) promise.reject(errorCode, message);
+            } finally {
+                current.remove();
+                // Если кто-то все же прервал поток, флаг не должен достаться следующей задаче
+                Thread.interrupted();
+                if (requestId != null) byRequestId.remove(requestId, this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (priority != o.priority) return Integer.compare(priority, o.priority);
+            return Long.compare(seq, o.seq);
+        }
+    }
+
+    // --- API ---
+
+    /**
+     * Ставит задачу в пул. Результат work уходит в promise.resolve, исключение - в reject с errorCode.
+     * requestId (может быть null) позволяет отменить задачу из JS через cancel().
+     */
+    public void submit(Pool pool, int priority, String requestId, String errorCode, Promise promise, Callable<Object> work) {
+        ThreadPoolExecutor executor = executor(pool);
+        // Фоновой очереди оставляем только половину, чтобы интерактивные запросы всегда помещались
+        int limit = priority >= PRIORITY_BACKGROUND ? MAX_QUEUE / 2 : MAX_QUEUE;
+        if (executor.getQueue().size() >= limit) {
+            promise.reject("BUSY", "Too many pending " + pool.name().toLowerCase() + " requests, try again later");
+            return;
+        }
+
+        Task task = new Task(executor, priority, requestId, errorCode, promise, work);
+        if (requestId != null) {
+            Task previous = byRequestId.put(requestId, task);
+            if (previous != null) cancel(previous);
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Фоновая работа без ответа в JS (обслуживание индексов по событиям наблюдателя).
+     * Ошибки глотаются; при забитой очереди работа не ставится и возвращается false.
+     */
+    public boolean runBackground(Pool pool, Callable<Object> work) {
+        ThreadPoolExecutor executor = executor(pool);
+        if (executor.getQueue().size() >= MAX_QUEUE / 2) return false;
+        executor.execute(new Task(executor, PRIORITY_BACKGROUND, null, null, null, work));
+        return true;
+    }
+
+    /** Отменяет задачу: из очереди убирает, выполняющейся выставляет флаг отмены. */
+    public boolean cancel(String requestId) {
+        Task task = byRequestId.remove(requestId);
+        return task != null && cancel(task);
+    }
+
+    private boolean cancel(Task task) {
+        if (!task.settled.compareAndSet(false, true)) return false;
+        task.executor.remove(task);
+        task.cancelled = true;
+        task.promise.reject("CANCELLED", "Request cancelled");
+        return true;
+    }
+
+    /** Отменена ли задача текущего потока (или поток прерван своим владельцем). */
+    public static boolean isCancelled() {
+        Task task = current.get();
+        return (task != null && task.cancelled) || Thread.currentThread().isInterrupted();
+    }
+
+    /** Проверка для долгих циклов (zip, поиск): отменена ли текущая задача. */
+    public static void checkCancelled() throws InterruptedException {
+        if (isCancelled()) {
+            throw new InterruptedException("Request cancelled");
+        }
+    }
+
+    /**
+     * Оборачивает работу вспомогательного потока (воркеры загрузки, распаковки), чтобы
+     * checkCancelled в нем видел отмену задачи, которая его запустила.
+     */
+    public static <T> Callable<T> inheritCancel(Callable<T> work) {
+        Task owner = current.get();
+        if (owner == null) return work;
+        return () -> {
+            Task previous = current.get();
+            current.set(owner);
+            try {
+                return work.call();
+            } finally {
+                if (previous == null) current.remove();
+                else current.set(previous);
+            }
+        };
+    }
+
+    /** Future.get, который просыпается на отмену текущей задачи. */
+    public static <T> T await(Future<T> future) throws Exception {
+        while (true) {
+            checkCancelled();
+            try {
+                return future.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                // еще не готово - снова проверяем отмену
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -8,16 +8,19 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.jcraft.jsch.ChannelShell;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 // Импортируем наш нативный компонент
 import pro.kaleert.XKode.views.ConsoleView;
@@ -33,6 +36,22 @@ public class TerminalManager {
     // Хранение активных UI-компонентов (чтобы писать в них напрямую)
     private final Map<String, ConsoleView> activeViews = new ConcurrentHashMap<>();
 
+    // Накопители вывода: не больше одной отправки в UI и JS за кадр
+    private final Map<String, OutputBuffer> outputs = new ConcurrentHashMap<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final long FRAME_MS = 16;
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+
+    // Последний размер PTY от View (cols, rows, px): упакован в long
+    private final Map<String, Long> ptySizes = new ConcurrentHashMap<>();
+
+    // Если false - при подключенном нативном View событие TERMINAL_OUTPUT в JS не шлем
+    private volatile boolean mirrorOutputToJs = true;
+
+    // История вывода: лимит памяти на сессию и сброс вытесненного на диск
+    private volatile int scrollbackBytes = 1024 * 1024;
+    private volatile boolean scrollbackSpill = false;
+
     private TerminalManager(ReactApplicationContext context) {
         this.reactContext = context;
     }
@@ -46,25 +65,55 @@ public class TerminalManager {
 
     // --- VIEW REGISTRATION ---
 
+    // Вызывается в главном потоке (ReactProp), как и dispatch
     public void registerView(String id, ConsoleView view) {
-        activeViews.put(id, view);
-        // Если бы у нас был буфер истории, мы могли бы его здесь восстановить
+        // Повторная регистрация того же View - история у него уже есть
+        if (activeViews.put(id, view) == view) return;
+        TerminalSession s = sessions.get(id);
+        OutputBuffer ob = outputs.get(id);
+        if (s == null || ob == null) return;
+
+        // История уже содержит и то, что еще ждет кадра: эту часть View пропустит при сбросе
+        String history;
+        synchronized (ob) {
+            history = s.scrollback.snapshotText();
+            ob.viewSkip = ob.pending.length();
+        }
+        if (!history.isEmpty()) view.appendText(history);
     }
 
     public void unregisterView(String id) {
         activeViews.remove(id);
     }
 
+    public void setMirrorOutputToJs(boolean enabled) {
+        mirrorOutputToJs = enabled;
+    }
+
+    /** Применяется к новым сессиям. */
+    public void configureScrollback(int maxBytes, boolean spillToDisk) {
+        scrollbackBytes = maxBytes;
+        scrollbackSpill = spillToDisk;
+    }
+
     // --- SESSION CLASS ---
 
     private static class TerminalSession {
         String id;
-        Session jschSession;
         ChannelShell channel;
         InputStream in;
         OutputStream out;
         Thread reader;
-        boolean isRunning = true;
+        Thread writer;
+        volatile boolean isRunning = true;
+
+        // Ввод с клавиатуры: один писатель на сессию, порядок строго FIFO
+        final ConcurrentLinkedQueue<byte[]> input = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingBytes = new AtomicInteger();
+        // Смена размера PTY - тоже сетевой запрос, поэтому идет через поток писателя
+        final AtomicLong pendingResize = new AtomicLong();
+
+        ScrollbackBuffer scrollback;
     }
 
     // --- SSH MANAGEMENT ---
@@ -73,32 +122,25 @@ public class TerminalManager {
         new Thread(() -> {
             TerminalSession session = new TerminalSession();
             session.id = id;
+            File spill = scrollbackSpill ? new File(reactContext.getCacheDir(), "term-" + id + ".log") : null;
+            session.scrollback = new ScrollbackBuffer(scrollbackBytes, spill);
+            ChannelShell ch = null;
             try {
-                JSch jsch = new JSch();
-                Session s = jsch.getSession(user, host, port);
-                s.setPassword(pass);
-                Properties config = new Properties();
-                config.put("StrictHostKeyChecking", "no");
-                // Оптимизация для скорости
-                config.put("PreferredAuthentications", "password,keyboard-interactive,publickey");
-                config.put("compression.s2c", "zlib,none"); 
-                config.put("compression.c2s", "zlib,none");
-                
-                s.setConfig(config);
-                s.connect(10000);
-
-                ChannelShell ch = (ChannelShell) s.openChannel("shell");
+                // Канал поверх общей сессии из пула (та же, что у SFTP)
+                ch = SshSessionPool.getInstance().openShell(host, port, user, pass);
                 // PTY Type: xterm для поддержки цветов и курсора
                 ch.setPtyType("xterm"); 
                 ch.setPty(true);
+                Long size = ptySizes.get(id);
+                if (size != null) applyPtySize(ch, size);
                 ch.connect();
 
-                session.jschSession = s;
                 session.channel = ch;
                 session.in = ch.getInputStream();
                 session.out = ch.getOutputStream();
 
                 sessions.put(id, session);
+                startWriter(session);
                 
                 // Приветственное сообщение
                 emitData(id, "Connected to " + host + " (XKode Native)\r\n");
@@ -106,6 +148,7 @@ public class TerminalManager {
                 startReader(session);
 
             } catch (Exception e) {
+                if (ch != null) SshSessionPool.getInstance().releaseChannel(ch);
                 emitData(id, "SSH Connection Error: " + e.getMessage() + "\r\n");
             }
         }).start();
@@ -117,42 +160,116 @@ public class TerminalManager {
 
     public void write(String id, String data) {
         TerminalSession s = sessions.get(id);
-        if (s != null && s.out != null) {
-            new Thread(() -> {
+        if (s != null && s.out != null && s.isRunning) {
+            // Важно: пишем байты UTF-8, чтобы работала кириллица
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            s.pendingBytes.addAndGet(bytes.length);
+            s.input.offer(bytes);
+            LockSupport.unpark(s.writer);
+        }
+    }
+
+    /** Сколько байт ввода еще не отправлено на сервер. */
+    public int getPendingInput(String id) {
+        TerminalSession s = sessions.get(id);
+        return s != null ? s.pendingBytes.get() : 0;
+    }
+
+    /** Сколько байт истории доступно (память + сегмент на диске). */
+    public long getScrollbackLength(String id) {
+        TerminalSession s = sessions.get(id);
+        return s != null ? s.scrollback.length() : 0;
+    }
+
+    /** Окно истории для прокрутки назад в JS. */
+    public String getScrollback(String id, long offset, int length) throws Exception {
+        TerminalSession s = sessions.get(id);
+        if (s == null) throw new Exception("Session not found: " + id);
+        return s.scrollback.read(offset, length);
+    }
+
+    /** Размер экрана нативного View; сервер получит window-change. */
+    public void resize(String id, int cols, int rows, int widthPx, int heightPx) {
+        long packed = ((long) (cols & 0xFFFF) << 48) | ((long) (rows & 0xFFFF) << 32)
+            | ((long) (widthPx & 0xFFFF) << 16) | (heightPx & 0xFFFF);
+        ptySizes.put(id, packed);
+        TerminalSession s = sessions.get(id);
+        if (s != null && s.isRunning) {
+            s.pendingResize.set(packed);
+            LockSupport.unpark(s.writer);
+        }
+    }
+
+    private static void applyPtySize(ChannelShell ch, long packed) {
+        ch.setPtySize((int) (packed >>> 48) & 0xFFFF, (int) (packed >>> 32) & 0xFFFF,
+            (int) (packed >>> 16) & 0xFFFF, (int) packed & 0xFFFF);
+    }
+
+    private void startWriter(TerminalSession s) {
+        s.writer = new Thread(() -> {
+            byte[] batch = new byte[4096];
+            while (s.isRunning) {
+                long resize = s.pendingResize.getAndSet(0);
+                if (resize != 0) applyPtySize(s.channel, resize);
+                // Склеиваем все, что накопилось (вставка, быстрый набор), в один write+flush
+                int len = 0;
+                byte[] chunk;
+                while ((chunk = s.input.poll()) != null) {
+                    if (len + chunk.length > batch.length) {
+                        batch = Arrays.copyOf(batch, Math.max(batch.length * 2, len + chunk.length));
+                    }
+                    System.arraycopy(chunk, 0, batch, len, chunk.length);
+                    len += chunk.length;
+                }
+                if (len == 0) {
+                    LockSupport.park(s);
+                    continue;
+                }
                 try {
-                    // Важно: пишем байты UTF-8, чтобы работала кириллица
-                    s.out.write(data.getBytes(StandardCharsets.UTF_8));
+                    s.out.write(batch, 0, len);
                     s.out.flush();
                 } catch (IOException e) {
                     e.printStackTrace();
+                } finally {
+                    s.pendingBytes.addAndGet(-len);
                 }
-            }).start();
-        }
+                // Большая вставка не должна держать буфер навсегда
+                if (batch.length > 64 * 1024) batch = new byte[4096];
+            }
+        }, "xkode-term-writer-" + s.id);
+        s.writer.start();
     }
 
     public void close(String id) {
         TerminalSession s = sessions.get(id);
         if (s != null) {
             s.isRunning = false;
+            if (s.writer != null) LockSupport.unpark(s.writer);
             try {
-                if (s.channel != null) s.channel.disconnect();
-                if (s.jschSession != null) s.jschSession.disconnect();
+                // Сессию не рвем: она общая и закроется пулом по простою
+                if (s.channel != null) SshSessionPool.getInstance().releaseChannel(s.channel);
             } catch (Exception ignored) {}
             sessions.remove(id);
-            activeViews.remove(id); // Удаляем ссылку на View
+            ptySizes.remove(id);
+            s.scrollback.close();
+            OutputBuffer ob = outputs.remove(id);
+            ConsoleView view = activeViews.remove(id); // Удаляем ссылку на View
+            // Хвост вывода ("[Session Closed]") еще может ждать кадра
+            if (ob != null) ob.detachedView = view;
         }
     }
 
     private void startReader(TerminalSession s) {
         s.reader = new Thread(() -> {
-            byte[] buf = new byte[8192]; // Буфер побольше
-            int len;
+            // Буфер побольше; декодер сам склеивает символы, разрезанные границей чтения
+            Utf8StreamDecoder decoder = new Utf8StreamDecoder(8192);
             try {
-                while (s.isRunning && (len = s.in.read(buf)) != -1) {
-                    // Читаем сырые данные
-                    String text = new String(buf, 0, len, StandardCharsets.UTF_8);
-                    emitData(s.id, text);
+                while (s.isRunning && decoder.read(s.in) != -1) {
+                    String text = decoder.drain();
+                    if (!text.isEmpty()) emitData(s.id, text);
                 }
+                String tail = decoder.finish();
+                if (!tail.isEmpty()) emitData(s.id, tail);
             } catch (Exception e) {
                 // Socket closed
             }
@@ -165,20 +282,80 @@ public class TerminalManager {
     // --- DATA DISPATCHER ---
 
     private void emitData(String id, String data) {
-        ConsoleView view = activeViews.get(id);
-        if (view != null) {
-            new Handler(Looper.getMainLooper()).post(() -> {
-                try {
-                    view.appendText(data);
-                } catch (Exception e) {
-                    // Игнорируем ошибки UI обновлений если view умерла
+        TerminalSession s = sessions.get(id);
+        outputs.computeIfAbsent(id, OutputBuffer::new).append(data, s != null ? s.scrollback : null);
+    }
+
+    /**
+     * Копит вывод reader-потока и сбрасывает его в главный поток не чаще раза в кадр
+     * (или сразу, если накопилось больше FLUSH_THRESHOLD символов).
+     */
+    private class OutputBuffer implements Runnable {
+        final String id;
+        private StringBuilder pending = new StringBuilder();
+        private boolean scheduled;
+        private boolean urgent;
+        // Сколько символов из начала pending View уже получил из истории
+        private int viewSkip;
+        volatile ConsoleView detachedView;
+
+        OutputBuffer(String id) {
+            this.id = id;
+        }
+
+        void append(String data, ScrollbackBuffer history) {
+            synchronized (this) {
+                // Под тем же замком, что и pending: registerView видит согласованный срез
+                if (history != null) history.append(data);
+                pending.append(data);
+                if (!scheduled) {
+                    scheduled = true;
+                    mainHandler.postDelayed(this, FRAME_MS);
+                } else if (!urgent && pending.length() >= FLUSH_THRESHOLD) {
+                    urgent = true;
+                    mainHandler.removeCallbacks(this);
+                    mainHandler.post(this);
                 }
-            });
+            }
+        }
+
+        @Override
+        public void run() {
+            String data;
+            int skip;
+            synchronized (this) {
+                data = pending.toString();
+                skip = viewSkip;
+                viewSkip = 0;
+                // После большого всплеска (cat лога) не держим огромный буфер
+                if (pending.capacity() > FLUSH_THRESHOLD * 8) {
+                    pending = new StringBuilder();
+                } else {
+                    pending.setLength(0);
+                }
+                scheduled = false;
+                urgent = false;
+            }
+            if (!data.isEmpty()) dispatch(this, data, skip);
+        }
+    }
+
+    // Вызывается в главном потоке
+    private void dispatch(OutputBuffer ob, String data, int viewSkip) {
+        ConsoleView view = activeViews.get(ob.id);
+        if (view == null) view = ob.detachedView;
+        if (view != null) {
+            try {
+                view.appendText(viewSkip > 0 ? data.substring(viewSkip) : data);
+            } catch (Exception e) {
+                // Игнорируем ошибки UI обновлений если view умерла
+            }
+            if (!mirrorOutputToJs) return;
         }
 
         if (reactContext != null && reactContext.hasActiveCatalystInstance()) {
             WritableMap params = Arguments.createMap();
-            params.putString("sessionId", id);
+            params.putString("sessionId", ob.id);
             params.putString("data", data);
             reactContext
                 .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
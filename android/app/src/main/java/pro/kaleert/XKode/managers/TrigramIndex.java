@@ -0,0 +1,719 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Персистентный триграммный индекс рабочей папки.
+ *
+ * Файлы получают id; индекс - набор неизменяемых сегментов (по FILES_PER_SEGMENT файлов),
+ * в каждом отсортированная таблица триграмм и списки id (дельты в varint), сегменты
+ * читаются через mmap. Изменившийся файл получает новый id в новом сегменте, старый id
+ * помечается мертвым; когда мертвых слишком много - индекс строится заново.
+ * Так сборка не держит в памяти постинги всего репозитория.
+ *
+ * Таблица файлов лежит в manifest.bin и переписывается только в refresh. Точечные
+ * обновления наблюдателя дописывают в journal.bin лишь свои изменения (новый сегмент,
+ * ожившие и умершие id); load проигрывает журнал поверх манифеста.
+ */
+class TrigramIndex {
+
+    private static final int MANIFEST_MAGIC = 0x584B5449; // XKTI
+    private static final int SEGMENT_MAGIC = 0x584B5453;  // XKTS
+    private static final int VERSION = 1;
+    private static final int FILES_PER_SEGMENT = 2000;
+    private static final long MAX_INDEXED_FILE = 1024 * 1024;
+    private static final double REBUILD_DEAD_RATIO = 0.3;
+    private static final long MAX_JOURNAL = 1024 * 1024;
+
+    // Записи журнала
+    private static final byte OP_SEGMENT = 'S';
+    private static final byte OP_LIVE = 'L';
+    private static final byte OP_DEAD = 'D';
+
+    private static final Map<String, TrigramIndex> opened = new HashMap<>();
+
+    private final File root;
+    private final File dir;
+    private final List<Pattern> ignores = new ArrayList<>();
+
+    // Таблица файлов: id -> относительный путь, размер, mtime
+    private final List<String> paths = new ArrayList<>();
+    private long[] sizes = new long[1024];
+    private long[] mtimes = new long[1024];
+    private final BitSet alive = new BitSet();
+    private final Map<String, Integer> byPath = new HashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextSegment;
+
+    // Изменения после последней записи на диск: уходят в журнал или пропадают при сжатии
+    private final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    private final DataOutputStream deltaOut = new DataOutputStream(delta);
+
+    private TrigramIndex(File root, File dir) {
+        this.root = root;
+        this.dir = dir;
+        for (String g : ContentSearch.DEFAULT_IGNORES) ignores.add(ContentSearch.globToRegex(g));
+    }
+
+    /** Индекс для root; с диска подхватывается сразу, актуализирует его refresh(). */
+    static synchronized TrigramIndex forRoot(String rootPath, File baseDir) throws Exception {
+        File root = new File(rootPath).getCanonicalFile();
+        if (!root.isDirectory()) throw new Exception("Workspace root is not a directory: " + rootPath);
+        TrigramIndex index = opened.get(root.getPath());
+        if (index == null) {
+            File dir = new File(baseDir, shortHash(root.getPath()));
+            dir.mkdirs();
+            index = new TrigramIndex(root, dir);
+            index.load();
+            opened.put(root.getPath(), index);
+        }
+        return index;
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    synchronized int fileCount() {
+        return alive.cardinality();
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    // --- UPDATE ---
+
+    /** Полная сверка с диском по размеру и mtime; переиндексируются только изменившиеся. */
+    synchronized void refresh() throws Exception {
+        Map<String, long[]> seen = new HashMap<>();
+        walk(root, "", seen);
+
+        for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+            if (!seen.containsKey(paths.get(id))) {
+                kill(id);
+                byPath.remove(paths.get(id));
+            }
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : seen.entrySet()) {
+            Integer id = byPath.get(e.getKey());
+            if (id != null && sizes[id] == e.getValue()[0] && mtimes[id] == e.getValue()[1]) continue;
+            changed.add(e.getKey());
+        }
+
+        int dead = paths.size() - alive.cardinality();
+        if (paths.size() > 0 && dead + changed.size() > (paths.size() + changed.size()) * REBUILD_DEAD_RATIO) {
+            reset();
+            changed = new ArrayList<>(seen.keySet());
+        }
+        changed.sort(null);
+        index(changed, seen, true);
+        persist(true);
+    }
+
+    /** Точечное обновление по событиям наблюдателя (абсолютные пути файлов или папок). */
+    synchronized void update(Collection<String> absolutePaths) throws Exception {
+        Map<String, long[]> seen = new HashMap<>();
+        String prefix = root.getPath() + "/";
+        for (String abs : absolutePaths) {
+            File f = new File(abs);
+            if (!abs.startsWith(prefix)) {
+                // Наблюдатель мог прийти через симлинк (/sdcard) - сверяем по реальному пути
+                File parent = f.getParentFile();
+                if (parent == null) continue;
+                f = new File(parent.getCanonicalFile(), f.getName());
+                if (!f.getPath().startsWith(prefix)) continue;
+            }
+            String rel = f.getPath().substring(prefix.length());
+            if (isIgnored(f.getName(), rel)) continue;
+
+            if (f.isDirectory()) {
+                // Папку перенесли внутрь - индексируем ее содержимое
+                if (!FileSystemManager.isSymlink(f)) walk(f, rel, seen);
+                continue;
+            }
+            Integer id = byPath.get(rel);
+            if (f.isFile()) {
+                long[] meta = { f.length(), f.lastModified() };
+                if (id == null || sizes[id] != meta[0] || mtimes[id] != meta[1]) seen.put(rel, meta);
+            } else if (id != null) {
+                kill(id);
+                byPath.remove(rel);
+            } else {
+                // Удалили папку: хороним все файлы под ней
+                String dirPrefix = rel + "/";
+                Iterator<Map.Entry<String, Integer>> it = byPath.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Integer> e = it.next();
+                    if (!e.getKey().startsWith(dirPrefix)) continue;
+                    kill(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : seen.entrySet()) {
+            Integer id = byPath.get(e.getKey());
+            if (id != null && sizes[id] == e.getValue()[0] && mtimes[id] == e.getValue()[1]) continue;
+            changed.add(e.getKey());
+        }
+        changed.sort(null);
+        index(changed, seen, false);
+        // Пачка наблюдателя стоит O(изменений), а не O(файлов): только дописываем журнал
+        persist(false);
+    }
+
+    /** События наблюдателя: обновляем все открытые индексы, в чьи корни попали пути. */
+    static void notifyChanged(Collection<String> absolutePaths) {
+        List<TrigramIndex> indexes;
+        synchronized (TrigramIndex.class) {
+            indexes = new ArrayList<>(opened.values());
+        }
+        for (TrigramIndex index : indexes) {
+            try {
+                index.update(absolutePaths);
+            } catch (Exception ignored) {
+                // Не страшно: следующий indexWorkspace все равно сверит дерево с диском
+            }
+        }
+    }
+
+    /** Переполнение наблюдателя: полная сверка индексов, чьи корни пересекаются с папкой. */
+    static void refreshOverlapping(String absolutePath) {
+        String path;
+        try {
+            path = new File(absolutePath).getCanonicalPath();
+        } catch (IOException e) {
+            return;
+        }
+        List<TrigramIndex> indexes;
+        synchronized (TrigramIndex.class) {
+            indexes = new ArrayList<>(opened.values());
+        }
+        for (TrigramIndex index : indexes) {
+            String rootPath = index.root.getPath();
+            if (!isUnder(path, rootPath) && !isUnder(rootPath, path)) continue;
+            try {
+                index.refresh();
+            } catch (Exception ignored) {
+                // Как и в notifyChanged: indexWorkspace все равно сверит дерево с диском
+            }
+        }
+    }
+
+    private static boolean isUnder(String path, String dir) {
+        return path.equals(dir) || path.startsWith(dir.endsWith("/") ? dir : dir + "/");
+    }
+
+    private void walk(File dir, String rel, Map<String, long[]> out) throws InterruptedException {
+        TaskScheduler.checkCancelled();
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File f : children) {
+            String childRel = rel.isEmpty() ? f.getName() : rel + "/" + f.getName();
+            if (isIgnored(f.getName(), childRel)) continue;
+            if (f.isDirectory()) {
+                // Как и ContentSearch, ссылки на папки не обходим - иначе цикл и дубли путей
+                if (FileSystemManager.isSymlink(f)) continue;
+                walk(f, childRel, out);
+            } else {
+                out.put(childRel, new long[] { f.length(), f.lastModified() });
+            }
+        }
+    }
+
+    private boolean isIgnored(String name, String rel) {
+        for (Pattern p : ignores) {
+            if (p.matcher(name).matches() || p.matcher(rel).matches()) return true;
+        }
+        return false;
+    }
+
+    // Сегмент пишется целиком, и только после этого новые id становятся живыми.
+    // compact - после каждого сегмента переписать манифест, иначе дописать журнал
+    private void index(List<String> changed, Map<String, long[]> meta, boolean compact) throws Exception {
+        byte[] buf = new byte[64 * 1024];
+        IntSet unique = new IntSet();
+        for (int from = 0; from < changed.size(); from += FILES_PER_SEGMENT) {
+            List<String> chunk = changed.subList(from, Math.min(changed.size(), from + FILES_PER_SEGMENT));
+            Map<Integer, IntList> postings = new HashMap<>();
+            int[] newIds = new int[chunk.size()];
+
+            for (int i = 0; i < chunk.size(); i++) {
+                TaskScheduler.checkCancelled();
+                String rel = chunk.get(i);
+                long[] m = meta.get(rel);
+                int id = addFile(rel, m[0], m[1]);
+                newIds[i] = id;
+
+                buf = readForIndex(new File(root, rel), m[0], buf);
+                if (buf == null) {
+                    buf = new byte[64 * 1024];
+                    continue;
+                }
+                unique.clear();
+                int n = (int) Math.min(m[0], buf.length);
+                for (int j = 0; j + 2 < n; j++) {
+                    unique.add(trigram(buf[j], buf[j + 1], buf[j + 2]));
+                }
+                for (int k = 0; k < unique.table.length; k++) {
+                    int t = unique.table[k];
+                    if (t == 0) continue;
+                    postings.computeIfAbsent(t - 1, x -> new IntList()).add(id);
+                }
+            }
+
+            if (!postings.isEmpty()) {
+                Segment seg = writeSegment(postings);
+                segments.add(seg);
+                deltaOut.writeByte(OP_SEGMENT);
+                deltaOut.writeInt(nextSegment);
+                deltaOut.writeUTF(seg.file.getName());
+                // Сколько id выдано к этому сегменту: их нельзя выдать снова, даже если
+                // записи L этой пачки не успели попасть на диск
+                deltaOut.writeInt(paths.size());
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                live(chunk.get(i), newIds[i]);
+                deltaOut.writeByte(OP_LIVE);
+                deltaOut.writeInt(newIds[i]);
+                deltaOut.writeUTF(chunk.get(i));
+                deltaOut.writeLong(sizes[newIds[i]]);
+                deltaOut.writeLong(mtimes[newIds[i]]);
+            }
+            persist(compact);
+        }
+    }
+
+    // null - файл не индексируем (бинарный, большой или недоступен)
+    private static byte[] readForIndex(File f, long size, byte[] buf) {
+        if (size > MAX_INDEXED_FILE) return null;
+        if (buf.length < size) buf = new byte[(int) size];
+        try (FileInputStream in = new FileInputStream(f)) {
+            int off = 0, n;
+            while (off < size && (n = in.read(buf, off, (int) size - off)) != -1) off += n;
+        } catch (IOException e) {
+            return null;
+        }
+        int checkLimit = (int) Math.min(size, 512);
+        for (int i = 0; i < checkLimit; i++) {
+            if (buf[i] == 0) return null;
+        }
+        return buf;
+    }
+
+    private int addFile(String rel, long size, long mtime) {
+        int id = paths.size();
+        paths.add(rel);
+        if (id >= sizes.length) {
+            sizes = Arrays.copyOf(sizes, id * 2);
+            mtimes = Arrays.copyOf(mtimes, id * 2);
+        }
+        sizes[id] = size;
+        mtimes[id] = mtime;
+        return id;
+    }
+
+    // id стал текущей версией файла rel; прежняя версия умирает
+    private void live(String rel, int id) {
+        Integer old = byPath.put(rel, id);
+        if (old != null) alive.clear(old);
+        alive.set(id);
+    }
+
+    private void kill(int id) throws IOException {
+        alive.clear(id);
+        deltaOut.writeByte(OP_DEAD);
+        deltaOut.writeInt(id);
+    }
+
+    private void reset() {
+        delta.reset();
+        segments.clear();
+        File[] old = dir.listFiles();
+        if (old != null) {
+            for (File f : old) f.delete();
+        }
+        paths.clear();
+        alive.clear();
+        byPath.clear();
+    }
+
+    // --- QUERY ---
+
+    /**
+     * Файлы, которые могут содержать literal (надмножество: регистр ASCII свернут).
+     * Без триграмм (короткий запрос) - все живые файлы.
+     */
+    synchronized List<File> candidates(String literal) {
+        byte[] q = literal.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        IntSet wanted = new IntSet();
+        for (int j = 0; j + 2 < q.length; j++) {
+            // Не-ASCII байты могут отличаться регистром - по ним не фильтруем
+            if (q[j] < 0 || q[j + 1] < 0 || q[j + 2] < 0) continue;
+            wanted.add(trigram(q[j], q[j + 1], q[j + 2]));
+        }
+
+        List<File> result = new ArrayList<>();
+        if (wanted.size == 0) {
+            for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+                result.add(new File(root, paths.get(id)));
+            }
+            return result;
+        }
+
+        for (Segment seg : segments) {
+            int[] ids = null;
+            for (int k = 0; k < wanted.table.length && (ids == null || ids.length > 0); k++) {
+                int t = wanted.table[k];
+                if (t == 0) continue;
+                int[] list = seg.lookup(t - 1);
+                ids = ids == null ? list : intersect(ids, list);
+            }
+            if (ids == null) continue;
+            for (int id : ids) {
+                if (alive.get(id)) result.add(new File(root, paths.get(id)));
+            }
+        }
+        // Большие файлы в индекс не попадают - их проверяет сам поиск
+        for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+            if (sizes[id] > MAX_INDEXED_FILE) result.add(new File(root, paths.get(id)));
+        }
+        return result;
+    }
+
+    synchronized List<File> allFiles() {
+        List<File> result = new ArrayList<>();
+        for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+            result.add(new File(root, paths.get(id)));
+        }
+        return result;
+    }
+
+    /** Нечеткий "go to file": символы запроса по порядку, бонусы за начало слова и имя файла. */
+    synchronized List<Object[]> findFiles(String query, int limit) {
+        String q = query.toLowerCase(Locale.ROOT);
+        PriorityQueue<Object[]> top = new PriorityQueue<>(limit + 1, (a, b) -> Integer.compare((int) a[1], (int) b[1]));
+        for (int id = alive.nextSetBit(0); id >= 0; id = alive.nextSetBit(id + 1)) {
+            String path = paths.get(id);
+            int score = fuzzyScore(path, q);
+            if (score < 0) continue;
+            top.add(new Object[] { path, score });
+            if (top.size() > limit) top.poll();
+        }
+        List<Object[]> result = new ArrayList<>(top);
+        result.sort((a, b) -> Integer.compare((int) b[1], (int) a[1]));
+        for (Object[] r : result) r[0] = new File(root, (String) r[0]).getPath();
+        return result;
+    }
+
+    private static int fuzzyScore(String path, String q) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int score = 0;
+        int streak = 0;
+        int last = -2;
+        int pi = 0;
+        for (int qi = 0; qi < q.length(); qi++) {
+            char c = q.charAt(qi);
+            while (pi < path.length() && Character.toLowerCase(path.charAt(pi)) != c) pi++;
+            if (pi == path.length()) return -1;
+            streak = pi == last + 1 ? streak + 1 : 0;
+            score += 1 + streak * 5;
+            if (pi == 0 || "/_-. ".indexOf(path.charAt(pi - 1)) >= 0) score += 10;
+            if (pi >= nameStart) score += 3;
+            last = pi;
+            pi++;
+        }
+        return score * 100 - path.length();
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { out[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int trigram(byte a, byte b, byte c) {
+        return (fold(a) << 16) | (fold(b) << 8) | fold(c);
+    }
+
+    private static int fold(byte b) {
+        return (b >= 'A' && b <= 'Z') ? b + 32 : b & 0xFF;
+    }
+
+    // --- SEGMENTS ---
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buf;
+        final int count;
+        final int postingsStart;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            if (buf.getInt(0) != SEGMENT_MAGIC) throw new IOException("Bad segment " + file);
+            count = buf.getInt(4);
+            postingsStart = 8 + count * 12;
+        }
+
+        int[] lookup(int trigram) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int t = buf.getInt(8 + mid * 12);
+                if (t < trigram) lo = mid + 1;
+                else if (t > trigram) hi = mid - 1;
+                else return decode(buf.getInt(8 + mid * 12 + 4), buf.getInt(8 + mid * 12 + 8));
+            }
+            return new int[0];
+        }
+
+        private int[] decode(int offset, int n) {
+            int[] ids = new int[n];
+            int pos = postingsStart + offset;
+            int prev = 0;
+            for (int i = 0; i < n; i++) {
+                int v = 0, shift = 0, b;
+                do {
+                    b = buf.get(pos++) & 0xFF;
+                    v |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                prev += v;
+                ids[i] = prev;
+            }
+            return ids;
+        }
+    }
+
+    private Segment writeSegment(Map<Integer, IntList> postings) throws IOException {
+        int[] trigrams = new int[postings.size()];
+        int k = 0;
+        for (Integer t : postings.keySet()) trigrams[k++] = t;
+        Arrays.sort(trigrams);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] offsets = new int[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            offsets[i] = data.size();
+            IntList ids = postings.get(trigrams[i]);
+            int prev = 0;
+            for (int j = 0; j < ids.size; j++) {
+                int delta = ids.items[j] - prev;
+                prev = ids.items[j];
+                while ((delta & ~0x7F) != 0) {
+                    data.write((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                data.write(delta);
+            }
+        }
+
+        File file = new File(dir, "seg-" + (nextSegment++) + ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(trigrams.length);
+            for (int i = 0; i < trigrams.length; i++) {
+                out.writeInt(trigrams[i]);
+                out.writeInt(offsets[i]);
+                out.writeInt(postings.get(trigrams[i]).size);
+            }
+            data.writeTo(out);
+        }
+        return new Segment(file);
+    }
+
+    // --- MANIFEST ---
+
+    /** compact - переписать manifest.bin и сбросить журнал, иначе дописать delta в журнал. */
+    private void persist(boolean compact) throws IOException {
+        File journal = new File(dir, "journal.bin");
+        if (compact || journal.length() + delta.size() > MAX_JOURNAL) {
+            // Журнал удаляется до нового манифеста: после сбоя между ними останется старый
+            // манифест без журнала - устаревший, но refresh сверит его по размеру и mtime
+            journal.delete();
+            saveManifest();
+        } else if (delta.size() > 0) {
+            try (FileOutputStream out = new FileOutputStream(journal, true)) {
+                delta.writeTo(out);
+            }
+        }
+        delta.reset();
+    }
+
+    private void saveManifest() throws IOException {
+        File tmp = new File(dir, "manifest.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getPath());
+            out.writeInt(nextSegment);
+            out.writeInt(segments.size());
+            for (Segment s : segments) out.writeUTF(s.file.getName());
+            out.writeInt(paths.size());
+            for (int id = 0; id < paths.size(); id++) {
+                out.writeUTF(paths.get(id));
+                out.writeLong(sizes[id]);
+                out.writeLong(mtimes[id]);
+                out.writeBoolean(alive.get(id));
+            }
+        }
+        if (!tmp.renameTo(new File(dir, "manifest.bin"))) throw new IOException("Failed to save index manifest");
+    }
+
+    private void load() {
+        File manifest = new File(dir, "manifest.bin");
+        if (!manifest.exists()) {
+            reset();
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest), 64 * 1024))) {
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != VERSION || !root.getPath().equals(in.readUTF())) {
+                throw new IOException("Incompatible index");
+            }
+            nextSegment = in.readInt();
+            int segCount = in.readInt();
+            for (int i = 0; i < segCount; i++) segments.add(new Segment(new File(dir, in.readUTF())));
+            int files = in.readInt();
+            for (int id = 0; id < files; id++) {
+                String rel = in.readUTF();
+                addFile(rel, in.readLong(), in.readLong());
+                if (in.readBoolean()) {
+                    alive.set(id);
+                    byPath.put(rel, id);
+                }
+            }
+            File journal = new File(dir, "journal.bin");
+            if (journal.exists()) {
+                replayJournal(journal);
+                // Оборванный хвост журнала нельзя продолжать дописывать - сжимаем сразу
+                persist(true);
+            }
+        } catch (IOException e) {
+            // Битый или старый индекс - проще построить заново
+            reset();
+        }
+    }
+
+    private void replayJournal(File journal) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal), 64 * 1024))) {
+            while (true) {
+                int op = in.read();
+                if (op == -1) break;
+                if (op == OP_SEGMENT) {
+                    nextSegment = Math.max(nextSegment, in.readInt());
+                    segments.add(new Segment(new File(dir, in.readUTF())));
+                    int ids = in.readInt();
+                    while (paths.size() < ids) addFile("", 0, 0);
+                } else if (op == OP_LIVE) {
+                    int id = in.readInt();
+                    String rel = in.readUTF();
+                    long size = in.readLong();
+                    long mtime = in.readLong();
+                    // id, выданные файлам прерванной пачки, так и остаются мертвыми
+                    while (paths.size() <= id) addFile("", 0, 0);
+                    paths.set(id, rel);
+                    sizes[id] = size;
+                    mtimes[id] = mtime;
+                    live(rel, id);
+                } else if (op == OP_DEAD) {
+                    int id = in.readInt();
+                    alive.clear(id);
+                    if (id < paths.size()) byPath.remove(paths.get(id), id);
+                } else {
+                    throw new IOException("Bad index journal");
+                }
+            }
+        } catch (EOFException e) {
+            // Запись оборвалась на сбое: все до нее уже применено
+        }
+    }
+
+    static String shortHash(String s) throws Exception {
+        byte[] d = MessageDigest.getInstance("SHA-1").digest(s.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) sb.append(String.format("%02x", d[i]));
+        return sb.toString();
+    }
+
+    // --- PRIMITIVE COLLECTIONS ---
+
+    // Открытая адресация без боксинга; 0 - пусто, поэтому храним значение + 1
+    private static class IntSet {
+        int[] table = new int[4096];
+        int size;
+
+        void add(int v) {
+            v += 1;
+            if (size * 2 >= table.length) grow();
+            int mask = table.length - 1;
+            int i = (v * 0x9E3779B9) >>> 7 & mask;
+            while (table[i] != 0) {
+                if (table[i] == v) return;
+                i = (i + 1) & mask;
+            }
+            table[i] = v;
+            size++;
+        }
+
+        void clear() {
+            if (table.length > 64 * 1024) table = new int[4096];
+            else Arrays.fill(table, 0);
+            size = 0;
+        }
+
+        private void grow() {
+            int[] old = table;
+            table = new int[old.length * 2];
+            size = 0;
+            for (int v : old) {
+                if (v != 0) add(v - 1);
+            }
+        }
+    }
+
+    private static class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+    }
+}
\ No newline at end of file
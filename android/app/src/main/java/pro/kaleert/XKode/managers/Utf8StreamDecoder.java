@@ -0,0 +1,67 @@
+package pro.kaleert.XKode.managers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковый UTF-8 декодер для reader-потока терминала.
+ * Буферы переиспользуются, а неполная многобайтовая последовательность на границе
+ * чтения (кириллица, псевдографика, emoji) переносится в следующий вызов.
+ * Не потокобезопасен: один экземпляр на сессию.
+ */
+class Utf8StreamDecoder {
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer in;
+    // UTF-8 дает не больше одного char на байт, поэтому out никогда не переполнится
+    private final CharBuffer out;
+
+    Utf8StreamDecoder(int capacity) {
+        in = ByteBuffer.allocate(capacity);
+        out = CharBuffer.allocate(capacity);
+    }
+
+    /** Читает из потока прямо во внутренний буфер (после перенесенного хвоста). */
+    int read(InputStream stream) throws IOException {
+        int n = stream.read(in.array(), in.arrayOffset() + in.position(), in.remaining());
+        if (n > 0) in.position(in.position() + n);
+        return n;
+    }
+
+    /** Декодирует все полные символы. Возвращает "" если пока декодировать нечего. */
+    String drain() {
+        return decode(false);
+    }
+
+    /** Конец потока: недописанный хвост превращается в U+FFFD. */
+    String finish() {
+        String tail = decode(true);
+        out.clear();
+        decoder.flush(out);
+        out.flip();
+        String flushed = out.toString();
+        decoder.reset();
+        return flushed.isEmpty() ? tail : tail + flushed;
+    }
+
+    private String decode(boolean endOfInput) {
+        in.flip();
+        out.clear();
+        CoderResult result = decoder.decode(in, out, endOfInput);
+        if (result.isOverflow()) {
+            // Не должно случаться при out.capacity() >= in.capacity()
+            throw new IllegalStateException("Decoder output overflow");
+        }
+        in.compact();
+        out.flip();
+        return out.length() == 0 ? "" : out.toString();
+    }
+}
\ No newline at end of file
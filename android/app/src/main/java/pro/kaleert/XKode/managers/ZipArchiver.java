@@ -0,0 +1,487 @@
+package pro.kaleert.XKode.managers;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Параллельный zip в духе pigz. Файлы режутся на блоки по BLOCK_SIZE, блоки жмутся
+ * независимо на нескольких потоках (словарь - хвост предыдущего блока, поэтому
+ * сжатие почти не хуже однопоточного), а пишет архив один поток строго по порядку.
+ * Уже сжатые форматы кладутся как STORED. Размеры и CRC дописываются в локальный
+ * заголовок после данных, архив пишется во временный файл и переименовывается.
+ */
+class ZipArchiver {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICT_SIZE = 32 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    private static final long STOP_TIMEOUT_SEC = 10;
+    // Выше этого размера сразу пишем ZIP64: deflate несжимаемых данных чуть раздувает их
+    private static final long ZIP64_THRESHOLD = 0xFFFFFFFFL - 64L * 1024 * 1024;
+    private static final String[] DEFAULT_EXCLUDES = { "node_modules", ".git" };
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        "zip", "jar", "apk", "aar", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst",
+        "png", "jpg", "jpeg", "gif", "webp", "heic", "mp3", "m4a", "ogg", "opus",
+        "mp4", "mkv", "webm", "avi", "mov", "woff", "woff2"));
+
+    private final File source;
+    private final File dest;
+    private final FileSystemManager.ProgressListener listener;
+    private final int level;
+    private final boolean includeHidden;
+    private final List<Pattern> excludes = new ArrayList<>();
+
+    private final List<Item> items = new ArrayList<>();
+    private long totalBytes;
+    private long doneBytes;
+    private long lastReport;
+
+    // Deflater на поток воркера; нативную память освобождаем явно после остановки пула
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+    private final List<Deflater> allDeflaters = Collections.synchronizedList(new ArrayList<>());
+
+    ZipArchiver(String sourcePath, String destPath, ReadableMap options, FileSystemManager.ProgressListener listener) {
+        this.source = new File(sourcePath);
+        this.dest = new File(destPath);
+        this.listener = listener;
+        this.level = options != null && options.hasKey("level") && !options.isNull("level")
+            ? Math.max(0, Math.min(9, options.getInt("level"))) : Deflater.DEFAULT_COMPRESSION;
+        this.includeHidden = options != null && options.hasKey("includeHidden") && !options.isNull("includeHidden")
+            && options.getBoolean("includeHidden");
+
+        ReadableArray globs = options != null && options.hasKey("exclude") && !options.isNull("exclude")
+            ? options.getArray("exclude") : null;
+        if (globs != null) {
+            for (int i = 0; i < globs.size(); i++) excludes.add(ContentSearch.globToRegex(globs.getString(i)));
+        } else {
+            for (String g : DEFAULT_EXCLUDES) excludes.add(ContentSearch.globToRegex(g));
+        }
+    }
+
+    // --- MODEL ---
+
+    private static class Item {
+        final File file;
+        final String name;      // имя в архиве, у папок с "/" на конце
+        final boolean isDir;
+        long size;              // уточняется при записи: файл мог измениться после обхода
+        final boolean stored;
+        boolean executable;
+        boolean zip64;
+        long headerOffset;
+        long crc;
+        long compressedSize;
+        int dosTime;
+
+        Item(File file, String name, boolean isDir, long size, boolean stored) {
+            this.file = file;
+            this.name = name;
+            this.isDir = isDir;
+            this.size = size;
+            this.stored = stored;
+        }
+    }
+
+    // Блок данных одного файла; out == raw для STORED
+    private static class Block {
+        final byte[] raw;
+        final int rawLength;
+        final boolean last;
+        byte[] out;
+        int outLength;
+
+        Block(byte[] raw, int rawLength, boolean last) {
+            this.raw = raw;
+            this.rawLength = rawLength;
+            this.last = last;
+        }
+    }
+
+    // --- RUN ---
+
+    WritableMap run() throws Exception {
+        if (!source.exists()) throw new Exception("Source not found: " + source.getPath());
+        long started = System.currentTimeMillis();
+
+        if (source.isDirectory()) {
+            collect(source, source.getName(), "");
+        } else {
+            addFile(source, source.getName());
+        }
+
+        File tmp = FileSystemManager.tempFor(dest);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "xkode-zip");
+            t.setDaemon(true);
+            return t;
+        });
+        // Окно блоков в работе: память ограничена, а потоки не простаивают
+        BlockingQueue<Future<Block>> window = new ArrayBlockingQueue<>(threads * 4);
+        Thread reader = new Thread(() -> readBlocks(workers, window), "xkode-zip-read");
+        reader.setDaemon(true);
+
+        boolean committed = false;
+        long compressed;
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                FileChannel out = raf.getChannel();
+                reader.start();
+                writeEntries(out, window);
+                compressed = out.position();
+                writeCentralDirectory(out);
+                out.force(false);
+            }
+            FileSystemManager.commitTemp(tmp, dest, null);
+            committed = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+            endDeflaters(workers);
+            if (!committed) tmp.delete();
+        }
+        report(true);
+
+        WritableMap result = Arguments.createMap();
+        result.putString("path", dest.getAbsolutePath());
+        result.putInt("entries", items.size());
+        result.putDouble("bytes", doneBytes);
+        result.putDouble("compressedBytes", compressed);
+        result.putDouble("elapsedMs", System.currentTimeMillis() - started);
+        return result;
+    }
+
+    private void collect(File dir, String name, String rel) throws InterruptedException {
+        TaskScheduler.checkCancelled();
+        items.add(new Item(dir, name + "/", true, 0, true));
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (File child : children) {
+            String childRel = rel.isEmpty() ? child.getName() : rel + "/" + child.getName();
+            if (!includeHidden && child.getName().startsWith(".")) continue;
+            if (isExcluded(child.getName(), childRel)) continue;
+            if (child.isDirectory()) {
+                // Ссылки на папки не обходим: ссылка на предка зациклила бы обход
+                if (FileSystemManager.isSymlink(child)) continue;
+                collect(child, name + "/" + child.getName(), childRel);
+            } else {
+                addFile(child, name + "/" + child.getName());
+            }
+        }
+    }
+
+    private void addFile(File f, String name) {
+        boolean stored = level == 0 || STORED_EXTENSIONS.contains(extension(f.getName()));
+        Item item = new Item(f, name, false, f.length(), stored);
+        item.zip64 = item.size >= ZIP64_THRESHOLD;
+        item.executable = f.canExecute();
+        items.add(item);
+        totalBytes += item.size;
+    }
+
+    private boolean isExcluded(String name, String rel) {
+        for (Pattern p : excludes) {
+            if (p.matcher(name).matches() || p.matcher(rel).matches()) return true;
+        }
+        return false;
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // --- PIPELINE ---
+
+    // Читает файлы по порядку и отдает блоки воркерам; конец файла - блок с last
+    private void readBlocks(ExecutorService workers, BlockingQueue<Future<Block>> window) {
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                Item item = items.get(i);
+                if (item.isDir) continue;
+                try (FileInputStream in = new FileInputStream(item.file)) {
+                    byte[] dict = null;
+                    // Мелкому файлу - буфер по размеру; дописанное после обхода в архив не попадает
+                    byte[] buf = new byte[(int) Math.min(BLOCK_SIZE, item.size)];
+                    int n = fill(in, buf);
+                    while (true) {
+                        // Следующий блок нужен, только если текущий заполнен целиком
+                        byte[] next = n == BLOCK_SIZE ? new byte[BLOCK_SIZE] : null;
+                        int nextN = next == null ? 0 : fill(in, next);
+                        boolean last = nextN == 0;
+                        Block block = new Block(buf, n, last);
+                        if (item.stored) {
+                            block.out = block.raw;
+                            block.outLength = block.rawLength;
+                            window.put(CompletableFuture.completedFuture(block));
+                        } else {
+                            byte[] prevTail = dict;
+                            window.put(workers.submit(() -> deflate(block, prevTail)));
+                        }
+                        if (last) break;
+                        dict = Arrays.copyOfRange(buf, n - DICT_SIZE, n);
+                        buf = next;
+                        n = nextN;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Писатель сдался - просто выходим
+        } catch (Exception e) {
+            // Ошибка чтения доходит до писателя через очередь, в порядке архива
+            CompletableFuture<Block> error = new CompletableFuture<>();
+            error.completeExceptionally(e);
+            try {
+                window.put(error);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    // Читает до заполнения буфера; 0 - конец файла
+    private static int fill(FileInputStream in, byte[] buf) throws IOException {
+        int off = 0, n;
+        while (off < buf.length && (n = in.read(buf, off, buf.length - off)) != -1) off += n;
+        return off;
+    }
+
+    private Block deflate(Block block, byte[] dict) {
+        Deflater def = deflaters.get();
+        if (def == null) {
+            def = new Deflater(level, true);
+            deflaters.set(def);
+            allDeflaters.add(def);
+        }
+        def.reset();
+        def.setLevel(level);
+        if (dict != null) def.setDictionary(dict);
+        def.setInput(block.raw, 0, block.rawLength);
+
+        byte[] out = new byte[block.rawLength + block.rawLength / 1000 + 64];
+        int len = 0;
+        if (block.last) {
+            def.finish();
+            while (!def.finished()) {
+                if (len == out.length) out = Arrays.copyOf(out, out.length * 2);
+                len += def.deflate(out, len, out.length - len);
+            }
+        } else {
+            // SYNC_FLUSH выравнивает блок по байту, чтобы куски склеивались в один поток
+            while (true) {
+                if (len == out.length) out = Arrays.copyOf(out, out.length * 2);
+                int space = out.length - len;
+                int n = def.deflate(out, len, space, Deflater.SYNC_FLUSH);
+                len += n;
+                if (n < space) break;
+            }
+        }
+        block.out = out;
+        block.outLength = len;
+        return block;
+    }
+
+    // end() только после остановки воркеров: иначе можно освободить Deflater посреди deflate()
+    private void endDeflaters(ExecutorService workers) {
+        try {
+            if (!workers.awaitTermination(STOP_TIMEOUT_SEC, TimeUnit.SECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (allDeflaters) {
+            for (Deflater def : allDeflaters) def.end();
+            allDeflaters.clear();
+        }
+    }
+
+    private void writeEntries(FileChannel out, BlockingQueue<Future<Block>> window) throws Exception {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < items.size(); i++) {
+            TaskScheduler.checkCancelled();
+            Item item = items.get(i);
+            item.dosTime = dosTime(item.file.lastModified());
+            item.headerOffset = out.position();
+            writeFully(out, localHeader(item));
+            if (item.isDir) continue;
+
+            crc.reset();
+            long written = 0;
+            long raw = 0;
+            while (true) {
+                Block block = window.take().get();
+                crc.update(block.raw, 0, block.rawLength);
+                writeFully(out, ByteBuffer.wrap(block.out, 0, block.outLength));
+                written += block.outLength;
+                raw += block.rawLength;
+                doneBytes += block.rawLength;
+                report(false);
+                if (block.last) break;
+                TaskScheduler.checkCancelled();
+            }
+            item.crc = crc.getValue();
+            item.compressedSize = written;
+            item.size = raw;
+            if (!item.zip64 && (written >= 0xFFFFFFFFL || raw >= 0xFFFFFFFFL)) {
+                throw new Exception("Entry too large for zip: " + item.name);
+            }
+
+            // Дописываем CRC и размеры в уже записанный заголовок
+            long end = out.position();
+            ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            patch.putInt((int) item.crc);
+            patch.putInt(item.zip64 ? -1 : (int) item.compressedSize);
+            patch.putInt(item.zip64 ? -1 : (int) item.size);
+            patch.flip();
+            out.write(patch, item.headerOffset + 14);
+            if (item.zip64) {
+                ByteBuffer extra = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                extra.putLong(item.size).putLong(item.compressedSize).flip();
+                out.write(extra, item.headerOffset + 30 + nameBytes(item).length + 4);
+            }
+            out.position(end);
+        }
+    }
+
+    private void report(boolean force) {
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        if (force || now - lastReport >= PROGRESS_INTERVAL_MS) {
+            lastReport = now;
+            listener.onProgress(doneBytes, totalBytes);
+        }
+    }
+
+    // --- ZIP FORMAT ---
+
+    private static byte[] nameBytes(Item item) {
+        return item.name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer localHeader(Item item) {
+        byte[] name = nameBytes(item);
+        int extraLen = item.zip64 ? 20 : 0;
+        ByteBuffer b = ByteBuffer.allocate(30 + name.length + extraLen).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x04034b50);
+        b.putShort((short) (item.zip64 ? 45 : 20));
+        b.putShort((short) 0x0800);                     // имена в UTF-8
+        b.putShort((short) (item.stored ? 0 : 8));
+        b.putInt(item.dosTime);
+        b.putInt(0);                                    // CRC и размеры - после данных
+        b.putInt(item.zip64 ? -1 : 0);
+        b.putInt(item.zip64 ? -1 : 0);
+        b.putShort((short) name.length);
+        b.putShort((short) extraLen);
+        b.put(name);
+        if (item.zip64) {
+            b.putShort((short) 0x0001).putShort((short) 16).putLong(0).putLong(0);
+        }
+        b.flip();
+        return b;
+    }
+
+    private void writeCentralDirectory(FileChannel out) throws IOException {
+        long cdStart = out.position();
+        for (Item item : items) {
+            byte[] name = nameBytes(item);
+            boolean zip64 = item.zip64 || item.headerOffset >= 0xFFFFFFFFL;
+            int extraLen = zip64 ? 28 : 0;
+            ByteBuffer b = ByteBuffer.allocate(46 + name.length + extraLen).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(0x02014b50);
+            b.putShort((short) ((3 << 8) | 45));          // Unix: сохраняем режим файла
+            b.putShort((short) (zip64 ? 45 : 20));
+            b.putShort((short) 0x0800);
+            b.putShort((short) (item.stored ? 0 : 8));
+            b.putInt(item.dosTime);
+            b.putInt((int) item.crc);
+            b.putInt(zip64 ? -1 : (int) item.compressedSize);
+            b.putInt(zip64 ? -1 : (int) item.size);
+            b.putShort((short) name.length);
+            b.putShort((short) extraLen);
+            b.putShort((short) 0);                        // комментарий
+            b.putShort((short) 0);                        // номер диска
+            b.putShort((short) 0);                        // внутренние атрибуты
+            int mode = item.isDir ? 040755 : item.executable ? 0100755 : 0100644;
+            b.putInt(mode << 16 | (item.isDir ? 0x10 : 0));
+            b.putInt(zip64 ? -1 : (int) item.headerOffset);
+            b.put(name);
+            if (zip64) {
+                b.putShort((short) 0x0001).putShort((short) 24);
+                b.putLong(item.size).putLong(item.compressedSize).putLong(item.headerOffset);
+            }
+            b.flip();
+            writeFully(out, b);
+        }
+        long cdEnd = out.position();
+        long cdSize = cdEnd - cdStart;
+
+        boolean zip64 = items.size() >= 0xFFFF || cdStart >= 0xFFFFFFFFL || cdSize >= 0xFFFFFFFFL;
+        if (zip64) {
+            ByteBuffer b = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(0x06064b50).putLong(44);
+            b.putShort((short) 45).putShort((short) 45);
+            b.putInt(0).putInt(0);
+            b.putLong(items.size()).putLong(items.size());
+            b.putLong(cdSize).putLong(cdStart);
+            // Локатор записи ZIP64
+            b.putInt(0x07064b50).putInt(0).putLong(cdEnd).putInt(1);
+            b.flip();
+            writeFully(out, b);
+        }
+        ByteBuffer b = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0x06054b50);
+        b.putShort((short) 0).putShort((short) 0);
+        b.putShort((short) (zip64 ? 0xFFFF : items.size()));
+        b.putShort((short) (zip64 ? 0xFFFF : items.size()));
+        b.putInt(zip64 ? -1 : (int) cdSize);
+        b.putInt(zip64 ? -1 : (int) cdStart);
+        b.putShort((short) 0);
+        b.flip();
+        writeFully(out, b);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) out.write(b);
+    }
+
+    private static int dosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+            | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,470 @@
+package pro.kaleert.XKode.terminal;
+
+/**
+ * Разбор потока VT100/xterm: конечный автомат без аллокаций поверх TerminalScreen.
+ * Поддерживает управление курсором, стирание, вставку/удаление строк и символов,
+ * область прокрутки, SGR (16/256/truecolor), альтернативный экран и ответы DSR/DA.
+ * Неизвестные последовательности тихо пропускаются.
+ */
+public class TerminalEmulator {
+
+    /** Ответы терминала серверу (DSR, DA) уходят обратно в сессию. */
+    public interface Responder {
+        void respond(String data);
+    }
+
+    private static final int STATE_GROUND = 0;
+    private static final int STATE_ESCAPE = 1;
+    private static final int STATE_ESCAPE_CHARSET = 2;
+    private static final int STATE_CSI = 3;
+    private static final int STATE_OSC = 4;
+    private static final int STATE_OSC_ESCAPE = 5;
+    private static final int STATE_STRING = 6;
+    private static final int STATE_ESCAPE_SKIP = 7;
+
+    private static final int MAX_PARAMS = 16;
+
+    private final TerminalScreen screen;
+    private final Responder responder;
+
+    private int state = STATE_GROUND;
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    private boolean paramStarted;
+    private char privateMarker;
+    private int highSurrogate;
+
+    // DECCKM: стрелки шлют ESC O A вместо ESC [ A
+    private boolean applicationCursorKeys;
+    // Набор G0 = DEC Special Graphics (рамки в mc, htop)
+    private boolean lineDrawing;
+
+    public TerminalEmulator(int columns, int rows, Responder responder) {
+        this.screen = new TerminalScreen(columns, rows);
+        this.responder = responder;
+    }
+
+    public TerminalScreen getScreen() {
+        return screen;
+    }
+
+    public boolean isApplicationCursorKeys() {
+        return applicationCursorKeys;
+    }
+
+    public void resize(int columns, int rows) {
+        screen.resize(columns, rows);
+    }
+
+    // --- INPUT ---
+
+    public void append(CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+                continue;
+            }
+            if (highSurrogate != 0) {
+                int cp = Character.isLowSurrogate(c) ? Character.toCodePoint((char) highSurrogate, c) : 0xFFFD;
+                highSurrogate = 0;
+                process(cp);
+                if (Character.isLowSurrogate(c)) continue;
+            }
+            process(c);
+        }
+    }
+
+    private void process(int c) {
+        // Внутри DCS/SOS/PM/APC управляющие символы - часть данных: выход только по ST, CAN или SUB
+        if (state == STATE_STRING && c != 0x1B && c != 0x18 && c != 0x1A) return;
+        // C0 управляющие символы работают в любом состоянии, кроме OSC
+        if (c < 0x20 && state != STATE_OSC && state != STATE_OSC_ESCAPE) {
+            if (c == 0x1B) {
+                state = STATE_ESCAPE;
+                return;
+            }
+            control(c);
+            return;
+        }
+
+        switch (state) {
+            case STATE_GROUND:
+                if (c == 0x7F) return;
+                screen.print(lineDrawing ? mapLineDrawing(c) : c);
+                break;
+            case STATE_ESCAPE:
+                escape(c);
+                break;
+            case STATE_ESCAPE_CHARSET:
+                lineDrawing = c == '0';
+                state = STATE_GROUND;
+                break;
+            case STATE_ESCAPE_SKIP:
+                state = STATE_GROUND;
+                break;
+            case STATE_CSI:
+                csi(c);
+                break;
+            case STATE_OSC:
+                // Заголовок окна и прочее игнорируем до BEL или ST
+                if (c == 0x07) state = STATE_GROUND;
+                else if (c == 0x1B) state = STATE_OSC_ESCAPE;
+                break;
+            case STATE_OSC_ESCAPE:
+                state = c == '\\' ? STATE_GROUND : STATE_OSC;
+                break;
+        }
+    }
+
+    private void control(int c) {
+        switch (c) {
+            case 0x07: // BEL
+                break;
+            case 0x08:
+                screen.backspace();
+                break;
+            case 0x09:
+                screen.tab();
+                break;
+            case 0x0A:
+            case 0x0B:
+            case 0x0C:
+                screen.lineFeed();
+                break;
+            case 0x0D:
+                screen.carriageReturn();
+                break;
+            case 0x18:
+            case 0x1A:
+                state = STATE_GROUND;
+                break;
+        }
+    }
+
+    private void escape(int c) {
+        state = STATE_GROUND;
+        switch (c) {
+            case '[':
+                paramCount = 0;
+                paramStarted = false;
+                privateMarker = 0;
+                params[0] = 0;
+                state = STATE_CSI;
+                break;
+            case ']':
+                state = STATE_OSC;
+                break;
+            case 'P':
+            case 'X':
+            case '^':
+            case '_':
+                // DCS (sixel, tmux passthrough, XTGETTCAP), SOS, PM, APC: полезная нагрузка
+                // не должна попасть на экран. ESC \ завершает строку через ESC-состояние
+                state = STATE_STRING;
+                break;
+            case '(':
+                state = STATE_ESCAPE_CHARSET;
+                break;
+            case ')':
+            case '*':
+            case '+':
+                // G1-G3 не используем, но символ набора нужно съесть - не трогая G0:
+                // enacs (ESC ) 0) иначе включил бы псевдографику для обычного текста
+                state = STATE_ESCAPE_SKIP;
+                break;
+            case '7':
+                screen.saveCursor();
+                break;
+            case '8':
+                screen.restoreCursor();
+                break;
+            case 'D':
+                screen.lineFeed();
+                break;
+            case 'E':
+                screen.carriageReturn();
+                screen.lineFeed();
+                break;
+            case 'M':
+                screen.reverseLineFeed();
+                break;
+            case 'c':
+                screen.reset();
+                applicationCursorKeys = false;
+                lineDrawing = false;
+                break;
+            default:
+                // ESC =, ESC > (keypad) и прочее - без эффекта
+                break;
+        }
+    }
+
+    // --- CSI ---
+
+    private void csi(int c) {
+        if (c >= '0' && c <= '9') {
+            if (paramCount < MAX_PARAMS) {
+                params[paramCount] = Math.min(params[paramCount] * 10 + (c - '0'), 9999);
+                paramStarted = true;
+            }
+            return;
+        }
+        if (c == ';' || c == ':') {
+            if (paramCount < MAX_PARAMS - 1) {
+                paramCount++;
+                params[paramCount] = 0;
+            }
+            paramStarted = true;
+            return;
+        }
+        if (c == '?' || c == '>' || c == '=' || c == '!') {
+            privateMarker = (char) c;
+            return;
+        }
+        if (c >= 0x20 && c <= 0x2F) {
+            // Промежуточные байты (например, " q" - форма курсора) игнорируем
+            return;
+        }
+        int count = paramStarted ? paramCount + 1 : 0;
+        state = STATE_GROUND;
+        dispatchCsi(c, count);
+    }
+
+    private int param(int index, int def, int count) {
+        if (index >= count) return def;
+        int v = params[index];
+        return v == 0 ? def : v;
+    }
+
+    private void dispatchCsi(int c, int count) {
+        TerminalScreen s = screen;
+        if (privateMarker == '?') {
+            if (c == 'h' || c == 'l') {
+                boolean on = c == 'h';
+                for (int i = 0; i < Math.max(count, 1); i++) setPrivateMode(params[i], on);
+            }
+            return;
+        }
+        if (privateMarker != 0) {
+            if (c == 'c' && privateMarker == '>') {
+                // Secondary DA
+                respond("\u001b[>0;0;0c");
+            }
+            return;
+        }
+
+        switch (c) {
+            case 'A':
+                s.moveCursorRelative(-param(0, 1, count), 0);
+                break;
+            case 'B':
+            case 'e':
+                s.moveCursorRelative(param(0, 1, count), 0);
+                break;
+            case 'C':
+            case 'a':
+                s.moveCursorRelative(0, param(0, 1, count));
+                break;
+            case 'D':
+                s.moveCursorRelative(0, -param(0, 1, count));
+                break;
+            case 'E':
+                s.moveCursorRelative(param(0, 1, count), 0);
+                s.carriageReturn();
+                break;
+            case 'F':
+                s.moveCursorRelative(-param(0, 1, count), 0);
+                s.carriageReturn();
+                break;
+            case 'G':
+            case '`':
+                s.moveCursor(s.cursorRow, param(0, 1, count) - 1);
+                break;
+            case 'd':
+                s.moveCursor(param(0, 1, count) - 1, s.cursorCol);
+                break;
+            case 'H':
+            case 'f':
+                s.moveCursor(param(0, 1, count) - 1, param(1, 1, count) - 1);
+                break;
+            case 'J':
+                s.eraseInDisplay(param(0, 0, count));
+                break;
+            case 'K':
+                s.eraseInLine(param(0, 0, count));
+                break;
+            case 'L':
+                s.insertLines(param(0, 1, count));
+                break;
+            case 'M':
+                s.deleteLines(param(0, 1, count));
+                break;
+            case '@':
+                s.insertChars(param(0, 1, count));
+                break;
+            case 'P':
+                s.deleteChars(param(0, 1, count));
+                break;
+            case 'X':
+                s.eraseChars(param(0, 1, count));
+                break;
+            case 'S':
+                s.scrollUp(param(0, 1, count));
+                break;
+            case 'T':
+                s.scrollDown(param(0, 1, count));
+                break;
+            case 'r':
+                s.setScrollRegion(param(0, 1, count) - 1, param(1, s.getRows(), count) - 1);
+                break;
+            case 's':
+                s.saveCursor();
+                break;
+            case 'u':
+                s.restoreCursor();
+                break;
+            case 'm':
+                selectGraphicRendition(count);
+                break;
+            case 'n':
+                if (param(0, 0, count) == 6) {
+                    respond("\u001b[" + (s.cursorRow + 1) + ";" + (s.getCursorCol() + 1) + "R");
+                } else if (param(0, 0, count) == 5) {
+                    respond("\u001b[0n");
+                }
+                break;
+            case 'c':
+                // Primary DA: представляемся как VT102
+                respond("\u001b[?6c");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void setPrivateMode(int mode, boolean on) {
+        switch (mode) {
+            case 1:
+                applicationCursorKeys = on;
+                break;
+            case 7:
+                screen.autoWrap = on;
+                break;
+            case 25:
+                screen.cursorVisible = on;
+                break;
+            case 47:
+            case 1047:
+                screen.setAltScreen(on);
+                break;
+            case 1049:
+                // Как xterm: сохраняем курсор и переключаемся на чистый альтернативный экран
+                if (on) {
+                    screen.saveCursor();
+                    screen.setAltScreen(true);
+                    screen.eraseInDisplay(2);
+                } else {
+                    screen.setAltScreen(false);
+                    screen.restoreCursor();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // --- SGR ---
+
+    private void selectGraphicRendition(int count) {
+        int attr = screen.currentAttr;
+        if (count == 0) {
+            screen.currentAttr = TerminalScreen.DEFAULT_ATTR;
+            return;
+        }
+        int fg = TerminalScreen.foreground(attr);
+        int bg = TerminalScreen.background(attr);
+        int flags = attr & ~((1 << 18) - 1);
+
+        for (int i = 0; i < count; i++) {
+            int p = params[i];
+            if (p == 0) {
+                fg = TerminalScreen.COLOR_DEFAULT;
+                bg = TerminalScreen.COLOR_DEFAULT;
+                flags = 0;
+            } else if (p == 1) {
+                flags |= TerminalScreen.FLAG_BOLD;
+            } else if (p == 2) {
+                flags |= TerminalScreen.FLAG_DIM;
+            } else if (p == 4) {
+                flags |= TerminalScreen.FLAG_UNDERLINE;
+            } else if (p == 7) {
+                flags |= TerminalScreen.FLAG_INVERSE;
+            } else if (p == 22) {
+                flags &= ~(TerminalScreen.FLAG_BOLD | TerminalScreen.FLAG_DIM);
+            } else if (p == 24) {
+                flags &= ~TerminalScreen.FLAG_UNDERLINE;
+            } else if (p == 27) {
+                flags &= ~TerminalScreen.FLAG_INVERSE;
+            } else if (p >= 30 && p <= 37) {
+                fg = p - 30;
+            } else if (p == 38 || p == 48) {
+                int color = -1;
+                if (i + 2 < count && params[i + 1] == 5) {
+                    color = params[i + 2] & 0xFF;
+                    i += 2;
+                } else if (i + 4 < count && params[i + 1] == 2) {
+                    color = rgbTo256(params[i + 2], params[i + 3], params[i + 4]);
+                    i += 4;
+                }
+                if (color >= 0) {
+                    if (p == 38) fg = color;
+                    else bg = color;
+                }
+            } else if (p == 39) {
+                fg = TerminalScreen.COLOR_DEFAULT;
+            } else if (p >= 40 && p <= 47) {
+                bg = p - 40;
+            } else if (p == 49) {
+                bg = TerminalScreen.COLOR_DEFAULT;
+            } else if (p >= 90 && p <= 97) {
+                fg = p - 90 + 8;
+            } else if (p >= 100 && p <= 107) {
+                bg = p - 100 + 8;
+            }
+        }
+        screen.currentAttr = TerminalScreen.pack(fg, bg, flags);
+    }
+
+    /** Truecolor храним в 9 битах, поэтому приводим к кубу 6x6x6 палитры xterm. */
+    private static int rgbTo256(int r, int g, int b) {
+        int ri = Math.round(Math.min(255, r) / 51f);
+        int gi = Math.round(Math.min(255, g) / 51f);
+        int bi = Math.round(Math.min(255, b) / 51f);
+        return 16 + ri * 36 + gi * 6 + bi;
+    }
+
+    private static int mapLineDrawing(int c) {
+        switch (c) {
+            case 'j': return 0x2518;
+            case 'k': return 0x2510;
+            case 'l': return 0x250C;
+            case 'm': return 0x2514;
+            case 'n': return 0x253C;
+            case 'q': return 0x2500;
+            case 't': return 0x251C;
+            case 'u': return 0x2524;
+            case 'v': return 0x2534;
+            case 'w': return 0x252C;
+            case 'x': return 0x2502;
+            case 'a': return 0x2592;
+            case '`': return 0x25C6;
+            case '~': return 0x00B7;
+            default: return c;
+        }
+    }
+
+    private void respond(String data) {
+        if (responder != null) responder.respond(data);
+    }
+}
\ No newline at end of file
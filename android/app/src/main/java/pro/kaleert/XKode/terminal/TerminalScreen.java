@@ -0,0 +1,500 @@
+package pro.kaleert.XKode.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Экран терминала: фиксированная сетка ячеек (code point + упакованные атрибуты)
+ * с курсором, областью прокрутки и отметкой измененных строк.
+ * Прокрутка переставляет ссылки на строки, а не копирует их - без аллокаций.
+ * Строки, ушедшие за верх основного экрана, попадают в кольцевую историю.
+ * Не потокобезопасен: используется только из главного потока.
+ */
+public class TerminalScreen {
+
+    // --- ATTRIBUTES ---
+    // [0..8] fg (0-255 палитра, 256 = цвет по умолчанию), [9..17] bg, дальше флаги
+
+    public static final int COLOR_DEFAULT = 256;
+    private static final int FG_MASK = 0x1FF;
+    private static final int BG_SHIFT = 9;
+    public static final int FLAG_BOLD = 1 << 18;
+    public static final int FLAG_UNDERLINE = 1 << 19;
+    public static final int FLAG_INVERSE = 1 << 20;
+    public static final int FLAG_DIM = 1 << 21;
+
+    public static final int DEFAULT_ATTR = pack(COLOR_DEFAULT, COLOR_DEFAULT, 0);
+
+    private static final int HISTORY_LINES = 2000;
+
+    public static int pack(int fg, int bg, int flags) {
+        return (fg & FG_MASK) | ((bg & FG_MASK) << BG_SHIFT) | flags;
+    }
+
+    public static int foreground(int attr) {
+        return attr & FG_MASK;
+    }
+
+    public static int background(int attr) {
+        return (attr >>> BG_SHIFT) & FG_MASK;
+    }
+
+    // --- GRID ---
+
+    private int columns;
+    private int rows;
+    private int[][] chars;
+    private int[][] attrs;
+    private boolean[] dirty;
+    private boolean anyDirty;
+
+    // Альтернативный экран (vim, htop, less)
+    private int[][] savedChars;
+    private int[][] savedAttrs;
+    private boolean altScreen;
+
+    // История прокрутки: кольцо строк, слоты переиспользуются после заполнения
+    private int[][] historyChars;
+    private int[][] historyAttrs;
+    private int historyStart;
+    private int historySize;
+    private long historyPushed;
+
+    int cursorRow;
+    int cursorCol;
+    int scrollTop;
+    int scrollBottom;
+    boolean cursorVisible = true;
+    boolean autoWrap = true;
+    // Курсор стоит за последней колонкой: перенос строки отложен до следующего символа
+    private boolean wrapPending;
+    int currentAttr = DEFAULT_ATTR;
+
+    private int savedRow;
+    private int savedCol;
+    private int savedAttr = DEFAULT_ATTR;
+
+    public TerminalScreen(int columns, int rows) {
+        allocate(columns, rows);
+    }
+
+    private void allocate(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        chars = new int[rows][columns];
+        attrs = new int[rows][columns];
+        dirty = new boolean[rows];
+        for (int r = 0; r < rows; r++) clearRow(chars[r], attrs[r], DEFAULT_ATTR);
+        scrollTop = 0;
+        scrollBottom = rows - 1;
+        markAllDirty();
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int[] rowChars(int row) {
+        return chars[row];
+    }
+
+    public int[] rowAttrs(int row) {
+        return attrs[row];
+    }
+
+    public int getCursorRow() {
+        return cursorRow;
+    }
+
+    public int getCursorCol() {
+        return Math.min(cursorCol, columns - 1);
+    }
+
+    public boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+    public boolean isAltScreen() {
+        return altScreen;
+    }
+
+    // --- HISTORY ---
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /** Сколько строк ушло в историю за все время: по разнице View сдвигает прокрутку и выделение. */
+    public long getHistoryPushed() {
+        return historyPushed;
+    }
+
+    /** Строка экрана или истории: -1 - последняя ушедшая строка. Длина может отличаться от ширины экрана. */
+    public int[] lineChars(int row) {
+        return row >= 0 ? chars[row] : historyChars[historySlot(row)];
+    }
+
+    public int[] lineAttrs(int row) {
+        return row >= 0 ? attrs[row] : historyAttrs[historySlot(row)];
+    }
+
+    private int historySlot(int row) {
+        return (historyStart + historySize + row) % HISTORY_LINES;
+    }
+
+    private void pushHistory(int[] c, int[] a) {
+        if (historyChars == null) {
+            historyChars = new int[HISTORY_LINES][];
+            historyAttrs = new int[HISTORY_LINES][];
+        }
+        int slot;
+        if (historySize < HISTORY_LINES) {
+            slot = (historyStart + historySize) % HISTORY_LINES;
+            historySize++;
+        } else {
+            slot = historyStart;
+            historyStart = (historyStart + 1) % HISTORY_LINES;
+        }
+        if (historyChars[slot] == null || historyChars[slot].length != c.length) {
+            historyChars[slot] = new int[c.length];
+            historyAttrs[slot] = new int[c.length];
+        }
+        System.arraycopy(c, 0, historyChars[slot], 0, c.length);
+        System.arraycopy(a, 0, historyAttrs[slot], 0, a.length);
+        historyPushed++;
+    }
+
+    // --- DIRTY TRACKING ---
+
+    public boolean isDirty(int row) {
+        return dirty[row];
+    }
+
+    public boolean hasDirtyRows() {
+        return anyDirty;
+    }
+
+    public void clearDirty() {
+        Arrays.fill(dirty, false);
+        anyDirty = false;
+    }
+
+    public void markAllDirty() {
+        Arrays.fill(dirty, true);
+        anyDirty = true;
+    }
+
+    private void markDirty(int row) {
+        dirty[row] = true;
+        anyDirty = true;
+    }
+
+    private void markDirty(int from, int to) {
+        for (int r = from; r <= to; r++) dirty[r] = true;
+        anyDirty = true;
+    }
+
+    // --- RESIZE ---
+
+    /**
+     * Меняет размер с сохранением видимого содержимого (нижние строки в приоритете).
+     * Под альтернативным экраном меняется и сохраненный основной, режим остается прежним.
+     */
+    public void resize(int newColumns, int newRows) {
+        if (newColumns == columns && newRows == rows) return;
+        int[][] oldChars = chars;
+        int[][] oldAttrs = attrs;
+        int[][] oldSavedChars = savedChars;
+        int[][] oldSavedAttrs = savedAttrs;
+        int shift = Math.max(0, cursorRow - (newRows - 1));
+
+        allocate(newColumns, newRows);
+        copyGrid(oldChars, oldAttrs, shift, chars, attrs);
+        cursorRow = Math.min(cursorRow - shift, newRows - 1);
+        cursorCol = Math.min(cursorCol, newColumns - 1);
+        wrapPending = false;
+
+        if (oldSavedChars != null) {
+            // Курсор основного экрана лежит в savedRow (1049 сохраняет его перед переключением)
+            int savedShift = Math.max(0, savedRow - (newRows - 1));
+            savedChars = new int[newRows][newColumns];
+            savedAttrs = new int[newRows][newColumns];
+            for (int r = 0; r < newRows; r++) clearRow(savedChars[r], savedAttrs[r], DEFAULT_ATTR);
+            copyGrid(oldSavedChars, oldSavedAttrs, savedShift, savedChars, savedAttrs);
+            savedRow -= savedShift;
+        }
+        savedRow = Math.min(savedRow, newRows - 1);
+        savedCol = Math.min(savedCol, newColumns - 1);
+    }
+
+    private static void copyGrid(int[][] fromChars, int[][] fromAttrs, int shift, int[][] toChars, int[][] toAttrs) {
+        int copyCols = Math.min(toChars.length > 0 ? toChars[0].length : 0,
+                fromChars.length > 0 ? fromChars[0].length : 0);
+        for (int r = 0; r < toChars.length && r + shift < fromChars.length; r++) {
+            System.arraycopy(fromChars[r + shift], 0, toChars[r], 0, copyCols);
+            System.arraycopy(fromAttrs[r + shift], 0, toAttrs[r], 0, copyCols);
+        }
+    }
+
+    // --- OUTPUT ---
+
+    void print(int codePoint) {
+        if (wrapPending) {
+            wrapPending = false;
+            if (autoWrap) {
+                cursorCol = 0;
+                lineFeed();
+            }
+        }
+        chars[cursorRow][cursorCol] = codePoint;
+        attrs[cursorRow][cursorCol] = currentAttr;
+        markDirty(cursorRow);
+        if (cursorCol == columns - 1) {
+            wrapPending = true;
+        } else {
+            cursorCol++;
+        }
+    }
+
+    void carriageReturn() {
+        cursorCol = 0;
+        wrapPending = false;
+    }
+
+    void lineFeed() {
+        wrapPending = false;
+        if (cursorRow == scrollBottom) {
+            scrollUp(scrollTop, scrollBottom, 1);
+        } else if (cursorRow < rows - 1) {
+            cursorRow++;
+        }
+    }
+
+    void reverseLineFeed() {
+        wrapPending = false;
+        if (cursorRow == scrollTop) {
+            scrollDown(scrollTop, scrollBottom, 1);
+        } else if (cursorRow > 0) {
+            cursorRow--;
+        }
+    }
+
+    void backspace() {
+        wrapPending = false;
+        if (cursorCol > 0) cursorCol--;
+    }
+
+    void tab() {
+        int next = (cursorCol / 8 + 1) * 8;
+        cursorCol = Math.min(next, columns - 1);
+    }
+
+    // --- CURSOR ---
+
+    void moveCursor(int row, int col) {
+        cursorRow = clamp(row, 0, rows - 1);
+        cursorCol = clamp(col, 0, columns - 1);
+        wrapPending = false;
+    }
+
+    void moveCursorRelative(int dRow, int dCol) {
+        int top = cursorRow >= scrollTop && cursorRow <= scrollBottom ? scrollTop : 0;
+        int bottom = cursorRow >= scrollTop && cursorRow <= scrollBottom ? scrollBottom : rows - 1;
+        cursorRow = clamp(cursorRow + dRow, top, bottom);
+        cursorCol = clamp(Math.min(cursorCol, columns - 1) + dCol, 0, columns - 1);
+        wrapPending = false;
+    }
+
+    void saveCursor() {
+        savedRow = cursorRow;
+        savedCol = cursorCol;
+        savedAttr = currentAttr;
+    }
+
+    void restoreCursor() {
+        moveCursor(savedRow, savedCol);
+        currentAttr = savedAttr;
+    }
+
+    void setScrollRegion(int top, int bottom) {
+        top = clamp(top, 0, rows - 1);
+        bottom = clamp(bottom, 0, rows - 1);
+        if (top >= bottom) {
+            top = 0;
+            bottom = rows - 1;
+        }
+        scrollTop = top;
+        scrollBottom = bottom;
+        moveCursor(0, 0);
+    }
+
+    // --- ERASE / EDIT ---
+
+    private int blankAttr() {
+        // Стирание заливает текущим фоном (как xterm), без остальных флагов
+        return pack(COLOR_DEFAULT, background(currentAttr), 0);
+    }
+
+    void eraseInDisplay(int mode) {
+        int blank = blankAttr();
+        switch (mode) {
+            case 0:
+                eraseInLine(0);
+                for (int r = cursorRow + 1; r < rows; r++) clearRow(chars[r], attrs[r], blank);
+                markDirty(cursorRow, rows - 1);
+                break;
+            case 1:
+                eraseInLine(1);
+                for (int r = 0; r < cursorRow; r++) clearRow(chars[r], attrs[r], blank);
+                markDirty(0, cursorRow);
+                break;
+            default:
+                for (int r = 0; r < rows; r++) clearRow(chars[r], attrs[r], blank);
+                markAllDirty();
+                break;
+        }
+    }
+
+    void eraseInLine(int mode) {
+        int col = Math.min(cursorCol, columns - 1);
+        int from = mode == 0 ? col : 0;
+        int to = mode == 1 ? col + 1 : columns;
+        if (mode == 2) from = 0;
+        Arrays.fill(chars[cursorRow], from, to, ' ');
+        Arrays.fill(attrs[cursorRow], from, to, blankAttr());
+        markDirty(cursorRow);
+    }
+
+    void eraseChars(int count) {
+        int col = Math.min(cursorCol, columns - 1);
+        int to = Math.min(columns, col + count);
+        Arrays.fill(chars[cursorRow], col, to, ' ');
+        Arrays.fill(attrs[cursorRow], col, to, blankAttr());
+        markDirty(cursorRow);
+    }
+
+    void insertChars(int count) {
+        int col = Math.min(cursorCol, columns - 1);
+        count = Math.min(count, columns - col);
+        int[] c = chars[cursorRow];
+        int[] a = attrs[cursorRow];
+        System.arraycopy(c, col, c, col + count, columns - col - count);
+        System.arraycopy(a, col, a, col + count, columns - col - count);
+        Arrays.fill(c, col, col + count, ' ');
+        Arrays.fill(a, col, col + count, blankAttr());
+        markDirty(cursorRow);
+    }
+
+    void deleteChars(int count) {
+        int col = Math.min(cursorCol, columns - 1);
+        count = Math.min(count, columns - col);
+        int[] c = chars[cursorRow];
+        int[] a = attrs[cursorRow];
+        System.arraycopy(c, col + count, c, col, columns - col - count);
+        System.arraycopy(a, col + count, a, col, columns - col - count);
+        Arrays.fill(c, columns - count, columns, ' ');
+        Arrays.fill(a, columns - count, columns, blankAttr());
+        markDirty(cursorRow);
+    }
+
+    void insertLines(int count) {
+        if (cursorRow < scrollTop || cursorRow > scrollBottom) return;
+        scrollDown(cursorRow, scrollBottom, count);
+        cursorCol = 0;
+    }
+
+    void deleteLines(int count) {
+        if (cursorRow < scrollTop || cursorRow > scrollBottom) return;
+        scrollUp(cursorRow, scrollBottom, count);
+        cursorCol = 0;
+    }
+
+    void scrollUp(int count) {
+        scrollUp(scrollTop, scrollBottom, count);
+    }
+
+    void scrollDown(int count) {
+        scrollDown(scrollTop, scrollBottom, count);
+    }
+
+    /** Строки [top+count..bottom] уезжают вверх, внизу появляются пустые. */
+    private void scrollUp(int top, int bottom, int count) {
+        count = Math.min(count, bottom - top + 1);
+        int blank = blankAttr();
+        // В историю уходят только строки с верха основного экрана (не из области прокрутки vim)
+        boolean keep = top == 0 && !altScreen;
+        for (int i = 0; i < count; i++) {
+            int[] c = chars[top];
+            int[] a = attrs[top];
+            if (keep) pushHistory(c, a);
+            System.arraycopy(chars, top + 1, chars, top, bottom - top);
+            System.arraycopy(attrs, top + 1, attrs, top, bottom - top);
+            clearRow(c, a, blank);
+            chars[bottom] = c;
+            attrs[bottom] = a;
+        }
+        markDirty(top, bottom);
+    }
+
+    private void scrollDown(int top, int bottom, int count) {
+        count = Math.min(count, bottom - top + 1);
+        int blank = blankAttr();
+        for (int i = 0; i < count; i++) {
+            int[] c = chars[bottom];
+            int[] a = attrs[bottom];
+            System.arraycopy(chars, top, chars, top + 1, bottom - top);
+            System.arraycopy(attrs, top, attrs, top + 1, bottom - top);
+            clearRow(c, a, blank);
+            chars[top] = c;
+            attrs[top] = a;
+        }
+        markDirty(top, bottom);
+    }
+
+    // --- MODES ---
+
+    void setAltScreen(boolean enabled) {
+        if (enabled == altScreen) return;
+        if (enabled) {
+            savedChars = chars;
+            savedAttrs = attrs;
+            chars = new int[rows][columns];
+            attrs = new int[rows][columns];
+            for (int r = 0; r < rows; r++) clearRow(chars[r], attrs[r], DEFAULT_ATTR);
+        } else if (savedChars != null) {
+            chars = savedChars;
+            attrs = savedAttrs;
+            savedChars = null;
+            savedAttrs = null;
+        }
+        altScreen = enabled;
+        markAllDirty();
+    }
+
+    void reset() {
+        currentAttr = DEFAULT_ATTR;
+        cursorVisible = true;
+        autoWrap = true;
+        wrapPending = false;
+        savedChars = null;
+        savedAttrs = null;
+        altScreen = false;
+        historyStart = 0;
+        historySize = 0;
+        allocate(columns, rows);
+        cursorRow = 0;
+        cursorCol = 0;
+    }
+
+    private static void clearRow(int[] c, int[] a, int attr) {
+        Arrays.fill(c, ' ');
+        Arrays.fill(a, attr);
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return v < min ? min : (v > max ? max : v);
+    }
+}
\ No newline at end of file
@@ -1,22 +1,70 @@
 package pro.kaleert.XKode.views;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.os.Looper;
 import android.text.InputType;
-import android.text.SpannableStringBuilder;
 import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.HapticFeedbackConstants;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
-import android.view.inputmethod.InputConnectionWrapper;
-import androidx.appcompat.widget.AppCompatEditText;
+import android.view.inputmethod.InputMethodManager;
 
 import pro.kaleert.XKode.managers.TerminalManager;
+import pro.kaleert.XKode.terminal.TerminalEmulator;
+import pro.kaleert.XKode.terminal.TerminalScreen;
 
-public class ConsoleView extends AppCompatEditText {
+/**
+ * Нативный терминал: вывод разбирает TerminalEmulator в сетку ячеек,
+ * а View перерисовывает в фоновый Bitmap только измененные строки.
+ * Свайп по вертикали листает историю, долгое нажатие выделяет текст и копирует его.
+ */
+public class ConsoleView extends View {
+
+    private static final int DEFAULT_FG = 0xFFCCCCCC;
+    private static final int DEFAULT_BG = 0xFF1E1E1E;
+    private static final int SELECTION_COLOR = 0x664A90E2;
+    private static final int[] PALETTE = buildPalette();
 
     private String sessionId;
+    private TerminalEmulator emulator;
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint bgPaint = new Paint();
+    private float cellWidth;
+    private int cellHeight;
+    private float baseline;
+
+    // Кэш отрисованного экрана: на кадр дорисовываем только грязные строки
+    private Bitmap backing;
+    private Canvas backingCanvas;
+    private char[] runChars = new char[256];
+
+    // Прокрутка истории: сколько строк от низа, и сколько строк истории уже учтено
+    private int scrollOffset;
+    private long seenHistory;
+    private float scrollRemainder;
+    private GestureDetector gestures;
+
+    // Выделение в координатах TerminalScreen.lineChars (отрицательные строки - история)
+    private boolean selecting;
+    private boolean hasSelection;
+    private int anchorRow;
+    private int anchorCol;
+    private int selRow;
+    private int selCol;
 
     public ConsoleView(Context context) {
         super(context);
@@ -30,98 +78,410 @@ public class ConsoleView extends AppCompatEditText {
 
     private void init() {
         // СТИЛИЗАЦИЯ
-        this.setBackgroundColor(Color.parseColor("#1e1e1e"));
-        this.setTextColor(Color.parseColor("#cccccc"));
-        this.setTextSize(12); // Меньше шрифт, как просил
-        this.setTypeface(Typeface.MONOSPACE);
-        
+        this.setBackgroundColor(DEFAULT_BG);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+        // Меньше шрифт, как просил
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12, getResources().getDisplayMetrics()));
+        cellWidth = textPaint.measureText("M");
+        Paint.FontMetrics fm = textPaint.getFontMetrics();
+        cellHeight = (int) Math.ceil(fm.descent - fm.ascent);
+        baseline = -fm.ascent;
+
+        emulator = new TerminalEmulator(80, 24, data -> {
+            // Ответы на запросы сервера (позиция курсора и т.п.)
+            if (sessionId != null) TerminalManager.getInstance(null).write(sessionId, data);
+        });
+
         // КУРСОР И ВВОД
-        this.setCursorVisible(true);
-        // Важно: Отключаем предложения, автокоррекцию и ставим мультилайн
-        this.setInputType(InputType.TYPE_CLASS_TEXT | 
-                          InputType.TYPE_TEXT_FLAG_MULTI_LINE | 
-                          InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS | 
-                          InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD); // "Password" трюк убирает полосу подсказок
-        
-        // Кнопка Enter вместо галочки
-        this.setImeOptions(EditorInfo.IME_FLAG_NO_ENTER_ACTION);
-        
-        // Блокируем стандартное изменение текста (мы будем менять его программно из SSH)
-        // Но оставляем возможность ввода
-        this.setTextIsSelectable(true);
         this.setFocusable(true);
         this.setFocusableInTouchMode(true);
+
+        gestures = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                if (hasSelection) {
+                    hasSelection = false;
+                    invalidate();
+                } else {
+                    showKeyboard();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                scrollHistory(distanceY);
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                selecting = true;
+                hasSelection = true;
+                anchorRow = selRow = rowAt(e.getY());
+                anchorCol = selCol = colAt(e.getX());
+                performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                invalidate();
+            }
+        });
     }
 
     public void setSessionId(String id) {
         this.sessionId = id;
         // Подписываемся на вывод терминала
         TerminalManager.getInstance(null).registerView(id, this);
+        syncPtySize();
     }
 
+    // --- OUTPUT ---
+
     public void appendText(String text) {
-        // Удаляем ANSI-коды (цвета), чтобы не было мусора [32m...
-        // Для полноценных цветов нужна библиотека типа Termux Terminal View, 
-        // но для начала сделаем чистый текст.
-        String cleanText = text.replaceAll("\u001B\\[[;\\d]*m", "");
-        
-        // Работаем в UI потоке
-        post(() -> {
-            // Умный автоскролл: если курсор был в конце, скроллим
-            boolean isAtBottom = (getSelectionStart() == length());
-            
-            getText().append(cleanText);
-            
-            if (isAtBottom) {
-                setSelection(length());
+        // TerminalManager уже присылает пачку раз в кадр из UI потока - лишний post не нужен
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            feed(text);
+        } else {
+            post(() -> feed(text));
+        }
+    }
+
+    private void feed(String text) {
+        emulator.append(text);
+        TerminalScreen screen = emulator.getScreen();
+        int added = (int) Math.min(screen.getHistoryPushed() - seenHistory, Integer.MAX_VALUE);
+        seenHistory = screen.getHistoryPushed();
+        if (added > 0) {
+            // Текст, который читают в истории или выделили, остается на месте
+            if (scrollOffset > 0) scrollOffset += added;
+            anchorRow -= added;
+            selRow -= added;
+        }
+        scrollOffset = Math.min(scrollOffset, screen.getHistorySize());
+        if (hasSelection && Math.min(anchorRow, selRow) < -screen.getHistorySize()) {
+            hasSelection = false;
+            selecting = false;
+        }
+        // Курсор мог сдвинуться и без изменения строк - перерисовка все равно дешевая
+        invalidate();
+    }
+
+    // --- LAYOUT ---
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w <= 0 || h <= 0) return;
+        int columns = Math.max(1, (int) (w / cellWidth));
+        int rows = Math.max(1, h / cellHeight);
+        emulator.resize(columns, rows);
+
+        if (backing != null) backing.recycle();
+        backing = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        backingCanvas = new Canvas(backing);
+        backingCanvas.drawColor(DEFAULT_BG);
+        emulator.getScreen().markAllDirty();
+        syncPtySize();
+    }
+
+    private void syncPtySize() {
+        if (sessionId == null || getWidth() <= 0) return;
+        TerminalScreen screen = emulator.getScreen();
+        TerminalManager.getInstance(null).resize(sessionId, screen.getColumns(), screen.getRows(), getWidth(), getHeight());
+    }
+
+    // --- DRAWING ---
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (backing == null) return;
+        TerminalScreen screen = emulator.getScreen();
+        if (scrollOffset > 0) {
+            // История в кэш не попадает: окно рисуем целиком, а грязные строки
+            // экрана копятся и дорисуются в кэш после возврата вниз
+            for (int row = 0; row < screen.getRows(); row++) {
+                drawRow(canvas, screen.lineChars(row - scrollOffset), screen.lineAttrs(row - scrollOffset), screen.getColumns(), row);
             }
-        });
+            drawSelection(canvas, screen);
+            return;
+        }
+        if (screen.hasDirtyRows()) {
+            for (int row = 0; row < screen.getRows(); row++) {
+                if (screen.isDirty(row)) drawRow(backingCanvas, screen.rowChars(row), screen.rowAttrs(row), screen.getColumns(), row);
+            }
+            screen.clearDirty();
+        }
+        canvas.drawBitmap(backing, 0, 0, null);
+        drawSelection(canvas, screen);
+
+        // Курсор рисуем поверх кэша, чтобы его движение не пачкало строки
+        if (screen.isCursorVisible()) {
+            int row = screen.getCursorRow();
+            int col = screen.getCursorCol();
+            float x = col * cellWidth;
+            float y = row * cellHeight;
+            bgPaint.setColor(DEFAULT_FG);
+            canvas.drawRect(x, y, x + cellWidth, y + cellHeight, bgPaint);
+            int cp = screen.rowChars(row)[col];
+            if (cp != ' ') {
+                int n = Character.toChars(cp, runChars, 0);
+                textPaint.setColor(DEFAULT_BG);
+                textPaint.setFakeBoldText(false);
+                textPaint.setUnderlineText(false);
+                canvas.drawText(runChars, 0, n, x, y + baseline, textPaint);
+            }
+        }
+    }
+
+    private void drawRow(Canvas canvas, int[] chars, int[] attrs, int screenColumns, int row) {
+        // Строка истории может быть другой ширины, если экран с тех пор меняли
+        int columns = Math.min(chars.length, screenColumns);
+        float top = row * cellHeight;
+        float bottom = top + cellHeight;
+
+        int start = 0;
+        while (start < columns) {
+            // Группируем соседние ячейки с одинаковыми атрибутами в один drawText
+            int attr = attrs[start];
+            int end = start + 1;
+            while (end < columns && attrs[end] == attr) end++;
+
+            int fg = resolveColor(TerminalScreen.foreground(attr), DEFAULT_FG, (attr & TerminalScreen.FLAG_BOLD) != 0);
+            int bg = resolveColor(TerminalScreen.background(attr), DEFAULT_BG, false);
+            if ((attr & TerminalScreen.FLAG_INVERSE) != 0) {
+                int t = fg;
+                fg = bg;
+                bg = t;
+            }
+            if ((attr & TerminalScreen.FLAG_DIM) != 0) fg = (fg & 0x00FFFFFF) | 0x99000000;
+
+            float x = start * cellWidth;
+            bgPaint.setColor(bg);
+            canvas.drawRect(x, top, end * cellWidth, bottom, bgPaint);
+
+            if (runChars.length < (end - start) * 2) runChars = new char[(end - start) * 2];
+            int n = 0;
+            boolean blank = true;
+            for (int i = start; i < end; i++) {
+                int cp = chars[i];
+                if (cp != ' ') blank = false;
+                n += Character.toChars(cp, runChars, n);
+            }
+            if (!blank || (attr & TerminalScreen.FLAG_UNDERLINE) != 0) {
+                textPaint.setColor(fg);
+                textPaint.setFakeBoldText((attr & TerminalScreen.FLAG_BOLD) != 0);
+                textPaint.setUnderlineText((attr & TerminalScreen.FLAG_UNDERLINE) != 0);
+                canvas.drawText(runChars, 0, n, x, top + baseline, textPaint);
+            }
+            start = end;
+        }
+
+        // Остаток справа (ширина не кратна ячейке)
+        bgPaint.setColor(DEFAULT_BG);
+        canvas.drawRect(columns * cellWidth, top, getWidth(), bottom, bgPaint);
+    }
+
+    private void drawSelection(Canvas canvas, TerminalScreen screen) {
+        if (!hasSelection) return;
+        boolean forward = anchorRow < selRow || (anchorRow == selRow && anchorCol <= selCol);
+        int startRow = forward ? anchorRow : selRow;
+        int startCol = forward ? anchorCol : selCol;
+        int endRow = forward ? selRow : anchorRow;
+        int endCol = forward ? selCol : anchorCol;
+        bgPaint.setColor(SELECTION_COLOR);
+        for (int r = Math.max(startRow, -scrollOffset); r <= endRow && r + scrollOffset < screen.getRows(); r++) {
+            int from = r == startRow ? startCol : 0;
+            int to = r == endRow ? endCol + 1 : screen.getColumns();
+            float top = (r + scrollOffset) * cellHeight;
+            canvas.drawRect(from * cellWidth, top, to * cellWidth, top + cellHeight, bgPaint);
+        }
+    }
+
+    private static int resolveColor(int index, int def, boolean bold) {
+        if (index == TerminalScreen.COLOR_DEFAULT) return def;
+        // Жирный с базовым цветом - яркий вариант, как в xterm
+        if (bold && index < 8) index += 8;
+        return PALETTE[index];
+    }
+
+    private static int[] buildPalette() {
+        int[] p = new int[256];
+        int[] base = {
+            0x000000, 0xCD3131, 0x0DBC79, 0xE5E510, 0x2472C8, 0xBC3FBC, 0x11A8CD, 0xE5E5E5,
+            0x666666, 0xF14C4C, 0x23D18B, 0xF5F543, 0x3B8EEA, 0xD670D6, 0x29B8DB, 0xFFFFFF
+        };
+        for (int i = 0; i < 16; i++) p[i] = 0xFF000000 | base[i];
+        int[] levels = {0, 95, 135, 175, 215, 255};
+        for (int i = 0; i < 216; i++) {
+            p[16 + i] = Color.rgb(levels[i / 36], levels[(i / 6) % 6], levels[i % 6]);
+        }
+        for (int i = 0; i < 24; i++) {
+            int v = 8 + i * 10;
+            p[232 + i] = Color.rgb(v, v, v);
+        }
+        return p;
+    }
+
+    // --- INPUT ---
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (selecting) {
+            // После долгого нажатия палец тянет конец выделения, отпускание копирует
+            int action = event.getActionMasked();
+            if (action == MotionEvent.ACTION_MOVE || action == MotionEvent.ACTION_UP) {
+                selRow = rowAt(event.getY());
+                selCol = colAt(event.getX());
+                invalidate();
+            }
+            if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                selecting = false;
+                copySelection();
+            }
+            return true;
+        }
+        gestures.onTouchEvent(event);
+        return true;
+    }
+
+    private void showKeyboard() {
+        requestFocus();
+        InputMethodManager imm = (InputMethodManager) getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+        if (imm != null) imm.showSoftInput(this, InputMethodManager.SHOW_IMPLICIT);
+    }
+
+    private void scrollHistory(float distanceY) {
+        TerminalScreen screen = emulator.getScreen();
+        // На альтернативном экране (vim, less) история основного не показывается
+        if (screen.isAltScreen()) return;
+        scrollRemainder += distanceY;
+        int lines = (int) (scrollRemainder / cellHeight);
+        if (lines == 0) return;
+        scrollRemainder -= lines * cellHeight;
+        int next = Math.max(0, Math.min(scrollOffset - lines, screen.getHistorySize()));
+        if (next != scrollOffset) {
+            scrollOffset = next;
+            invalidate();
+        }
+    }
+
+    private int rowAt(float y) {
+        int rows = emulator.getScreen().getRows();
+        return Math.max(0, Math.min((int) (y / cellHeight), rows - 1)) - scrollOffset;
+    }
+
+    private int colAt(float x) {
+        int columns = emulator.getScreen().getColumns();
+        return Math.max(0, Math.min((int) (x / cellWidth), columns - 1));
+    }
+
+    private void copySelection() {
+        TerminalScreen screen = emulator.getScreen();
+        boolean forward = anchorRow < selRow || (anchorRow == selRow && anchorCol <= selCol);
+        int startRow = forward ? anchorRow : selRow;
+        int startCol = forward ? anchorCol : selCol;
+        int endRow = forward ? selRow : anchorRow;
+        int endCol = forward ? selCol : anchorCol;
+
+        StringBuilder sb = new StringBuilder();
+        for (int r = startRow; r <= endRow; r++) {
+            int[] line = screen.lineChars(r);
+            int from = Math.min(r == startRow ? startCol : 0, line.length);
+            int to = Math.min(r == endRow ? endCol + 1 : line.length, line.length);
+            // Хвостовые пробелы ячеек - не часть текста
+            while (to > from && line[to - 1] == ' ') to--;
+            for (int i = from; i < to; i++) sb.appendCodePoint(line[i]);
+            if (r < endRow) sb.append('\n');
+        }
+        if (sb.length() == 0) return;
+        ClipboardManager cm = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        if (cm != null) cm.setPrimaryClip(ClipData.newPlainText("terminal", sb.toString()));
+    }
+
+    @Override
+    public boolean onCheckIsTextEditor() {
+        return true;
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        // Аппаратная клавиатура
+        if (handleKey(event)) return true;
+        return super.onKeyDown(keyCode, event);
+    }
+
+    private void send(String data) {
+        // Ввод возвращает к живому экрану, как в обычных терминалах
+        if (scrollOffset > 0) {
+            scrollOffset = 0;
+            invalidate();
+        }
+        if (sessionId != null) TerminalManager.getInstance(null).write(sessionId, data);
+    }
+
+    private boolean handleKey(KeyEvent event) {
+        if (event.getAction() != KeyEvent.ACTION_DOWN) return false;
+        boolean app = emulator.isApplicationCursorKeys();
+        switch (event.getKeyCode()) {
+            case KeyEvent.KEYCODE_DEL: send("\u007f"); return true;
+            case KeyEvent.KEYCODE_FORWARD_DEL: send("\u001b[3~"); return true;
+            case KeyEvent.KEYCODE_ENTER: send("\r"); return true;
+            case KeyEvent.KEYCODE_TAB: send("\t"); return true;
+            case KeyEvent.KEYCODE_ESCAPE: send("\u001b"); return true;
+            case KeyEvent.KEYCODE_DPAD_UP: send(app ? "\u001bOA" : "\u001b[A"); return true;
+            case KeyEvent.KEYCODE_DPAD_DOWN: send(app ? "\u001bOB" : "\u001b[B"); return true;
+            case KeyEvent.KEYCODE_DPAD_RIGHT: send(app ? "\u001bOC" : "\u001b[C"); return true;
+            case KeyEvent.KEYCODE_DPAD_LEFT: send(app ? "\u001bOD" : "\u001b[D"); return true;
+            case KeyEvent.KEYCODE_MOVE_HOME: send("\u001b[H"); return true;
+            case KeyEvent.KEYCODE_MOVE_END: send("\u001b[F"); return true;
+            case KeyEvent.KEYCODE_PAGE_UP: send("\u001b[5~"); return true;
+            case KeyEvent.KEYCODE_PAGE_DOWN: send("\u001b[6~"); return true;
+            default: break;
+        }
+        int unicode = event.getUnicodeChar(event.getMetaState() & ~KeyEvent.META_CTRL_MASK);
+        if (unicode == 0) return false;
+        if (event.isCtrlPressed()) {
+            // Ctrl+буква -> управляющий символ (Ctrl+C = 0x03)
+            int lower = Character.toLowerCase(unicode);
+            if (lower >= 'a' && lower <= 'z') {
+                send(String.valueOf((char) (lower - 'a' + 1)));
+                return true;
+            }
+        }
+        send(new String(Character.toChars(unicode)));
+        return true;
     }
 
     // ПЕРЕХВАТ ВВОДА (Отправка в SSH)
     @Override
     public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
-        InputConnection ic = super.onCreateInputConnection(outAttrs);
-        // Убираем флаг, который может скрывать Enter
-        outAttrs.imeOptions &= ~EditorInfo.IME_FLAG_NAVIGATE_NEXT;
-        outAttrs.imeOptions &= ~EditorInfo.IME_FLAG_NAVIGATE_PREVIOUS;
-        outAttrs.inputType = InputType.TYPE_NULL; // Хак чтобы клавиатура работала, но текст не вставлялся сам
+        // Хак чтобы клавиатура работала, но без подсказок и автозамены
+        outAttrs.inputType = InputType.TYPE_NULL;
+        // Кнопка Enter вместо галочки
+        outAttrs.imeOptions = EditorInfo.IME_FLAG_NO_ENTER_ACTION | EditorInfo.IME_FLAG_NO_EXTRACT_UI;
 
-        return new InputConnectionWrapper(ic, true) {
+        return new BaseInputConnection(this, false) {
             @Override
             public boolean commitText(CharSequence text, int newCursorPosition) {
                 // Когда юзер вводит текст - шлем в SSH
-                if (sessionId != null) {
-                    TerminalManager.getInstance(null).write(sessionId, text.toString());
-                }
-                return true; // Не вызываем super, чтобы текст не дублировался локально
+                send(text.toString());
+                return true;
             }
 
             @Override
             public boolean sendKeyEvent(KeyEvent event) {
-                if (event.getAction() == KeyEvent.ACTION_DOWN) {
-                    if (sessionId != null) {
-                        if (event.getKeyCode() == KeyEvent.KEYCODE_DEL) {
-                            TerminalManager.getInstance(null).write(sessionId, "\u007f");
-                        } else if (event.getKeyCode() == KeyEvent.KEYCODE_ENTER) {
-                            TerminalManager.getInstance(null).write(sessionId, "\r");
-                        } else {
-                            // Остальные спецклавиши
-                            return super.sendKeyEvent(event); 
-                        }
-                    }
-                }
-                return true;
+                if (handleKey(event)) return true;
+                return super.sendKeyEvent(event);
             }
-            
+
             @Override
             public boolean deleteSurroundingText(int beforeLength, int afterLength) {
                 // Обработка Backspace на некоторых клавиатурах (Gboard)
-                if (beforeLength == 1 && afterLength == 0) {
-                     if (sessionId != null) TerminalManager.getInstance(null).write(sessionId, "\u007f");
-                     return true; 
-                }
-                return super.deleteSurroundingText(beforeLength, afterLength);
+                for (int i = 0; i < beforeLength; i++) send("\u007f");
+                return true;
             }
         };
     }
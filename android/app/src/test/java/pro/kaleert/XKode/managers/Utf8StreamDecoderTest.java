@@ -0,0 +1,89 @@
+package pro.kaleert.XKode.managers;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Декодер терминала получает байты кусками произвольной длины: многобайтовый символ
+ * может разрезать любая граница чтения. Результат должен совпадать с декодированием целиком.
+ */
+public class Utf8StreamDecoderTest {
+
+    private static final String[] SAMPLES = {
+        "ls -la\r\n", "Привет, мир! ", "┌──┬──┐│ ╚═╝ ", "😀🚀👍🏽", "日本語テキスト", "\u001b[32mok\u001b[0m", "ß€ƒ"
+    };
+
+    // Поток, который отдает не больше случайного числа байт за вызов read
+    private static class ChoppyStream extends InputStream {
+        private final ByteArrayInputStream data;
+        private final Random random;
+
+        ChoppyStream(byte[] bytes, Random random) {
+            this.data = new ByteArrayInputStream(bytes);
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return data.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            return data.read(b, off, 1 + random.nextInt(Math.min(len, 7)));
+        }
+    }
+
+    private static String decodeInChunks(byte[] bytes, Random random, int capacity) throws IOException {
+        Utf8StreamDecoder decoder = new Utf8StreamDecoder(capacity);
+        InputStream stream = new ChoppyStream(bytes, random);
+        StringBuilder sb = new StringBuilder();
+        while (decoder.read(stream) != -1) sb.append(decoder.drain());
+        sb.append(decoder.finish());
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pieces; i++) sb.append(SAMPLES[random.nextInt(SAMPLES.length)]);
+        return sb.toString();
+    }
+
+    @Test
+    public void validTextSurvivesRandomSplits() throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            String text = randomText(random, 1 + random.nextInt(40));
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            assertEquals(text, decodeInChunks(bytes, random, 16 + random.nextInt(64)));
+        }
+    }
+
+    @Test
+    public void malformedBytesMatchWholeDecode() throws IOException {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            byte[] bytes = randomText(random, 1 + random.nextInt(20)).getBytes(StandardCharsets.UTF_8);
+            // Портим несколько байт: обрывки последовательностей и лишние продолжения
+            for (int i = 0; i < 3 && bytes.length > 0; i++) bytes[random.nextInt(bytes.length)] = (byte) (0x80 + random.nextInt(0x80));
+            String expected = new String(bytes, StandardCharsets.UTF_8);
+            assertEquals(expected, decodeInChunks(bytes, random, 16 + random.nextInt(64)));
+        }
+    }
+
+    @Test
+    public void truncatedTailBecomesReplacementChar() throws IOException {
+        byte[] full = "ок😀".getBytes(StandardCharsets.UTF_8);
+        byte[] cut = new byte[full.length - 2];
+        System.arraycopy(full, 0, cut, 0, cut.length);
+        assertEquals("ок\uFFFD", decodeInChunks(cut, new Random(1), 16));
+    }
+}
\ No newline at end of file
@@ -18,6 +18,8 @@ class LoggerService {
             await NativeService.createDir('/storage/emulated/0/.xkode');
             await NativeService.createDir('/storage/emulated/0/.xkode/extensions'); // Заготовка на будущее
             await NativeService.createDir(LOG_DIR);
+            // Лог пишется пачками; session.log -> session.log.1 ... при 5 МБ
+            NativeService.configureAppendFile(LOG_FILE, { rotateBytes: 5 * 1024 * 1024, keepFiles: 3 });
             
             const startMsg = `\n--- SESSION START: ${new Date().toISOString()} ---\n`;
             await NativeService.appendFile(LOG_FILE, startMsg);
@@ -61,6 +63,7 @@ class LoggerService {
         const zipPath = `/storage/emulated/0/XKode_Logs_${Date.now()}.zip`;
         try {
             this.info('Logger', 'Exporting logs...');
+            await NativeService.flushAppendFiles(LOG_FILE);
             await NativeService.zipFolder('/storage/emulated/0/.xkode', zipPath);
             this.info('Logger', `Logs exported to ${zipPath}`);
             return zipPath;
@@ -2,25 +2,76 @@ import { NativeModules, DeviceEventEmitter } from 'react-native';
 const { XKodeNative } = NativeModules;
 
 export default {
-    listLocal: (path) => XKodeNative.listLocalFiles(path),
-    readLocal: (path) => XKodeNative.readLocalFile(path),
-    saveLocal: (path, content) => XKodeNative.saveLocalFile(path, content),
+    // opts (необязательно): { requestId, priority: 'interactive' | 'normal' | 'background' }
+    listLocal: (path, opts) => XKodeNative.listLocalFiles(path, opts || null),
+    readLocal: (path, opts) => XKodeNative.readLocalFile(path, opts || null),
+    readLocalRange: (path, offset, length, opts) => XKodeNative.readLocalFileRange(path, offset, length, opts || null),
+    getLineCount: (path, opts) => XKodeNative.getLineCount(path, opts || null),
+    readLines: (path, fromLine, count, opts) => XKodeNative.readLines(path, fromLine, count, opts || null),
+    saveLocal: (path, content, opts) => XKodeNative.saveLocalFile(path, content, opts || null),
+    hashLocal: (path, opts) => XKodeNative.hashLocalFile(path, opts || null),
+    saveLocalEdits: (path, baseHash, edits, opts) => XKodeNative.saveLocalEdits(path, baseHash, edits, opts || null),
+    openDocument: (path, opts) => XKodeNative.openDocument(path, opts || null),
+    applyDocumentEdits: (docId, edits) => XKodeNative.applyDocumentEdits(docId, edits),
+    getDocumentText: (docId, start, length, opts) => XKodeNative.getDocumentText(docId, start, length, opts || null),
+    getDocumentLines: (docId, fromLine, count, opts) => XKodeNative.getDocumentLines(docId, fromLine, count, opts || null),
+    snapshotDocument: (docId) => XKodeNative.snapshotDocument(docId),
+    restoreDocument: (docId, snapshotId) => XKodeNative.restoreDocument(docId, snapshotId),
+    saveDocument: (docId, opts) => XKodeNative.saveDocument(docId, opts || null),
+    closeDocument: (docId) => XKodeNative.closeDocument(docId),
+    cancelRequest: (requestId) => XKodeNative.cancelRequest(requestId),
     
     // New methods for Logger
     createDir: (path) => XKodeNative.createDir(path),
     appendFile: (path, content) => XKodeNative.appendFile(path, content),
-    zipFolder: (src, dest) => XKodeNative.zipFolder(src, dest),
+    configureAppendFile: (path, options) => XKodeNative.configureAppendFile(path, options || null),
+    flushAppendFiles: (path, opts) => XKodeNative.flushAppendFiles(path || null, opts || null),
+    zipFolder: (src, dest, options, opts) => XKodeNative.zipFolder(src, dest, options || null, opts || null),
+    extractArchive: (src, dest, options, opts) => XKodeNative.extractArchive(src, dest, options || null, opts || null),
+    createSnapshot: (root, options, opts) => XKodeNative.createSnapshot(root, options || null, opts || null),
+    listSnapshots: (root, opts) => XKodeNative.listSnapshots(root, opts || null),
+    restoreSnapshot: (root, id, dest, opts) => XKodeNative.restoreSnapshot(root, id, dest, opts || null),
+    deleteSnapshot: (root, id, opts) => XKodeNative.deleteSnapshot(root, id, opts || null),
+    syncSftp: (cfg, localRoot, remoteRoot, options, opts) => XKodeNative.syncSftp(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, localRoot, remoteRoot, options || null, opts || null),
     
-    readSftp: (config, path) => XKodeNative.readSftpFile(config.host, parseInt(config.port), config.user, config.password, path),
-    listSftp: (cfg, path) => XKodeNative.listSftpFiles(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path),
-    listFtp: (cfg, path) => XKodeNative.listFtpFiles(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path),
+    readSftp: (config, path, opts) => XKodeNative.readSftpFile(config.host, parseInt(config.port), config.user, config.password, path, opts || null),
+    readSftpRange: (cfg, path, offset, length, opts) => XKodeNative.readSftpFileRange(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, offset, length, opts || null),
+    downloadSftp: (cfg, remotePath, localPath, opts) => XKodeNative.downloadSftpFile(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, remotePath, localPath, opts || null),
+    saveSftp: (cfg, path, content, opts) => XKodeNative.saveSftpFile(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, content, !!(opts && opts.skipUnchanged), opts || null),
+    uploadSftp: (cfg, localPath, remotePath, opts) => XKodeNative.uploadSftpFile(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, localPath, remotePath, !!(opts && opts.skipUnchanged), opts || null),
+    listSftp: (cfg, path, opts) => XKodeNative.listSftpFiles(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, opts || null),
+    configureSftpPrefetch: (options) => XKodeNative.configureSftpPrefetch(options || null),
+    cancelSftpPrefetch: () => XKodeNative.cancelSftpPrefetch(),
+    openLocalListing: (path, options, opts) => XKodeNative.openLocalListing(path, options || null, opts || null),
+    openSftpListing: (cfg, path, options, opts) => XKodeNative.openSftpListing(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, options || null, opts || null),
+    listMore: (cursor, opts) => XKodeNative.listMore(cursor, opts || null),
+    closeListing: (cursor) => XKodeNative.closeListing(cursor),
+    watchLocal: (watchId, path, recursive, opts) => XKodeNative.watchLocal(watchId, path, !!recursive, opts || null),
+    watchSftp: (watchId, cfg, path, intervalMs) => XKodeNative.watchSftp(watchId, cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, intervalMs || 0),
+    unwatch: (watchId) => XKodeNative.unwatch(watchId),
+    searchFiles: (root, pattern, options, opts) => XKodeNative.searchFiles(root, pattern, options || null, opts || null),
+    indexWorkspace: (root, opts) => XKodeNative.indexWorkspace(root, opts || null),
+    findFiles: (root, query, limit, opts) => XKodeNative.findFiles(root, query, limit || 50, opts || null),
+    searchIndexed: (root, pattern, options, opts) => XKodeNative.searchIndexed(root, pattern, options || null, opts || null),
+    listFtp: (cfg, path, opts) => XKodeNative.listFtpFiles(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, opts || null),
+    readFtp: (cfg, path, opts) => XKodeNative.readFtpFile(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, opts || null),
+    saveFtp: (cfg, path, content, opts) => XKodeNative.saveFtpFile(cfg.host, parseInt(cfg.port), cfg.user, cfg.password, path, content, opts || null),
 
     startSshSession: (id, host, port, user, pass) => XKodeNative.startSshSession(id, host, port, user, pass),
     startLocalSession: (id) => XKodeNative.startLocalSession(id),
     writeToSession: (id, data) => XKodeNative.writeToSession(id, data),
+    getSessionInputQueue: (id) => XKodeNative.getSessionInputQueue(id),
     closeSession: (id) => XKodeNative.closeSession(id),
 
     onTerminalOutput: (cb) => DeviceEventEmitter.addListener('TERMINAL_OUTPUT', cb),
+    onTransferProgress: (cb) => DeviceEventEmitter.addListener('TRANSFER_PROGRESS', cb),
+    onListPage: (cb) => DeviceEventEmitter.addListener('LIST_PAGE', cb),
+    onSearchHits: (cb) => DeviceEventEmitter.addListener('SEARCH_HITS', cb),
+    onFsChanged: (cb) => DeviceEventEmitter.addListener('FS_CHANGED', cb),
+    // false - не дублировать вывод в JS, пока открыт нативный терминал
+    setTerminalJsMirror: (enabled) => XKodeNative.setTerminalJsMirror(enabled),
+    configureScrollback: (maxBytes, spillToDisk) => XKodeNative.configureScrollback(maxBytes, spillToDisk),
+    getScrollback: (id, offset, length) => XKodeNative.getScrollback(id, offset, length),
     
     checkPermission: () => XKodeNative.checkPermission(),
     requestPermission: () => XKodeNative.requestPermission(),